@@ -3,6 +3,7 @@ package de.fzi.osh.com.control.implementation;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -22,6 +23,7 @@ import de.fzi.osh.com.control.configuration.ControlCommunicationConfiguration;
 import de.fzi.osh.core.configuration.BaseConfiguration;
 import de.fzi.osh.core.configuration.ConfigurationService;
 import de.fzi.osh.core.data.SftpConnection;
+import de.fzi.osh.time.BlockingTask;
 import de.fzi.osh.time.TimeService;
 
 @Component(service=ControlCommunicationService.class, immediate=true)
@@ -36,6 +38,10 @@ public class ControlCommunication implements ControlCommunicationService, Runnab
 	
 	private SftpConnection sftp;
 	
+	// polling blocks on sftp, hence it runs on its own thread
+	private BlockingTask polling;
+	private ScheduledFuture<?> pollingTimer;
+	
 	public ControlCommunication() {
 		listeners = new ArrayList<ControlCommunicationListener>();
 	}
@@ -208,11 +214,16 @@ public class ControlCommunication implements ControlCommunicationService, Runnab
 		
 		sftp = new SftpConnection(configuration.host, configuration.port, configuration.user, configuration.password);
 		
-		timeService.scheduleAtRate(this, 0, configuration.pollingPeriod * 1000);
+		polling = new BlockingTask("de.fzi.osh.com.control.polling", this);
+		pollingTimer = timeService.scheduleAtRate(polling, 0, configuration.pollingPeriod * 1000);
 	}
 
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
+		if(null != pollingTimer) {
+			pollingTimer.cancel(false);
+			polling.shutdown();
+		}
 	}
 
 	@Override
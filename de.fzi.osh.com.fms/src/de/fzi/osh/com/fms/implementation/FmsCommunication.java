@@ -7,6 +7,7 @@ import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Logger;
 
 import org.osgi.service.component.annotations.Activate;
@@ -27,6 +28,7 @@ import de.fzi.osh.com.fms.datalink.DataLink4;
 import de.fzi.osh.core.configuration.BaseConfiguration;
 import de.fzi.osh.core.configuration.ConfigurationService;
 import de.fzi.osh.core.data.SftpConnection;
+import de.fzi.osh.time.BlockingTask;
 import de.fzi.osh.time.TimeService;
 
 @Component(service=FmsCommunicationService.class, immediate=true)
@@ -41,6 +43,10 @@ public class FmsCommunication implements FmsCommunicationService, Runnable {
 	
 	private SftpConnection sftp;
 	
+	// polling blocks on sftp, hence it runs on its own thread
+	private BlockingTask polling;
+	private ScheduledFuture<?> pollingTimer;
+	
 	public FmsCommunication() {
 		listeners = new ArrayList<FmsCommunicationListener>();
 	}
@@ -554,10 +560,15 @@ public class FmsCommunication implements FmsCommunicationService, Runnable {
 		/* DEBUGGING */ /*
 		publishSchedule(test, test2, PublicationType.InitialSchedule);*/
 		
-		timeService.scheduleAtRate(this, 0, configuration.pollingPeriod * 1000);		
+		polling = new BlockingTask("de.fzi.osh.com.fms.polling", this);
+		pollingTimer = timeService.scheduleAtRate(polling, 0, configuration.pollingPeriod * 1000);		
 	}
 
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
+		if(null != pollingTimer) {
+			pollingTimer.cancel(false);
+			polling.shutdown();
+		}
 	}
 }
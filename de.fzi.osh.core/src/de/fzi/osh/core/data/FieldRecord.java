@@ -0,0 +1,64 @@
+package de.fzi.osh.core.data;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+/**
+ * Journal record holding the new values of some public fields of a state. Suited for states whose fields are replaced as a whole.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class FieldRecord {
+
+	private static Logger log = Logger.getLogger(FieldRecord.class.getName());
+
+	private static Gson gson = new Gson();
+
+	/**
+	 * field name -> value
+	 */
+	private Map<String, JsonElement> fields = new HashMap<String, JsonElement>();
+
+	/**
+	 * Creates a record holding the current values of the given fields.
+	 *
+	 * @param state
+	 * @param names
+	 * @return
+	 */
+	public static FieldRecord of(Object state, String... names) {
+		FieldRecord record = new FieldRecord();
+		for(String name : names) {
+			try {
+				Field field = state.getClass().getField(name);
+				record.fields.put(name, gson.toJsonTree(field.get(state), field.getGenericType()));
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Unknown field '" + name + "'.", e);
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * Sets the fields of the state to the values of the record. Unknown fields are skipped.
+	 *
+	 * @param state
+	 * @param record
+	 */
+	public static void apply(Object state, FieldRecord record) {
+		for(Map.Entry<String, JsonElement> entry : record.fields.entrySet()) {
+			try {
+				Field field = state.getClass().getField(entry.getKey());
+				field.set(state, gson.fromJson(entry.getValue(), field.getGenericType()));
+			} catch (ReflectiveOperationException | IllegalArgumentException e) {
+				log.warning("Skipping unknown field '" + entry.getKey() + "'.");
+			}
+		}
+	}
+}
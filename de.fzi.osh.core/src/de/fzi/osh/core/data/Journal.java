@@ -0,0 +1,176 @@
+package de.fzi.osh.core.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+
+/**
+ * Persists a state as snapshot plus an append-only journal of change records.
+ *
+ * Changes are appended as one json line per record. Once the journal holds $compactionThreshold records, a new snapshot is written
+ * (see {@link Json#writeFile(String, Object)}, atomic) and the journal is emptied. On recovery the records of the journal are replayed on the snapshot.
+ * A torn last record (crash during append) is ignored.
+ *
+ * Records have to be idempotent (e.g. put/remove instead of add/subtract), since a crash during compaction may replay records already contained in the snapshot.
+ *
+ * @author K. Foerderer
+ *
+ * @param <T> state
+ * @param <R> change record
+ */
+public class Journal<T, R> {
+
+	private static Logger log = Logger.getLogger(Journal.class.getName());
+
+	/**
+	 * Applies a record to a state.
+	 *
+	 * @author K. Foerderer
+	 *
+	 * @param <T>
+	 * @param <R>
+	 */
+	public static interface Replay<T, R> {
+		public void apply(T state, R record);
+	}
+
+	private static Gson gson = new Gson();
+
+	private String filename;
+	private File journalFile;
+	private Class<T> stateClass;
+	private Class<R> recordClass;
+	private Replay<T, R> replay;
+	private int compactionThreshold;
+
+	private Writer writer;
+	private int records;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param filename snapshot file, the journal is stored in $filename.journal
+	 * @param stateClass
+	 * @param recordClass
+	 * @param replay
+	 * @param compactionThreshold number of records after which a snapshot is written
+	 */
+	public Journal(String filename, Class<T> stateClass, Class<R> recordClass, Replay<T, R> replay, int compactionThreshold) {
+		this.filename = filename;
+		this.journalFile = new File(filename + ".journal");
+		this.stateClass = stateClass;
+		this.recordClass = recordClass;
+		this.replay = replay;
+		this.compactionThreshold = Math.max(1, compactionThreshold);
+	}
+
+	/**
+	 * Restores the state from snapshot and journal and writes a new snapshot.
+	 *
+	 * @return restored state, a new instance if there is no snapshot or <i>null</i> if it could not be created
+	 */
+	public synchronized T recover() {
+		T state = Json.readFile(filename, stateClass);
+		if(null == state) {
+			return null;
+		}
+
+		int replayed = 0;
+		if(journalFile.exists()) {
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+				String line;
+				while(null != (line = reader.readLine())) {
+					if(line.isEmpty()) {
+						continue;
+					}
+					R record;
+					try {
+						record = gson.fromJson(line, recordClass);
+					} catch(Exception e) {
+						log.warning("Ignoring corrupt journal record in '" + journalFile + "': " + e.toString());
+						break;
+					}
+					replay.apply(state, record);
+					replayed++;
+				}
+			} catch (IOException e) {
+				log.severe("Could not read journal '" + journalFile + "'. [" + e.toString() + "]");
+			}
+		}
+		log.fine("Recovered '" + filename + "' replaying " + replayed + " journal records.");
+
+		// start with an empty journal
+		snapshot(state);
+		return state;
+	}
+
+	/**
+	 * Appends a record. Writes a snapshot of the state if the journal is full.
+	 * The record has to be applied to the state already.
+	 *
+	 * @param state
+	 * @param record
+	 */
+	public synchronized void append(T state, R record) {
+		try {
+			if(null == writer) {
+				writer = new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8);
+			}
+			writer.write(gson.toJson(record));
+			writer.write('\n');
+			writer.flush();
+			records++;
+		} catch (IOException e) {
+			log.severe("Could not append to journal '" + journalFile + "'. [" + e.toString() + "]");
+			// do not lose the change
+			snapshot(state);
+			return;
+		}
+		if(records >= compactionThreshold) {
+			snapshot(state);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the state and empties the journal.
+	 *
+	 * @param state
+	 */
+	public synchronized void snapshot(T state) {
+		if(false == Json.writeFile(filename, state)) {
+			// keep journal, the old snapshot is still valid
+			return;
+		}
+		close();
+		try {
+			// truncate
+			new FileOutputStream(journalFile, false).close();
+			records = 0;
+		} catch (IOException e) {
+			log.severe("Could not truncate journal '" + journalFile + "'. [" + e.toString() + "]");
+		}
+	}
+
+	/**
+	 * Closes the journal file. It is reopened on the next append.
+	 */
+	public synchronized void close() {
+		if(null != writer) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.warning(e.toString());
+			}
+			writer = null;
+		}
+	}
+}
@@ -1,10 +1,18 @@
 package de.fzi.osh.core.data;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,7 +71,7 @@ public class Json {
 		T dataStructure = null;
 		
 		// read file content and try to parse it using gson
-		try(Reader reader = new FileReader(filename)) {			
+		try(Reader reader = new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8)) {			
 			dataStructure = gson.fromJson(reader, classOfIt);			
 		} catch(IOException ioE) {
 			log.log(Level.SEVERE, "Could not load file: " + filename);
@@ -89,16 +97,39 @@ public class Json {
 	/**
 	 * Save configuration to a json file
 	 * 
+	 * The data is written to a temporary file first, which then replaces the file. Hence, the file either holds the old or the new data, even on a crash.
+	 * 
 	 * @param filename
+	 * @return <i>false</i> if writing failed
 	 */
-	public static<T> void writeFile(String filename, T dataStructure) {
+	public static<T> boolean writeFile(String filename, T dataStructure) {
 		Gson gson = new Gson();
 		String json = gson.toJson(dataStructure);
 		
-		try(PrintWriter out = new PrintWriter(filename)){
-		    out.println( json );
-		} catch (FileNotFoundException e) {
-			System.out.println("Failed write configuration: " + e.toString());
+		Path target = Paths.get(filename);
+		Path temporary = Paths.get(filename + ".tmp");
+		try(FileOutputStream stream = new FileOutputStream(temporary.toFile())) {
+			Writer out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+			out.write(json);
+			out.write(System.lineSeparator());
+			out.flush();
+			// make sure the data is on disk before replacing the old file
+			stream.getFD().sync();
+		} catch (IOException e) {
+			log.severe("Failed to write file " + filename + ": " + e.toString());
+			return false;
+		}
+		
+		try {
+			try {
+				Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			log.severe("Failed to replace file " + filename + ": " + e.toString());
+			return false;
 		}
+		return true;
 	}
 }
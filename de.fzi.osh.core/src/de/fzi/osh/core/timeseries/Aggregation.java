@@ -0,0 +1,26 @@
+package de.fzi.osh.core.timeseries;
+
+/**
+ * Aggregation applied when resampling a time series into slots. Values are interpreted as rates (e.g. W) that hold until the next value.
+ *
+ * @author K. Foerderer
+ *
+ */
+public enum Aggregation {
+	/**
+	 * Time weighted average of the source values within the slot.
+	 */
+	MEAN,
+	/**
+	 * Integral of the source values over the slot, i.e. value x time in the series' chrono unit (W -> Ws). The slots sum up to the integral of the source.
+	 */
+	ENERGY,
+	/**
+	 * Maximum source value within the slot.
+	 */
+	MAX,
+	/**
+	 * Last source value within the slot.
+	 */
+	LAST
+}
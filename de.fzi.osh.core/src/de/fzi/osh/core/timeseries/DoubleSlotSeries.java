@@ -0,0 +1,163 @@
+package de.fzi.osh.core.timeseries;
+
+import java.time.temporal.ChronoUnit;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Regularly sampled double time series backed by a double[].
+ *
+ * @author K. Foerderer
+ *
+ */
+public class DoubleSlotSeries extends SlotSeries {
+
+	private double[] values;
+
+	/**
+	 * Constructor. All slots are 0.
+	 *
+	 * @param unit
+	 * @param start
+	 * @param slotLength
+	 * @param size number of slots
+	 */
+	public DoubleSlotSeries(ChronoUnit unit, long start, int slotLength, int size) {
+		this(unit, start, slotLength, new double[size]);
+	}
+
+	/**
+	 * Constructor. The given array is used as backing store and not copied.
+	 *
+	 * @param unit
+	 * @param start
+	 * @param slotLength
+	 * @param values
+	 */
+	public DoubleSlotSeries(ChronoUnit unit, long start, int slotLength, double[] values) {
+		super(unit, start, slotLength);
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Returns the backing array. Changes are reflected in the series.
+	 *
+	 * @return
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the value of the slot with the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public double getSlot(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Sets the value of the slot with the given index.
+	 *
+	 * @param index
+	 * @param value
+	 */
+	public void setSlot(int index, double value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Returns the value of the slot containing the given time.
+	 *
+	 * @param time
+	 * @return
+	 * @throws IndexOutOfBoundsException if the time is not covered by the series
+	 */
+	public double get(long time) {
+		return values[indexOf(time)];
+	}
+
+	/**
+	 * Sets the value of the slot containing the given time.
+	 *
+	 * @param time
+	 * @param value
+	 * @throws IndexOutOfBoundsException if the time is not covered by the series
+	 */
+	public void set(long time, double value) {
+		values[indexOf(time)] = value;
+	}
+
+	/**
+	 * Interpolates between the begin of the slot containing $time and the begin of the next slot.
+	 *
+	 * @param time
+	 * @param interpolator
+	 * @return
+	 */
+	public double getInterpolated(long time, Interpolator<Double> interpolator) {
+		int index = indexOf(time);
+		long startTime = getTime(index);
+		if(startTime == time || index + 1 >= values.length) {
+			return values[index];
+		}
+		Double value = interpolator.interpolate(startTime, values[index], startTime + getSlotLength(), values[index + 1], time);
+		return null == value ? 0 : value;
+	}
+
+	/**
+	 * Converts the series into a generic time series with one entry per slot.
+	 *
+	 * @return
+	 */
+	public TimeSeries<Double> toTimeSeries() {
+		TimeSeries<Double> series = new TimeSeries<Double>(getChronoUnit());
+		series.setInterpolator(new FloorInterpolator<Double>());
+		NavigableMap<Long, Double> map = new TreeMap<Long, Double>();
+		for(int i = 0; i < values.length; i++) {
+			map.put(getTime(i), values[i]);
+		}
+		series.setValues(map);
+		return series;
+	}
+
+	/**
+	 * Applies a transformer to this series and samples the result at the given slots.
+	 *
+	 * @param transformer
+	 * @param start
+	 * @param slotLength
+	 * @param size
+	 * @return
+	 */
+	public DoubleSlotSeries transform(Transformer<Double> transformer, long start, int slotLength, int size) {
+		return sample(transformer.transform(toTimeSeries()), start, slotLength, size);
+	}
+
+	/**
+	 * Samples a generic time series at the begin of each slot. The series' interpolator is used if available, otherwise the latest known value.
+	 * Missing values are 0.
+	 *
+	 * @param source
+	 * @param start
+	 * @param slotLength
+	 * @param size
+	 * @return
+	 */
+	public static DoubleSlotSeries sample(TimeSeries<Double> source, long start, int slotLength, int size) {
+		DoubleSlotSeries series = new DoubleSlotSeries(source.getChronoUnit(), start, slotLength, size);
+		for(int i = 0; i < size; i++) {
+			long time = series.getTime(i);
+			Double value = (null == source.getInterpolator()) ? source.get(time) : source.getInterpolated(time);
+			series.values[i] = (null == value) ? 0 : value;
+		}
+		return series;
+	}
+}
@@ -0,0 +1,163 @@
+package de.fzi.osh.core.timeseries;
+
+import java.time.temporal.ChronoUnit;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Regularly sampled integer time series backed by an int[].
+ *
+ * @author K. Foerderer
+ *
+ */
+public class IntegerSlotSeries extends SlotSeries {
+
+	private int[] values;
+
+	/**
+	 * Constructor. All slots are 0.
+	 *
+	 * @param unit
+	 * @param start
+	 * @param slotLength
+	 * @param size number of slots
+	 */
+	public IntegerSlotSeries(ChronoUnit unit, long start, int slotLength, int size) {
+		this(unit, start, slotLength, new int[size]);
+	}
+
+	/**
+	 * Constructor. The given array is used as backing store and not copied.
+	 *
+	 * @param unit
+	 * @param start
+	 * @param slotLength
+	 * @param values
+	 */
+	public IntegerSlotSeries(ChronoUnit unit, long start, int slotLength, int[] values) {
+		super(unit, start, slotLength);
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Returns the backing array. Changes are reflected in the series.
+	 *
+	 * @return
+	 */
+	public int[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the value of the slot with the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public int getSlot(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Sets the value of the slot with the given index.
+	 *
+	 * @param index
+	 * @param value
+	 */
+	public void setSlot(int index, int value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Returns the value of the slot containing the given time.
+	 *
+	 * @param time
+	 * @return
+	 * @throws IndexOutOfBoundsException if the time is not covered by the series
+	 */
+	public int get(long time) {
+		return values[indexOf(time)];
+	}
+
+	/**
+	 * Sets the value of the slot containing the given time.
+	 *
+	 * @param time
+	 * @param value
+	 * @throws IndexOutOfBoundsException if the time is not covered by the series
+	 */
+	public void set(long time, int value) {
+		values[indexOf(time)] = value;
+	}
+
+	/**
+	 * Interpolates between the begin of the slot containing $time and the begin of the next slot.
+	 *
+	 * @param time
+	 * @param interpolator
+	 * @return
+	 */
+	public int getInterpolated(long time, Interpolator<Integer> interpolator) {
+		int index = indexOf(time);
+		long startTime = getTime(index);
+		if(startTime == time || index + 1 >= values.length) {
+			return values[index];
+		}
+		Integer value = interpolator.interpolate(startTime, values[index], startTime + getSlotLength(), values[index + 1], time);
+		return null == value ? 0 : value;
+	}
+
+	/**
+	 * Converts the series into a generic time series with one entry per slot.
+	 *
+	 * @return
+	 */
+	public TimeSeries<Integer> toTimeSeries() {
+		TimeSeries<Integer> series = new TimeSeries<Integer>(getChronoUnit());
+		series.setInterpolator(new FloorInterpolator<Integer>());
+		NavigableMap<Long, Integer> map = new TreeMap<Long, Integer>();
+		for(int i = 0; i < values.length; i++) {
+			map.put(getTime(i), values[i]);
+		}
+		series.setValues(map);
+		return series;
+	}
+
+	/**
+	 * Applies a transformer to this series and samples the result at the given slots.
+	 *
+	 * @param transformer
+	 * @param start
+	 * @param slotLength
+	 * @param size
+	 * @return
+	 */
+	public IntegerSlotSeries transform(Transformer<Integer> transformer, long start, int slotLength, int size) {
+		return sample(transformer.transform(toTimeSeries()), start, slotLength, size);
+	}
+
+	/**
+	 * Samples a generic time series at the begin of each slot. The series' interpolator is used if available, otherwise the latest known value.
+	 * Missing values are 0.
+	 *
+	 * @param source
+	 * @param start
+	 * @param slotLength
+	 * @param size
+	 * @return
+	 */
+	public static IntegerSlotSeries sample(TimeSeries<Integer> source, long start, int slotLength, int size) {
+		IntegerSlotSeries series = new IntegerSlotSeries(source.getChronoUnit(), start, slotLength, size);
+		for(int i = 0; i < size; i++) {
+			long time = series.getTime(i);
+			Integer value = (null == source.getInterpolator()) ? source.get(time) : source.getInterpolated(time);
+			series.values[i] = (null == value) ? 0 : value;
+		}
+		return series;
+	}
+}
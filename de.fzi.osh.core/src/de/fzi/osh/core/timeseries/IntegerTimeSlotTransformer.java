@@ -1,11 +1,11 @@
 package de.fzi.osh.core.timeseries;
 
 import java.util.NavigableMap;
-import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 /**
- * Transforms time series data in a slot based time series by using averages. The resulting time series has one value for each time slot. A value marks the begin of a slot.
+ * Transforms time series data in a slot based time series by using averages (or another aggregation). The resulting time series has one value for each time slot. A value marks the begin of a slot.
  * 
  * @author K. Foerderer
  *
@@ -26,6 +26,10 @@ public class IntegerTimeSlotTransformer implements Transformer<Integer>{
 	 * Length of a slot
 	 */
 	private int slotLength;
+	/**
+	 * How source values are combined within a slot
+	 */
+	private Aggregation aggregation;
 	
 	/**
 	 * Constructor
@@ -36,9 +40,23 @@ public class IntegerTimeSlotTransformer implements Transformer<Integer>{
 	 * @param slotLength length of a slot in the given series' ChronoUnit
 	 */
 	public IntegerTimeSlotTransformer(long start, long end, int slotLength) {
+		this(start, end, slotLength, Aggregation.MEAN);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * 
+	 * @param start start of first slots
+	 * @param end time last time slot has ended (= start + nr slots * slotLength)
+	 * @param slotLength length of a slot in the given series' ChronoUnit
+	 * @param aggregation
+	 */
+	public IntegerTimeSlotTransformer(long start, long end, int slotLength, Aggregation aggregation) {
 		this.start = start;
 		this.end = end;
 		this.slotLength = slotLength;
+		this.aggregation = aggregation;
 		
 		if(slotLength <= 0) {
 			log.severe("Slot length must be positive");
@@ -50,56 +68,20 @@ public class IntegerTimeSlotTransformer implements Transformer<Integer>{
 	public TimeSeries<Integer> transform(TimeSeries<Integer> source) {
 		
 		TimeSeries<Integer> series = new TimeSeries<Integer>(source.getChronoUnit(), source.getInterpolator());
+		series.setValues(new TreeMap<Long, Integer>());
 		
 		NavigableMap<Long, Integer> values = source.getValues();
-		
-		long previousSlotTime = start;
-		long previousTime = start;
-		int previousValue = 0;
-		int sum = 0;
-		Long floorKey = values.floorKey(start);
-		if(null == floorKey) {
-			log.warning("Start of target series is before start of source series. Assuming 0.");
-		} else {
-			previousValue = values.get(floorKey);
+		if(null == values.floorKey(start)) {
+			log.warning("Start of target series is before start of source series. Uncovered time is ignored.");
 		}
 		
-		for(Entry<Long, Integer> entry : values.entrySet()) {
-			long time = entry.getKey();
-			
-			// if end of time slot has been reached/exceeded, setup a new slot.
-			// if some slots have been omitted, fill them with data (assuming a constant value).
-			while(time - previousSlotTime >= slotLength) {
-				// remaining length of slot
-				int length = (int)(previousSlotTime + slotLength - previousTime);
-				sum += previousValue * length;
-				series.add(previousSlotTime, sum / slotLength);
-				// update tracking variables
-				previousSlotTime += slotLength;
-				previousTime = previousSlotTime;
-				sum = 0;
-				
-				if(previousSlotTime >= end) {
-					// given size has been reached => return result
-					return series;
-				}
-			}
-			// the previous value could still carry over into the current slot
-
-			// add to sum weighed with time.
-			int length = (int)(time - previousTime);
-			sum += previousValue * length;
-			// update tracking variables
-			previousValue = entry.getValue();
-			previousTime = time;
-		}
+		// last slot may be cut off by end
+		int[] slots = new int[(int)((end - start + slotLength - 1) / slotLength)];
+		SlotResampler.resample(values, start, slotLength, aggregation, slots);
 		
-		// add last slot, assuming the last value remains true
-		
-		// remaining length of slot
-		int length = (int)(previousSlotTime + slotLength - previousTime);
-		sum += previousValue * length;
-		series.add(previousSlotTime, sum / slotLength);
+		for(int i = 0; i < slots.length; i++) {
+			series.add(start + (long)i * slotLength, slots[i]);
+		}
 		
 		// return result
 		return series;
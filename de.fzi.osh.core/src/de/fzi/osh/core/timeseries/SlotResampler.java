@@ -0,0 +1,304 @@
+package de.fzi.osh.core.timeseries;
+
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+
+/**
+ * Resamples time series into regular slots in a single pass. Works for up- and down-sampling as well as shifted slot borders.
+ *
+ * Sums are accumulated in long/double, hence large values and long slots do not overflow. Parts of a slot not covered by the source are ignored, slots without any data are 0.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class SlotResampler {
+
+	/**
+	 * Resamples a slot series into the given array. Slot i of the result begins at start + i * slotLength.
+	 *
+	 * @param source
+	 * @param start
+	 * @param slotLength
+	 * @param aggregation
+	 * @param out receives one value per slot
+	 * @throws ArithmeticException if an energy value does not fit into an int
+	 */
+	public static void resample(IntegerSlotSeries source, long start, int slotLength, Aggregation aggregation, int[] out) {
+		IntegerSweep sweep = new IntegerSweep(start, slotLength, aggregation, out);
+		int[] values = source.getValues();
+		// skip source slots ending before start
+		int first = Math.max(0, source.indexOf(start));
+		for(int i = first; i < values.length; i++) {
+			long time = source.getTime(i);
+			if(false == sweep.add(values[i], time, time + source.getSlotLength())) {
+				break;
+			}
+		}
+		sweep.finish();
+	}
+
+	/**
+	 * Resamples a slot series.
+	 *
+	 * @param source
+	 * @param start
+	 * @param slotLength
+	 * @param size number of slots
+	 * @param aggregation
+	 * @return
+	 */
+	public static IntegerSlotSeries resample(IntegerSlotSeries source, long start, int slotLength, int size, Aggregation aggregation) {
+		int[] out = new int[size];
+		resample(source, start, slotLength, aggregation, out);
+		return new IntegerSlotSeries(source.getChronoUnit(), start, slotLength, out);
+	}
+
+	/**
+	 * Resamples a step function given as time -> value into the given array. Each value holds until the next one, the last value holds forever.
+	 *
+	 * @param steps
+	 * @param start
+	 * @param slotLength
+	 * @param aggregation
+	 * @param out receives one value per slot
+	 * @throws ArithmeticException if an energy value does not fit into an int
+	 */
+	public static void resample(NavigableMap<Long, Integer> steps, long start, int slotLength, Aggregation aggregation, int[] out) {
+		IntegerSweep sweep = new IntegerSweep(start, slotLength, aggregation, out);
+		// begin with the value valid at start
+		Long from = steps.floorKey(start);
+		NavigableMap<Long, Integer> relevant = (null == from) ? steps : steps.tailMap(from, true);
+
+		long previousTime = 0;
+		int previousValue = 0;
+		boolean first = true;
+		for(Entry<Long, Integer> entry : relevant.entrySet()) {
+			if(false == first && false == sweep.add(previousValue, previousTime, entry.getKey())) {
+				break;
+			}
+			first = false;
+			previousTime = entry.getKey();
+			previousValue = entry.getValue();
+		}
+		if(false == first) {
+			sweep.add(previousValue, previousTime, Long.MAX_VALUE);
+		}
+		sweep.finish();
+	}
+
+	/**
+	 * Resamples a double slot series into the given array. Slot i of the result begins at start + i * slotLength.
+	 *
+	 * @param source
+	 * @param start
+	 * @param slotLength
+	 * @param aggregation
+	 * @param out receives one value per slot
+	 */
+	public static void resample(DoubleSlotSeries source, long start, int slotLength, Aggregation aggregation, double[] out) {
+		DoubleSweep sweep = new DoubleSweep(start, slotLength, aggregation, out);
+		double[] values = source.getValues();
+		int first = Math.max(0, source.indexOf(start));
+		for(int i = first; i < values.length; i++) {
+			long time = source.getTime(i);
+			if(false == sweep.add(values[i], time, time + source.getSlotLength())) {
+				break;
+			}
+		}
+		sweep.finish();
+	}
+
+	/**
+	 * Resamples a double slot series.
+	 *
+	 * @param source
+	 * @param start
+	 * @param slotLength
+	 * @param size number of slots
+	 * @param aggregation
+	 * @return
+	 */
+	public static DoubleSlotSeries resample(DoubleSlotSeries source, long start, int slotLength, int size, Aggregation aggregation) {
+		double[] out = new double[size];
+		resample(source, start, slotLength, aggregation, out);
+		return new DoubleSlotSeries(source.getChronoUnit(), start, slotLength, out);
+	}
+
+	/**
+	 * Distributes constant pieces of the source onto the target slots. Pieces have to be added in chronological order.
+	 */
+	private static abstract class Sweep {
+		protected final long start;
+		protected final long end;
+		protected final int slotLength;
+		protected final Aggregation aggregation;
+
+		/**
+		 * Current target slot
+		 */
+		private int slot = 0;
+
+		/**
+		 * Time of the current slot covered by the source
+		 */
+		protected long covered = 0;
+
+		public Sweep(long start, int slotLength, int size, Aggregation aggregation) {
+			if(slotLength <= 0) {
+				throw new IllegalArgumentException("Slot length must be positive");
+			}
+			this.start = start;
+			this.slotLength = slotLength;
+			this.end = start + (long)size * slotLength;
+			this.aggregation = aggregation;
+		}
+
+		/**
+		 * Feeds the interval [from, to) of the current piece.
+		 *
+		 * @param from
+		 * @param to
+		 * @return <i>false</i> if the piece reaches beyond the last slot
+		 */
+		protected boolean sweep(long from, long to) {
+			from = Math.max(from, start);
+			long until = Math.min(to, end);
+			while(from < until) {
+				int index = (int)((from - start) / slotLength);
+				while(slot < index) {
+					emit(slot++);
+					covered = 0;
+				}
+				long slotEnd = start + (long)(slot + 1) * slotLength;
+				long length = Math.min(until, slotEnd) - from;
+				accumulate(length);
+				covered += length;
+				from += length;
+			}
+			return to < end;
+		}
+
+		/**
+		 * Writes all remaining slots.
+		 */
+		public void finish() {
+			long size = (end - start) / slotLength;
+			while(slot < size) {
+				emit(slot++);
+				covered = 0;
+			}
+		}
+
+		/**
+		 * Adds the current piece for the given length to the current slot.
+		 *
+		 * @param length
+		 */
+		protected abstract void accumulate(long length);
+
+		/**
+		 * Writes the value of the given slot and resets the accumulators.
+		 *
+		 * @param slot
+		 */
+		protected abstract void emit(int slot);
+	}
+
+	private static class IntegerSweep extends Sweep {
+		private final int[] out;
+		private int value;
+		private long sum = 0;
+		private int max = Integer.MIN_VALUE;
+		private int last = 0;
+
+		public IntegerSweep(long start, int slotLength, Aggregation aggregation, int[] out) {
+			super(start, slotLength, out.length, aggregation);
+			this.out = out;
+		}
+
+		public boolean add(int value, long from, long to) {
+			this.value = value;
+			return sweep(from, to);
+		}
+
+		@Override
+		protected void accumulate(long length) {
+			sum += value * length;
+			max = Math.max(max, value);
+			last = value;
+		}
+
+		@Override
+		protected void emit(int slot) {
+			if(0 == covered) {
+				out[slot] = 0;
+			} else {
+				switch(aggregation) {
+				case MEAN:
+					out[slot] = (int)Math.round(sum / (double)covered);
+					break;
+				case ENERGY:
+					out[slot] = Math.toIntExact(sum);
+					break;
+				case MAX:
+					out[slot] = max;
+					break;
+				case LAST:
+					out[slot] = last;
+					break;
+				}
+			}
+			sum = 0;
+			max = Integer.MIN_VALUE;
+		}
+	}
+
+	private static class DoubleSweep extends Sweep {
+		private final double[] out;
+		private double value;
+		private double sum = 0;
+		private double max = Double.NEGATIVE_INFINITY;
+		private double last = 0;
+
+		public DoubleSweep(long start, int slotLength, Aggregation aggregation, double[] out) {
+			super(start, slotLength, out.length, aggregation);
+			this.out = out;
+		}
+
+		public boolean add(double value, long from, long to) {
+			this.value = value;
+			return sweep(from, to);
+		}
+
+		@Override
+		protected void accumulate(long length) {
+			sum += value * length;
+			max = Math.max(max, value);
+			last = value;
+		}
+
+		@Override
+		protected void emit(int slot) {
+			if(0 == covered) {
+				out[slot] = 0;
+			} else {
+				switch(aggregation) {
+				case MEAN:
+					out[slot] = sum / covered;
+					break;
+				case ENERGY:
+					out[slot] = sum;
+					break;
+				case MAX:
+					out[slot] = max;
+					break;
+				case LAST:
+					out[slot] = last;
+					break;
+				}
+			}
+			sum = 0;
+			max = Double.NEGATIVE_INFINITY;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package de.fzi.osh.core.timeseries;
+
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Base class for regularly sampled time series. Slot i covers [start + i * slotLength, start + (i+1) * slotLength).
+ * Values are kept in primitive arrays by the subclasses, hence slot lookup is O(1) and no boxing is involved.
+ *
+ * @author K. Foerderer
+ *
+ */
+public abstract class SlotSeries {
+
+	private ChronoUnit unit;
+
+	/**
+	 * Begin of first slot
+	 */
+	private long start;
+
+	/**
+	 * Length of a slot in the series' ChronoUnit
+	 */
+	private int slotLength;
+
+	/**
+	 * Constructor
+	 *
+	 * @param unit
+	 * @param start begin of first slot
+	 * @param slotLength
+	 */
+	protected SlotSeries(ChronoUnit unit, long start, int slotLength) {
+		if(slotLength <= 0) {
+			throw new IllegalArgumentException("Slot length must be positive");
+		}
+		this.unit = unit;
+		this.start = start;
+		this.slotLength = slotLength;
+	}
+
+	/**
+	 * Returns the number of slots.
+	 *
+	 * @return
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns the time scale of this series. A step of one is equivalent to one chrono unit.
+	 *
+	 * @return
+	 */
+	public ChronoUnit getChronoUnit() {
+		return unit;
+	}
+
+	/**
+	 * Returns the begin of the first slot.
+	 *
+	 * @return
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the end of the last slot (exclusive).
+	 *
+	 * @return
+	 */
+	public long getEnd() {
+		return start + (long)size() * slotLength;
+	}
+
+	/**
+	 * Returns the length of a slot.
+	 *
+	 * @return
+	 */
+	public int getSlotLength() {
+		return slotLength;
+	}
+
+	/**
+	 * Returns the begin of the slot with the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public long getTime(int index) {
+		return start + (long)index * slotLength;
+	}
+
+	/**
+	 * Returns the index of the slot containing the given time. The result is out of bounds, if the series does not cover the time.
+	 *
+	 * @param time
+	 * @return
+	 */
+	public int indexOf(long time) {
+		return (int)Math.floorDiv(time - start, (long)slotLength);
+	}
+
+	/**
+	 * Checks whether the given time lies within the series.
+	 *
+	 * @param time
+	 * @return
+	 */
+	public boolean contains(long time) {
+		return time >= start && time < getEnd();
+	}
+}
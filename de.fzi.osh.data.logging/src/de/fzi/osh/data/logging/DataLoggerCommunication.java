@@ -26,8 +26,8 @@ public class DataLoggerCommunication extends CommunicationInterface<DataLogger,
 		meterTopics = new MeterTopics(wampConfiguration.topicPrefix);
 		
 		connection.onOpen(state -> {
-			// subscribe to meter updates via wildcard
-			connection.subscribe(meterTopics.meterState(null), SubscriptionFlags.Wildcard, MeterStatePublication.class, parameters -> {
+			// subscribe to meter updates via wildcard, meters may be logged concurrently
+			connection.subscribe(meterTopics.meterState(null), SubscriptionFlags.Wildcard, MeterStatePublication.class, parameters -> parameters.uuid, parameters -> {
 				// generate db entry
 				MeterData meterData = new MeterData();		
 				
@@ -44,7 +44,7 @@ public class DataLoggerCommunication extends CommunicationInterface<DataLogger,
 			});
 			
 			// subscribe to soc updates via wildcard
-			connection.subscribe(batteryTopics.soc(null), SubscriptionFlags.Wildcard, BatterySocPublication.class, parameters -> {
+			connection.subscribe(batteryTopics.soc(null), SubscriptionFlags.Wildcard, BatterySocPublication.class, parameters -> parameters.uuid, parameters -> {
 				// generate db entry
 				BatterySocData socData = new BatterySocData();
 				socData.uuid = parameters.uuid;
@@ -1,5 +1,7 @@
 package de.fzi.osh.data.storage.timeseries.configuration;
 
+import org.influxdb.InfluxDB.ConsistencyLevel;
+
 /**
  * Configuration for a database connection
  * 
@@ -7,6 +9,21 @@ package de.fzi.osh.data.storage.timeseries.configuration;
  *
  */
 public class DatabaseConfiguration {
+	
+	/**
+	 * Behavior when the write buffer is full.
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * Inserts wait until there is space (backpressure).
+		 */
+		Block,
+		/**
+		 * The oldest buffered point is dropped.
+		 */
+		DropOldest
+	};
+	
 	/**
 	 * URL of influxdb server.
 	 */
@@ -23,4 +40,28 @@ public class DatabaseConfiguration {
 	 * Name of database.
 	 */
 	public String database;
+	/**
+	 * Consistency level for writes.
+	 */
+	public ConsistencyLevel consistencyLevel = ConsistencyLevel.ALL;
+	/**
+	 * Maximum number of points buffered for writing. 0 writes every point immediately.
+	 */
+	public int writeBufferSize = 10000;
+	/**
+	 * Maximum number of points per write.
+	 */
+	public int writeBatchSize = 500;
+	/**
+	 * Maximum time in ms a point is buffered before it is written.
+	 */
+	public long writeFlushInterval = 1000;
+	/**
+	 * Behavior when the write buffer is full.
+	 */
+	public OverflowPolicy writeOverflowPolicy = OverflowPolicy.DropOldest;
+	/**
+	 * Interval in seconds for logging write statistics (queue depth, latency, dropped points). 0 disables logging.
+	 */
+	public int writeStatisticsInterval = 15 * 60;
 }
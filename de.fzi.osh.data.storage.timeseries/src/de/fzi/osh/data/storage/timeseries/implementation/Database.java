@@ -1,15 +1,11 @@
 package de.fzi.osh.data.storage.timeseries.implementation;
 
-import java.lang.reflect.Field;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.influxdb.InfluxDB;
-import org.influxdb.InfluxDB.ConsistencyLevel;
 import org.influxdb.InfluxDBFactory;
 import org.influxdb.dto.BatchPoints;
 import org.influxdb.dto.Point;
@@ -48,6 +44,11 @@ public class Database implements TimeSeriesStorageService{
 	
 	private InfluxDB influxConn;
 	
+	/**
+	 * Buffer for batched writes. <i>null</i> if points are written immediately.
+	 */
+	private volatile WriteBuffer writeBuffer;
+	
 	@Activate
 	protected synchronized void activate() throws Exception {		
 		
@@ -56,14 +57,34 @@ public class Database implements TimeSeriesStorageService{
 		//TODO: check influxDB connection management
 		//TODO: Check whether synchronization is required, looks ok so far!
 		influxConn = InfluxDBFactory.connect(configuration.url,configuration.user,configuration.password);
+		
+		if(configuration.writeBufferSize > 0) {
+			writeBuffer = new WriteBuffer(influxConn, configuration.database, configuration.consistencyLevel, configuration.writeBufferSize, 
+					configuration.writeBatchSize, configuration.writeFlushInterval, configuration.writeOverflowPolicy, configuration.writeStatisticsInterval * 1000L);
+		}
 	}
 
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
+		// write remaining points
+		if(null != writeBuffer) {
+			writeBuffer.close();
+			writeBuffer = null;
+		}
 		//TOOD: check influx connection handling
 		influxConn.close();
 	}
 	
+	/**
+	 * Returns the number of points waiting to be written.
+	 * 
+	 * @return
+	 */
+	public int getWriteQueueDepth() {
+		WriteBuffer buffer = writeBuffer;
+		return null == buffer ? 0 : buffer.getQueueDepth();
+	}
+	
 
 	@Override
 	public <T extends StorableTimeSeriesObservation> void insert(T obj, Class<T> clazz) throws Exception {
@@ -85,37 +106,21 @@ public class Database implements TimeSeriesStorageService{
 		}
 				
 		{
-
-			BatchPoints batchPoints = BatchPoints
-										.database(configuration.database)
-										.retentionPolicy("autogen")
-										.consistency(ConsistencyLevel.ALL)
-										.build();
-			
-			Point.Builder builder = Point.measurement(table);
+			Point point = TimeSeriesCodec.get(clazz).encode(obj, table);
 			
-			builder.time(obj.time.toEpochMilli(), TimeUnit.MILLISECONDS);
-			
-			Field[] fields = clazz.getFields();			
-			for (Field field: fields) {
-				if (field.isAnnotationPresent(TimeSeries.Series.class)) {
-					if(field.getType() == int.class) {						
-						builder.addField(field.getName(), field.getInt(obj));
-					} else if(field.getType() == long.class) {						
-						builder.addField(field.getName(), field.getLong(obj));
-					} else if(field.getType() == byte.class) {
-						builder.addField(field.getName(), field.getByte(obj));
-					} else {
-						log.warning("Value Data Type "+ field.getType() + " is not supported");
-					}					
-				} else if (field.isAnnotationPresent(TimeSeries.Tag.class)) {					
-					builder.tag(field.getName(), field.get(obj).toString());
-				}						
+			WriteBuffer buffer = writeBuffer;
+			if(null != buffer) {
+				// written in background
+				buffer.add(point);
+			} else {
+				BatchPoints batchPoints = BatchPoints
+											.database(configuration.database)
+											.retentionPolicy("autogen")
+											.consistency(configuration.consistencyLevel)
+											.build();
+				batchPoints.point(point);			
+				influxConn.write(batchPoints);
 			}
-			
-			Point point = builder.build();
-			batchPoints.point(point);			
-			influxConn.write(batchPoints);			
 		}	
 		
 	}
@@ -168,27 +173,10 @@ public class Database implements TimeSeriesStorageService{
 			throw new Exception("Missing annotation '@Series'");
 		}
 		
-		// get all member variables
-		Field[] fields = clazz.getDeclaredFields();
-		List<Field> selFields = new ArrayList<Field>(fields.length);		
+		TimeSeriesCodec<T> codec = TimeSeriesCodec.get(clazz);
 		
 		//select all time series values for now
-		for (Field field : fields) {
-			if (field.isAnnotationPresent(TimeSeries.Series.class)) {
-				selFields.add(field);				
-			}
-		}
-		
-		//TODO: check performance without StringBuffer usage
-		String selection = "";
-		for ( Iterator<Field> i = selFields.iterator(); i.hasNext(); ) {
-			Field field = i.next();			
-			selection += aggr + "(" + field.getName() + ")";
-			if (i.hasNext()) {
-				selection += ", ";
-			}
-		}
-		
+		String selection = codec.getProjection(aggr);
 		
 		String queryStat = "SELECT " + selection + " FROM \"" + table + "\" WHERE " + where + " GROUP BY time(" + interval + ")" + " fill(none)";
 		
@@ -205,31 +193,7 @@ public class Database implements TimeSeriesStorageService{
 				for (Series elem : series) {
 					List<List<Object>> values = elem.getValues();				
 					for (List<Object> entry : values) {
-						T resItem = clazz.newInstance();
-						
-						//TODO: check why there are always double values returned from Influx driver (timestamps and series)!
-						
-						//time is always first element
-						Double o = (Double)entry.get(0);								
-						resItem.time = Instant.ofEpochMilli(o.longValue());
-						
-						int i = 0;
-						for (Field field : selFields) {
-							i++;						
-							Double d = (Double)entry.get(i);
-							// casting: may need some more work in the future
-							if(field.getType() == int.class) {
-								field.set(resItem, d.intValue());
-							} else if(field.getType() == long.class) {
-								field.set(resItem, d.longValue());
-							} else if(field.getType() == byte.class) {
-								field.set(resItem, d.byteValue());
-							} else {
-								log.warning("Value Data Type "+ field.getType() + " is not supported");
-							}													
-						}
-						
-						result.add(resItem);
+						result.add(codec.decode(entry));
 					}	
 				}
 			}					
@@ -0,0 +1,227 @@
+package de.fzi.osh.data.storage.timeseries.implementation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.influxdb.dto.Point;
+
+import de.fzi.osh.data.storage.timeseries.StorableTimeSeriesObservation;
+import de.fzi.osh.data.storage.timeseries.TimeSeries;
+
+/**
+ * Converts objects of a class annotated with {@link TimeSeries} into points and query rows back into objects.
+ *
+ * Fields are looked up once when the codec is created. Encoding and decoding only use the prepared method handles.
+ *
+ * @author K. Foerderer
+ *
+ * @param <T>
+ */
+class TimeSeriesCodec<T extends StorableTimeSeriesObservation> {
+
+	private static Logger log = Logger.getLogger(TimeSeriesCodec.class.getName());
+
+	private static final Map<Class<?>, TimeSeriesCodec<?>> codecs = new ConcurrentHashMap<Class<?>, TimeSeriesCodec<?>>();
+
+	/**
+	 * Writes a field into a point.
+	 */
+	private interface Encoder {
+		void encode(Object obj, Point.Builder builder) throws Throwable;
+	}
+
+	/**
+	 * Sets a field from a query value.
+	 */
+	private interface Decoder {
+		void decode(Object obj, Double value) throws Throwable;
+	}
+
+	private final String name;
+	private final MethodHandle constructor;
+	/**
+	 * Series and tags of all public fields
+	 */
+	private final Encoder[] encoders;
+	/**
+	 * Series of declared fields in declaration order, matching the projection
+	 */
+	private final Decoder[] decoders;
+	private final String[] selectedFields;
+	/**
+	 * aggregation -> projection
+	 */
+	private final Map<String, String> projections = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Returns the codec for a class. Codecs are created once per class.
+	 *
+	 * @param clazz
+	 * @return
+	 * @throws Exception if the class is not annotated or fields are not accessible
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends StorableTimeSeriesObservation> TimeSeriesCodec<T> get(Class<T> clazz) throws Exception {
+		TimeSeriesCodec<?> codec = codecs.get(clazz);
+		if(null == codec) {
+			codec = new TimeSeriesCodec<T>(clazz);
+			TimeSeriesCodec<?> existing = codecs.putIfAbsent(clazz, codec);
+			if(null != existing) {
+				codec = existing;
+			}
+		}
+		return (TimeSeriesCodec<T>) codec;
+	}
+
+	private TimeSeriesCodec(Class<T> clazz) throws Exception {
+		TimeSeries series = clazz.getAnnotation(TimeSeries.class);
+		if(null == series) {
+			throw new Exception("Missing annotation '@Series'");
+		}
+		name = series.name();
+
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		MethodType objectGetter = MethodType.methodType(Object.class, Object.class);
+
+		constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+
+		List<Encoder> encoders = new ArrayList<Encoder>();
+		for(Field field : clazz.getFields()) {
+			String fieldName = field.getName();
+			if(field.isAnnotationPresent(TimeSeries.Series.class)) {
+				if(field.getType() == int.class) {
+					MethodHandle getter = lookup.unreflectGetter(field).asType(MethodType.methodType(int.class, Object.class));
+					encoders.add((obj, builder) -> builder.addField(fieldName, (int)getter.invokeExact(obj)));
+				} else if(field.getType() == long.class) {
+					MethodHandle getter = lookup.unreflectGetter(field).asType(MethodType.methodType(long.class, Object.class));
+					encoders.add((obj, builder) -> builder.addField(fieldName, (long)getter.invokeExact(obj)));
+				} else if(field.getType() == byte.class) {
+					MethodHandle getter = lookup.unreflectGetter(field).asType(MethodType.methodType(byte.class, Object.class));
+					encoders.add((obj, builder) -> builder.addField(fieldName, (byte)getter.invokeExact(obj)));
+				} else {
+					log.warning("Value Data Type "+ field.getType() + " is not supported");
+				}
+			} else if(field.isAnnotationPresent(TimeSeries.Tag.class)) {
+				MethodHandle getter = lookup.unreflectGetter(field).asType(objectGetter);
+				encoders.add((obj, builder) -> builder.tag(fieldName, ((Object)getter.invokeExact(obj)).toString()));
+			}
+		}
+		this.encoders = encoders.toArray(new Encoder[encoders.size()]);
+
+		List<Decoder> decoders = new ArrayList<Decoder>();
+		List<String> selectedFields = new ArrayList<String>();
+		for(Field field : clazz.getDeclaredFields()) {
+			if(field.isAnnotationPresent(TimeSeries.Series.class)) {
+				selectedFields.add(field.getName());
+				// casting: may need some more work in the future
+				if(field.getType() == int.class) {
+					MethodHandle setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, int.class));
+					decoders.add((obj, value) -> { setter.invokeExact(obj, value.intValue()); });
+				} else if(field.getType() == long.class) {
+					MethodHandle setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, long.class));
+					decoders.add((obj, value) -> { setter.invokeExact(obj, value.longValue()); });
+				} else if(field.getType() == byte.class) {
+					MethodHandle setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, byte.class));
+					decoders.add((obj, value) -> { setter.invokeExact(obj, value.byteValue()); });
+				} else {
+					log.warning("Value Data Type "+ field.getType() + " is not supported");
+					// keep the position in the projection
+					decoders.add((obj, value) -> {});
+				}
+			}
+		}
+		this.decoders = decoders.toArray(new Decoder[decoders.size()]);
+		this.selectedFields = selectedFields.toArray(new String[selectedFields.size()]);
+	}
+
+	/**
+	 * Returns the name given by the {@link TimeSeries} annotation.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Creates a point.
+	 *
+	 * @param obj
+	 * @param table
+	 * @return
+	 * @throws Exception
+	 */
+	public Point encode(T obj, String table) throws Exception {
+		Point.Builder builder = Point.measurement(table);
+		builder.time(obj.time.toEpochMilli(), TimeUnit.MILLISECONDS);
+		try {
+			for(Encoder encoder : encoders) {
+				encoder.encode(obj, builder);
+			}
+		} catch(Exception | Error e) {
+			throw e;
+		} catch(Throwable t) {
+			throw new Exception(t);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the projection of all series using the given aggregation, e.g. "FIRST(a), FIRST(b)".
+	 *
+	 * @param aggregation
+	 * @return
+	 */
+	public String getProjection(String aggregation) {
+		String projection = projections.get(aggregation);
+		if(null == projection) {
+			StringBuilder builder = new StringBuilder();
+			for(int i = 0; i < selectedFields.length; i++) {
+				if(i > 0) {
+					builder.append(", ");
+				}
+				builder.append(aggregation).append('(').append(selectedFields[i]).append(')');
+			}
+			projection = builder.toString();
+			projections.put(aggregation, projection);
+		}
+		return projection;
+	}
+
+	/**
+	 * Creates an object from a query row. The time is expected as first element, followed by the series in projection order.
+	 *
+	 * @param row
+	 * @return
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public T decode(List<Object> row) throws Exception {
+		try {
+			T result = (T) (Object) constructor.invokeExact();
+
+			//TODO: check why there are always double values returned from Influx driver (timestamps and series)!
+			//time is always first element
+			Double time = (Double)row.get(0);
+			result.time = Instant.ofEpochMilli(time.longValue());
+
+			for(int i = 0; i < decoders.length; i++) {
+				decoders[i].decode(result, (Double)row.get(i + 1));
+			}
+			return result;
+		} catch(Exception | Error e) {
+			throw e;
+		} catch(Throwable t) {
+			throw new Exception(t);
+		}
+	}
+}
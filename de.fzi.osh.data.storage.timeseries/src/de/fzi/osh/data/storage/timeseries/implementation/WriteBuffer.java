@@ -0,0 +1,278 @@
+package de.fzi.osh.data.storage.timeseries.implementation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDB.ConsistencyLevel;
+import org.influxdb.dto.BatchPoints;
+import org.influxdb.dto.Point;
+
+import de.fzi.osh.data.storage.timeseries.configuration.DatabaseConfiguration.OverflowPolicy;
+
+/**
+ * Bounded ring buffer of points that are written by a background thread.
+ *
+ * A batch is written as soon as $batchSize points are buffered or $flushInterval has passed since the last write.
+ * If the database stalls and the buffer runs full, inserts either wait for free space (backpressure) or replace the oldest point.
+ * Failed batches are put back into the buffer as far as there is space and retried with the next flush.
+ *
+ * @author K. Foerderer
+ *
+ */
+class WriteBuffer implements Runnable {
+
+	private static Logger log = Logger.getLogger(WriteBuffer.class.getName());
+
+	private final InfluxDB connection;
+	private final String database;
+	private final ConsistencyLevel consistencyLevel;
+	private final int batchSize;
+	private final long flushInterval;
+	private final OverflowPolicy overflowPolicy;
+	private final long statisticsInterval;
+
+	/**
+	 * Ring buffer holding $size points starting at $head.
+	 */
+	private final Point[] points;
+	private int head = 0;
+	private int size = 0;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition flushNeeded = lock.newCondition();
+
+	private volatile boolean running = true;
+	private final Thread writer;
+
+	// statistics
+	private long written = 0;
+	private long dropped = 0;
+	private long failed = 0;
+	private long flushes = 0;
+	private long flushTime = 0; // ns
+	private long maxFlushTime = 0; // ns
+	private int maxQueueDepth = 0;
+
+	/**
+	 * Constructor. Starts the writer thread.
+	 *
+	 * @param connection
+	 * @param database
+	 * @param consistencyLevel
+	 * @param capacity maximum number of buffered points
+	 * @param batchSize maximum number of points per write
+	 * @param flushInterval maximum time in ms points are kept before writing
+	 * @param overflowPolicy
+	 * @param statisticsInterval time in ms between statistics log entries, 0 to disable
+	 */
+	public WriteBuffer(InfluxDB connection, String database, ConsistencyLevel consistencyLevel, int capacity, int batchSize, long flushInterval,
+			OverflowPolicy overflowPolicy, long statisticsInterval) {
+		this.connection = connection;
+		this.database = database;
+		this.consistencyLevel = consistencyLevel;
+		this.batchSize = Math.max(1, Math.min(batchSize, capacity));
+		this.flushInterval = flushInterval;
+		this.overflowPolicy = overflowPolicy;
+		this.statisticsInterval = statisticsInterval;
+
+		points = new Point[capacity];
+
+		writer = new Thread(this, "timeseries-writer:" + database);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Adds a point. Blocks if the buffer is full and the overflow policy is {@link OverflowPolicy#Block}.
+	 *
+	 * @param point
+	 * @throws InterruptedException
+	 */
+	public void add(Point point) throws InterruptedException {
+		lock.lock();
+		try {
+			while(size == points.length || false == running) {
+				if(false == running) {
+					throw new IllegalStateException("Write buffer has been closed.");
+				}
+				if(overflowPolicy == OverflowPolicy.DropOldest) {
+					points[head] = null;
+					head = (head + 1) % points.length;
+					size--;
+					dropped++;
+				} else {
+					notFull.await();
+				}
+			}
+			points[(head + size) % points.length] = point;
+			size++;
+			maxQueueDepth = Math.max(maxQueueDepth, size);
+			if(size >= batchSize) {
+				flushNeeded.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the writer after writing all buffered points.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			running = false;
+			flushNeeded.signal();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			log.severe(e.toString());
+		}
+	}
+
+	@Override
+	public void run() {
+		long nextFlush = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+		long nextStatistics = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(statisticsInterval);
+		while(true) {
+			Point[] batch;
+			lock.lock();
+			try {
+				// wait until enough points are there or time is up
+				long remaining;
+				while(running && size < batchSize && (remaining = nextFlush - System.nanoTime()) > 0) {
+					try {
+						flushNeeded.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						log.severe(e.toString());
+					}
+				}
+				if(false == running && size == 0) {
+					break;
+				}
+				batch = new Point[Math.min(size, batchSize)];
+				for(int i = 0; i < batch.length; i++) {
+					batch[i] = points[head];
+					points[head] = null;
+					head = (head + 1) % points.length;
+				}
+				size -= batch.length;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			nextFlush = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+
+			if(batch.length > 0) {
+				write(batch);
+			}
+
+			if(statisticsInterval > 0 && System.nanoTime() > nextStatistics) {
+				logStatistics();
+				nextStatistics = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(statisticsInterval);
+			}
+		}
+		logStatistics();
+	}
+
+	/**
+	 * Writes a batch. On failure the points are put back at the head of the buffer as far as possible.
+	 *
+	 * @param batch
+	 */
+	private void write(Point[] batch) {
+		BatchPoints batchPoints = BatchPoints
+				.database(database)
+				.retentionPolicy("autogen")
+				.consistency(consistencyLevel)
+				.build();
+		for(Point point : batch) {
+			batchPoints.point(point);
+		}
+
+		long start = System.nanoTime();
+		try {
+			connection.write(batchPoints);
+			long duration = System.nanoTime() - start;
+
+			lock.lock();
+			try {
+				written += batch.length;
+				flushes++;
+				flushTime += duration;
+				maxFlushTime = Math.max(maxFlushTime, duration);
+			} finally {
+				lock.unlock();
+			}
+			log.finest("Wrote " + batch.length + " points in " + TimeUnit.NANOSECONDS.toMillis(duration) + " ms.");
+		} catch(Exception e) {
+			log.warning("Writing " + batch.length + " points failed: " + e.toString());
+
+			lock.lock();
+			try {
+				// retry later, unless shutting down
+				int requeue = running ? Math.min(batch.length, points.length - size) : 0;
+				for(int i = requeue - 1; i >= 0; i--) {
+					head = (head - 1 + points.length) % points.length;
+					points[head] = batch[i];
+					size++;
+				}
+				failed += batch.length - requeue;
+			} finally {
+				lock.unlock();
+			}
+
+			// do not hammer the database
+			if(running) {
+				try {
+					Thread.sleep(flushInterval);
+				} catch (InterruptedException e1) {
+					log.severe(e1.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of buffered points.
+	 *
+	 * @return
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Logs and resets the statistics of the last interval.
+	 */
+	private void logStatistics() {
+		lock.lock();
+		try {
+			log.info("Time series writes: " + written + " points in " + flushes + " batches, " +
+					"latency avg=" + String.format("%.1f", flushes == 0 ? 0 : flushTime / (double)flushes / 1e6) + " ms max=" + TimeUnit.NANOSECONDS.toMillis(maxFlushTime) + " ms, " +
+					"queue depth=" + size + " max=" + maxQueueDepth + ", dropped=" + dropped + ", failed=" + failed + ".");
+			written = 0;
+			flushes = 0;
+			flushTime = 0;
+			maxFlushTime = 0;
+			maxQueueDepth = size;
+			dropped = 0;
+			failed = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package de.fzi.osh.data.storage;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Compact text encoding of int arrays for table columns.
+ * 
+ * Values are stored as zig-zag encoded deltas of consecutive values using a variable number of bytes (7 bits each) and converted to base64.
+ * Encoded strings start with {@value #PREFIX}. Strings without prefix are read as ;-separated values, the format used before.
+ * 
+ * @author K. Foerderer
+ *
+ */
+public class IntArrayCodec {
+	
+	/**
+	 * Marks encoded arrays
+	 */
+	public static final String PREFIX = "dv:";
+	
+	/**
+	 * Encodes an array.
+	 * 
+	 * @param values
+	 * @return
+	 */
+	public static String encode(int[] values) {
+		// at most 5 bytes per value
+		byte[] buffer = new byte[values.length * 5];
+		int length = 0;
+		int previous = 0;
+		for(int value : values) {
+			int delta = value - previous;
+			previous = value;
+			// zig-zag: small negative deltas become small positive numbers
+			int bits = (delta << 1) ^ (delta >> 31);
+			while((bits & ~0x7f) != 0) {
+				buffer[length++] = (byte)((bits & 0x7f) | 0x80);
+				bits >>>= 7;
+			}
+			buffer[length++] = (byte)bits;
+		}
+		return PREFIX + Base64.getEncoder().withoutPadding().encodeToString(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+	}
+	
+	/**
+	 * Decodes an array.
+	 * 
+	 * @param text encoded or ;-separated values
+	 * @return
+	 * @throws IllegalArgumentException if the text is malformed
+	 */
+	public static int[] decode(String text) {
+		if(null == text || text.isEmpty()) {
+			return new int[0];
+		}
+		if(false == text.startsWith(PREFIX)) {
+			// legacy format
+			String[] splitted = text.split(";");
+			int[] result = new int[splitted.length];
+			for(int i = 0; i < result.length; i++) {
+				result[i] = Integer.parseInt(splitted[i].trim());
+			}
+			return result;
+		}
+		
+		byte[] buffer = Base64.getDecoder().decode(text.substring(PREFIX.length()));
+		// count values, every value ends with a byte without continuation bit
+		int count = 0;
+		for(byte b : buffer) {
+			if((b & 0x80) == 0) {
+				count++;
+			}
+		}
+		int[] result = new int[count];
+		int index = 0;
+		int previous = 0;
+		int bits = 0;
+		int shift = 0;
+		for(byte b : buffer) {
+			bits |= (b & 0x7f) << shift;
+			if((b & 0x80) != 0) {
+				shift += 7;
+				if(shift > 28) {
+					throw new IllegalArgumentException("Malformed value in encoded array.");
+				}
+				continue;
+			}
+			int delta = (bits >>> 1) ^ -(bits & 1);
+			previous += delta;
+			result[index++] = previous;
+			bits = 0;
+			shift = 0;
+		}
+		if(shift != 0) {
+			throw new IllegalArgumentException("Truncated encoded array.");
+		}
+		return result;
+	}
+}
@@ -24,6 +24,7 @@ import de.fzi.osh.core.configuration.ConfigurationService;
 import de.fzi.osh.data.storage.Column;
 import de.fzi.osh.data.storage.StorableDataObject;
 import de.fzi.osh.data.storage.DataStorageService;
+import de.fzi.osh.data.storage.IntArrayCodec;
 import de.fzi.osh.data.storage.Table;
 import de.fzi.osh.data.storage.configuration.DatabaseConfiguration;
 
@@ -115,6 +116,19 @@ public class Database implements DataStorageService{
 			}
 		}
 	}
+	
+	/**
+	 * Converts a field value into a value for a table column. int[] are encoded using {@link IntArrayCodec}.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static Object toColumnValue(Object value) {
+		if(value instanceof int[]) {
+			return IntArrayCodec.encode((int[])value);
+		}
+		return value;
+	}
 
 	@Override
 	public <T extends StorableDataObject> void createTable(Class<T> clazz) throws Exception {
@@ -246,7 +260,7 @@ public class Database implements DataStorageService{
 						}
 						
 						// get object value
-						statement.setObject(index, field.get(obj));
+						statement.setObject(index, toColumnValue(field.get(obj)));
 						index++;
 						
 						// restore access rights
@@ -352,6 +366,8 @@ public class Database implements DataStorageService{
 							field.set(obj, resultSet.getShort(column.name()));
 						} else if(field.getType() == float.class) {
 							field.set(obj, resultSet.getFloat(column.name()));
+						} else if(field.getType() == int[].class) {
+							field.set(obj, IntArrayCodec.decode(resultSet.getString(column.name())));
 						} else {
 							// set value
 							field.set(obj, resultSet.getObject(column.name()));	
@@ -447,7 +463,7 @@ public class Database implements DataStorageService{
 						}
 						
 						// get object value
-						statement.setObject(index, field.get(obj));
+						statement.setObject(index, toColumnValue(field.get(obj)));
 						index++;
 						
 						// restore access rights
@@ -30,6 +30,7 @@ import de.fzi.osh.data.logging.types.MeterData;
 import de.fzi.osh.data.storage.timeseries.TimeSeriesStorageService;
 import de.fzi.osh.data.storage.timeseries.TimeSeries;
 import de.fzi.osh.data.upload.configuration.UploaderConfiguration;
+import de.fzi.osh.time.BlockingTask;
 import de.fzi.osh.time.TimeService;
 
 @Component(enabled=true,immediate=true)
@@ -45,6 +46,8 @@ public class Uploader implements Runnable{
 	private UploaderConfiguration configuration;
 	
 	private ScheduledFuture<?> task;
+	// uploads block on sftp, hence they run on their own thread
+	private BlockingTask upload;
 	
 	private SftpConnection sftp;
 	
@@ -265,7 +268,8 @@ public class Uploader implements Runnable{
 		/**
 		 * Schedule a job for uploading data once a day at some time during the night
 		 */
-		task = timeService.schedule(this, (int)(Math.random() * 60), (int)(Math.random() * 60), configuration.uploadHour);		
+		upload = new BlockingTask("de.fzi.osh.data.upload", this);
+		task = timeService.schedule(upload, (int)(Math.random() * 60), (int)(Math.random() * 60), configuration.uploadHour);		
 		
 		/*
 		 * DEBUG
@@ -279,6 +283,7 @@ public class Uploader implements Runnable{
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
 		task.cancel(false);
+		upload.shutdown();
 	}	
 	
 	@Reference(
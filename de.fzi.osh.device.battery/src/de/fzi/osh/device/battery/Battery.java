@@ -30,6 +30,7 @@ import de.fzi.osh.device.battery.data.BatteryStateData.GridState;
 import de.fzi.osh.device.battery.data.BatteryStateData.PhaseMode;
 import de.fzi.osh.device.battery.data.BatteryStateData.SystemState;
 import de.fzi.osh.device.time.Time;
+import de.fzi.osh.time.BlockingTask;
 import de.fzi.osh.time.TimeService;
 import de.fzi.osh.time.realtime.RealTimeService;
 import de.fzi.osh.wamp.device.DriverState;
@@ -88,8 +89,8 @@ public class Battery extends Device<Battery, BatteryConfiguration>  {
 		}
 		
 
-		// create scheduler an measure every $configuration.samplingInterval ms
-		Time.service().scheduleAtRate(this, 0, configuration.communicationInterval);
+		// create scheduler an measure every $configuration.samplingInterval ms, modbus blocks, hence it runs on its own thread
+		Time.service().scheduleAtRate(new BlockingTask("modbus", this), 0, configuration.communicationInterval);
 		
 		// create battery scheduler
 		scheduler = new BatteryScheduler(this);
@@ -8,6 +8,7 @@ import de.fzi.osh.device.battery.configuration.BatteryConfiguration;
 import de.fzi.osh.device.battery.data.BatterySchedulerData;
 import de.fzi.osh.device.battery.data.BatteryStateData;
 import de.fzi.osh.device.time.Time;
+import de.fzi.osh.wamp.RegistrationOptions;
 import de.fzi.osh.wamp.device.DeviceTopics;
 import de.fzi.osh.wamp.device.GetDriverStateRequest;
 import de.fzi.osh.wamp.device.GetDriverStateResponse;
@@ -29,6 +30,8 @@ import de.fzi.osh.wamp.schedule.GetFlexibilityRequest;
 import de.fzi.osh.wamp.schedule.GetFlexibilityResponse;
 import de.fzi.osh.wamp.schedule.GetScheduleRequest;
 import de.fzi.osh.wamp.schedule.GetScheduleResponse;
+import de.fzi.osh.wamp.schedule.GetScheduleSnapshotRequest;
+import de.fzi.osh.wamp.schedule.GetScheduleSnapshotResponse;
 import de.fzi.osh.wamp.schedule.GetTaskRequest;
 import de.fzi.osh.wamp.schedule.GetTaskResponse;
 import de.fzi.osh.wamp.schedule.ScheduleChangedPublication;
@@ -159,13 +162,26 @@ public class BatteryCommunication extends CommunicationInterface<Battery, Batter
 			 * Schedule Interface
 			 */
 			
+			// handled in order but off the connection thread, since the scheduler synchronizes and writes its state
+			RegistrationOptions scheduleOptions = RegistrationOptions.ordered("schedule", 100);
+			
 			// get schedule			
 			connection.register(scheduleTopics.getSchedule(device.getUUID()), GetScheduleRequest.class, parameters -> {
 				// retrieve schedule
 				GetScheduleResponse response = device.getScheduler().getSchedule(parameters.from, parameters.to);
 				response.uuid = device.getUUID();
 				return response;
-			}, null);
+			}, null, scheduleOptions);
+			
+			// get schedule including flexibilities and tasks
+			connection.register(scheduleTopics.getScheduleSnapshot(device.getUUID()), GetScheduleSnapshotRequest.class, parameters -> {
+				// retrieve schedule
+				GetScheduleSnapshotResponse response = device.getScheduler().getScheduleSnapshot(parameters.from, parameters.to);
+				if(null != response) {
+					response.uuid = device.getUUID();
+				}
+				return response;
+			}, null, scheduleOptions);
 			
 			// get flexibility
 			connection.register(scheduleTopics.getFlexibility(device.getUUID()), GetFlexibilityRequest.class, parameters -> {
@@ -173,7 +189,7 @@ public class BatteryCommunication extends CommunicationInterface<Battery, Batter
 				GetFlexibilityResponse response = new GetFlexibilityResponse();
 				response.flexibility = device.getScheduler().getFlexibility(parameters.id);
 				return response;				
-			}, null);
+			}, null, scheduleOptions);
 			
 			// get task
 			connection.register(scheduleTopics.getTask(device.getUUID()), GetTaskRequest.class, parameters -> {
@@ -181,7 +197,7 @@ public class BatteryCommunication extends CommunicationInterface<Battery, Batter
 				GetTaskResponse response = new GetTaskResponse();
 				response.task = device.getScheduler().getTask(parameters.id);
 				return response;
-			}, null);
+			}, null, scheduleOptions);
 			
 			// adapt flexibility
 			connection.register(scheduleTopics.adaptFlexibility(device.getUUID()), AdaptFlexibilityRequest.class, parameters -> {
@@ -199,7 +215,7 @@ public class BatteryCommunication extends CommunicationInterface<Battery, Batter
 				SchedulingResponse response = new SchedulingResponse();
 				response.result = device.getScheduler().adaptScheduledFlexibility(parameters.id, parameters.power);
 				return response;
-			}, null);
+			}, null, scheduleOptions);
 			
 			// schedule flexibility
 			connection.register(scheduleTopics.scheduleFlexibility(device.getUUID()), ScheduleFlexibilityRequest.class, parameters -> {
@@ -207,7 +223,7 @@ public class BatteryCommunication extends CommunicationInterface<Battery, Batter
 				SchedulingResponse response = new SchedulingResponse();
 				response.result = device.getScheduler().scheduleFlexibility(parameters.id, parameters.startingTime, parameters.power);
 				return response;
-			}, null);
+			}, null, scheduleOptions);
 			
 			// unschedule flexibility
 			connection.register(scheduleTopics.unscheduleFlexibility(device.getUUID()), UnscheduleFlexibilityRequest.class, parameters -> {
@@ -215,7 +231,7 @@ public class BatteryCommunication extends CommunicationInterface<Battery, Batter
 				SchedulingResponse response = new SchedulingResponse();
 				response.result = device.getScheduler().unscheduleFlexibility(parameters.id);
 				return response;
-			}, null);
+			}, null, scheduleOptions);
 			
 			// schedule changed
 			publishScheduleChanged(Time.service().now());
@@ -4,22 +4,26 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.logging.Logger;
 
-import de.fzi.osh.core.data.Json;
+import de.fzi.osh.core.data.Journal;
 import de.fzi.osh.device.battery.configuration.BatteryConfiguration;
 import de.fzi.osh.device.battery.data.BatteryStateData;
 import de.fzi.osh.device.time.Time;
 import de.fzi.osh.device.battery.data.BatterySchedulerData;
+import de.fzi.osh.device.battery.data.BatterySchedulerRecord;
 import de.fzi.osh.types.flexibilities.Flexibility;
 import de.fzi.osh.types.flexibilities.SchedulingResult;
 import de.fzi.osh.types.flexibilities.Task;
 import de.fzi.osh.types.math.IntInterval;
 import de.fzi.osh.wamp.schedule.GetScheduleResponse;
+import de.fzi.osh.wamp.schedule.GetScheduleSnapshotResponse;
 
 /**
  * Schedules battery operations. The battery is permanently running and automatically creates a flexibility and a task for each day.
@@ -53,6 +57,11 @@ public class BatteryScheduler implements Runnable {
 	 */
 	private String schedulerDataFile;
 	
+	/**
+	 * Snapshot and change journal of the scheduler data
+	 */
+	private Journal<BatterySchedulerData, BatterySchedulerRecord> journal;
+	
 	/**
 	 * Constructor
 	 * 
@@ -78,21 +87,33 @@ public class BatteryScheduler implements Runnable {
 	}
 	
 	/**
-	 * Loads the scheduler data from a file.
+	 * Loads the scheduler data from a file and replays the journal.
 	 */
 	private void restoreState(String filename) {
-		data = Json.readFile(filename, BatterySchedulerData.class);
+		journal = new Journal<BatterySchedulerData, BatterySchedulerRecord>(filename, BatterySchedulerData.class, BatterySchedulerRecord.class, 
+				BatterySchedulerRecord::apply, configuration.journalCompactionThreshold);
+		data = journal.recover();
 		if(data == null) {
 			log.warning("Scheduler data could not be restored correctly.");
 			data = new BatterySchedulerData();
+			journal.snapshot(data);
 		}
 	}
 	
 	/**
-	 * Writes the scheduler data to a file.
+	 * Appends a change of the scheduler data to the journal. The change has to be applied already.
+	 * 
+	 * @param record
+	 */
+	private synchronized void saveState(BatterySchedulerRecord record) {
+		journal.append(data, record);
+	}
+	
+	/**
+	 * Writes a snapshot of the scheduler data.
 	 */
-	private synchronized void saveState(String filename) {
-		Json.writeFile(filename, data);
+	private synchronized void saveState() {
+		journal.snapshot(data);
 	}
 	
 	/**
@@ -158,7 +179,13 @@ public class BatteryScheduler implements Runnable {
 			data.tasks.put(task.id, task);
 						
 			//persistence
-			saveState(schedulerDataFile);	
+			BatterySchedulerRecord record = new BatterySchedulerRecord();
+			record.flexibility = flexibility;
+			record.task = task;
+			record.power = new TreeMap<Long, Integer>();
+			record.power.put(task.startingTime, 0);
+			record.idCounter = data.idCounter;
+			saveState(record);
 		}
 		return task.id;
 	}
@@ -329,6 +356,44 @@ public class BatteryScheduler implements Runnable {
 		return data;
 	}
 
+	/**
+	 * Returns the schedule like {@link #getSchedule(long, long)} together with the referenced flexibilities and tasks.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return <i>null</i> if the time frame is too long
+	 */
+	public synchronized GetScheduleSnapshotResponse getScheduleSnapshot(long from, long to) {
+		GetScheduleResponse schedule = getSchedule(from, to);
+		if(null == schedule) {
+			return null;
+		}
+		
+		GetScheduleSnapshotResponse snapshot = new GetScheduleSnapshotResponse();
+		snapshot.from = schedule.from;
+		snapshot.to = schedule.to;
+		snapshot.constraints = schedule.constraints;
+		
+		// leave out unknown ids like the separate requests do
+		List<Flexibility> flexibilities = new ArrayList<Flexibility>();
+		for(int id : schedule.flexibilities) {
+			Flexibility flexibility = getFlexibility(id);
+			if(null != flexibility) {
+				flexibilities.add(flexibility);
+			}
+		}
+		snapshot.flexibilities = flexibilities.toArray(new Flexibility[flexibilities.size()]);
+		List<Task> tasks = new ArrayList<Task>();
+		for(int id : schedule.tasks) {
+			Task task = getTask(id);
+			if(null != task) {
+				tasks.add(task);
+			}
+		}
+		snapshot.tasks = tasks.toArray(new Task[tasks.size()]);
+		return snapshot;
+	}
+
 	/**
 	 * Returns the flexibility with the given id.
 	 * @see de.fzi.osh.alljoyn.interfaces.Flexibilities#getFlexibility(int)
@@ -422,7 +487,10 @@ public class BatteryScheduler implements Runnable {
 			// compress data
 			task.compress();
 						
-			// no persistence for short term adaptations needed
+			// persistence, cheap since only the changed range is journaled
+			BatterySchedulerRecord record = BatterySchedulerRecord.ofPowerRange(data, task.startingTime + powers.firstKey(), task.startingTime + powers.lastKey());
+			record.task = task;
+			saveState(record);
 		}
 		
 		return SchedulingResult.Ok;
@@ -497,7 +565,12 @@ public class BatteryScheduler implements Runnable {
 				data.scheduledPower.put(entry.getKey() + startingTime, entry.getValue());
 			}
 			//persistence
-			saveState(schedulerDataFile);	
+			BatterySchedulerRecord record = BatterySchedulerRecord.ofPowerRange(data, task.startingTime, task.startingTime + task.runningTime);
+			for(Map.Entry<Integer, Integer> entry : powers.entrySet()) {
+				record.power.put(entry.getKey() + startingTime, entry.getValue());
+			}
+			record.task = task;
+			saveState(record);
 		}
 		
 		log.info("Flexibility '" + id + "' has been scheduled.");
@@ -539,7 +612,9 @@ public class BatteryScheduler implements Runnable {
 			// task is not removed, since battery will still run and just do nothing
 			
 			// persistence
-			saveState(schedulerDataFile);
+			BatterySchedulerRecord record = BatterySchedulerRecord.ofPowerRange(data, task.startingTime, task.startingTime + task.runningTime);
+			record.task = task;
+			saveState(record);
 		}
 		
 		return SchedulingResult.Ok;
@@ -665,6 +740,7 @@ public class BatteryScheduler implements Runnable {
 				now = Time.service().now();
 				
 				// clean up all finished tasks
+				List<Task> removedTasks = new ArrayList<Task>();
 				Iterator<Map.Entry<Integer, Task>> iterator = data.tasks.entrySet().iterator();
 				while(iterator.hasNext()) {
 					Task task = iterator.next().getValue();
@@ -673,9 +749,11 @@ public class BatteryScheduler implements Runnable {
 						log.finest("Removing old task and corresponding flexibility: " + task.id);
 						data.flexibilities.remove(task.flexibilityId);
 						iterator.remove();
+						removedTasks.add(task);
 					}
 				}
 	
+				boolean removedPower = false;
 				Iterator<Map.Entry<Long, Integer>> scheduleIterator = data.scheduledPower.entrySet().iterator();
 				while(scheduleIterator.hasNext()) {
 					Map.Entry<Long, Integer> entry = scheduleIterator.next();
@@ -683,7 +761,21 @@ public class BatteryScheduler implements Runnable {
 					if(entry.getKey() != 0 && entry.getKey() + 24 * 60 * 60 < now) {
 						// entry is older than 24 hours => remove
 						scheduleIterator.remove();
+						removedPower = true;
+					}
+				}
+				
+				// persistence
+				if(removedTasks.size() > 0 || removedPower) {
+					BatterySchedulerRecord record = new BatterySchedulerRecord();
+					record.removedTasks = new int[removedTasks.size()];
+					record.removedFlexibilities = new int[removedTasks.size()];
+					for(int i = 0; i < removedTasks.size(); i++) {
+						record.removedTasks[i] = removedTasks.get(i).id;
+						record.removedFlexibilities[i] = removedTasks.get(i).flexibilityId;
 					}
+					record.removeBefore = now - 24 * 60 * 60;
+					saveState(record);
 				}
 			}
 			
@@ -709,11 +801,11 @@ public class BatteryScheduler implements Runnable {
 						// do a plausibility check once in a while and make adaptations if needed
 						long time = fixSchedule(storedEnergy, minEnergy, maxEnergy, data.scheduledPower);
 	
-						//persistence
-						saveState(schedulerDataFile);	
-	
 						if(time > 0) {
 							// adaptations have been made !
+							//persistence
+							saveState();
+							
 							int id = getTaskIdForTime(time, true);						
 							if(id < 0) { // this should never happen. Nevertheless, check for debugging.
 								log.severe("Scheduled power without scheduled task!");
@@ -741,6 +833,7 @@ public class BatteryScheduler implements Runnable {
 		data.targetSocTime = time;
 		
 		long t = Time.service().now();
+		long start = t;
 		
 		int duration = (int)(time - t);
 		// [Ws]
@@ -775,7 +868,10 @@ public class BatteryScheduler implements Runnable {
 		data.scheduledPower.put(time, 0);
 		
 		// save changes
-		saveState(schedulerDataFile);
+		BatterySchedulerRecord record = BatterySchedulerRecord.ofPowerRange(data, start, time);
+		record.targetSOC = soc;
+		record.targetSocTime = time;
+		saveState(record);
 	}
 	
 	/**
@@ -787,6 +883,11 @@ public class BatteryScheduler implements Runnable {
 	 */
 	public synchronized void schedulePower(long time, int power) {
 		data.scheduledPower.put(time, power);
+		
+		BatterySchedulerRecord record = new BatterySchedulerRecord();
+		record.power = new TreeMap<Long, Integer>();
+		record.power.put(time, power);
+		saveState(record);
 	}
 	
 }
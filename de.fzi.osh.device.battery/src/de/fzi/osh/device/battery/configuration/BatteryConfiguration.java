@@ -50,6 +50,10 @@ public class BatteryConfiguration extends Configuration {
 	 * File used to store the battery scheduler data
 	 */
 	public String schedulerDataFile = "persistence_battery_scheduler.json";
+	/**
+	 * Number of changes appended to the journal of the scheduler data before a new snapshot is written
+	 */
+	public int journalCompactionThreshold = 500;
 	/**
 	 * Period length for modbus communication in ms
 	 */
@@ -0,0 +1,119 @@
+package de.fzi.osh.device.battery.data;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import de.fzi.osh.types.flexibilities.Flexibility;
+import de.fzi.osh.types.flexibilities.Task;
+
+/**
+ * Journal record of a change of the {@link BatterySchedulerData}. Fields that are <i>null</i> are not changed.
+ * 
+ * Removals are applied first, then the new values are put. All operations are idempotent.
+ * 
+ * @author K. Foerderer
+ *
+ */
+public class BatterySchedulerRecord {
+	/**
+	 * Flexibility to put
+	 */
+	public Flexibility flexibility;
+	/**
+	 * Task to put
+	 */
+	public Task task;
+	/**
+	 * Ids of removed tasks
+	 */
+	public int[] removedTasks;
+	/**
+	 * Ids of removed flexibilities
+	 */
+	public int[] removedFlexibilities;
+	/**
+	 * Scheduled power in [clearFrom, clearTo] is removed
+	 */
+	public Long clearFrom;
+	public Long clearTo;
+	/**
+	 * Scheduled power before this epoch second is removed (except for the initial entry at 0)
+	 */
+	public Long removeBefore;
+	/**
+	 * Scheduled power to put: epoch second -> power
+	 */
+	public NavigableMap<Long, Integer> power;
+	
+	public Integer idCounter;
+	public Integer targetSOC;
+	public Long targetSocTime;
+	
+	/**
+	 * Creates a record that removes the scheduled power in [from, to] and puts the current values in this range.
+	 * 
+	 * @param data
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static BatterySchedulerRecord ofPowerRange(BatterySchedulerData data, long from, long to) {
+		BatterySchedulerRecord record = new BatterySchedulerRecord();
+		record.clearFrom = from;
+		record.clearTo = to;
+		record.power = new TreeMap<Long, Integer>(data.scheduledPower.subMap(from, true, to, true));
+		return record;
+	}
+	
+	/**
+	 * Applies a record to the scheduler data.
+	 * 
+	 * @param data
+	 * @param record
+	 */
+	public static void apply(BatterySchedulerData data, BatterySchedulerRecord record) {
+		// removals
+		if(null != record.removedTasks) {
+			for(int id : record.removedTasks) {
+				data.tasks.remove(id);
+			}
+		}
+		if(null != record.removedFlexibilities) {
+			for(int id : record.removedFlexibilities) {
+				data.flexibilities.remove(id);
+			}
+		}
+		if(null != record.clearFrom && null != record.clearTo) {
+			data.scheduledPower.subMap(record.clearFrom, true, record.clearTo, true).clear();
+		}
+		if(null != record.removeBefore) {
+			for(Iterator<Map.Entry<Long, Integer>> iterator = data.scheduledPower.headMap(record.removeBefore, false).entrySet().iterator(); iterator.hasNext();) {
+				if(iterator.next().getKey() != 0) {
+					iterator.remove();
+				}
+			}
+		}
+		
+		// new values
+		if(null != record.flexibility) {
+			data.flexibilities.put(record.flexibility.id, record.flexibility);
+		}
+		if(null != record.task) {
+			data.tasks.put(record.task.id, record.task);
+		}
+		if(null != record.power) {
+			data.scheduledPower.putAll(record.power);
+		}
+		if(null != record.idCounter) {
+			data.idCounter = Math.max(data.idCounter, record.idCounter);
+		}
+		if(null != record.targetSOC) {
+			data.targetSOC = record.targetSOC;
+		}
+		if(null != record.targetSocTime) {
+			data.targetSocTime = record.targetSocTime;
+		}
+	}
+}
@@ -18,6 +18,7 @@ import de.fzi.osh.device.Device;
 import de.fzi.osh.device.meter.configuration.MeterConfiguration;
 import de.fzi.osh.device.meter.data.SmartMeterData;
 import de.fzi.osh.device.time.Time;
+import de.fzi.osh.time.BlockingTask;
 import de.fzi.osh.time.TimeService;
 import de.fzi.osh.time.realtime.RealTimeService;
 
@@ -52,8 +53,8 @@ public class MeteringDevice extends Device<MeteringDevice, MeterConfiguration>
 			return;
 		}
 		
-		// create scheduler an measure every $configuration.samplingInterval ms
-		Time.service().scheduleAtRate(this, 0, configuration.samplingInterval);
+		// create scheduler an measure every $configuration.samplingInterval ms, modbus blocks, hence it runs on its own thread
+		Time.service().scheduleAtRate(new BlockingTask("modbus", this), 0, configuration.samplingInterval);
 	}
 
 	@Override
@@ -31,7 +31,7 @@ public abstract class CommunicationInterface<D extends Device<D,C>, C extends Co
 		this.device = device;
 		this.configuration = device.getConfiguration();
 
-		connection = new Connection(configuration.wamp.url, configuration.wamp.realm, configuration.wamp.maxFramePayloadLength, device.getClass().getName());
+		connection = new Connection(configuration.wamp, device.getClass().getName());
 	}
 	
 	/**
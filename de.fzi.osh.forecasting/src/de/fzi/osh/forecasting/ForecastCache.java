@@ -0,0 +1,251 @@
+package de.fzi.osh.forecasting;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Least recently used cache for forecasts of a forecasting service.
+ * 
+ * Forecasts are computed and stored for whole days, such that requests with moving time frames (e.g. starting at the current slot)
+ * are served by slicing the days they cover. Days are identified by class, argument, begin of day and slot length. An entry is 
+ * dropped when it is older than the time to live, when a new day of history became available since its creation (i.e. the day 
+ * changed) or when the cache is invalidated, e.g. after a configuration change.
+ * 
+ * Time frames that are not aligned with the slots of a day are computed directly and not cached.
+ * 
+ * @author K. Foerderer
+ *
+ */
+public class ForecastCache {
+
+	/**
+	 * Computes the wattages of a time frame.
+	 * 
+	 * @author K. Foerderer
+	 *
+	 */
+	public interface WattageSource {
+		/**
+		 * Returns the wattages of a time frame.
+		 * 
+		 * @param from
+		 * @param to
+		 * @return wattage for each slot in [from, to) or <i>null</i> if there is no forecast
+		 * @throws Exception
+		 */
+		public int[] getWattages(ZonedDateTime from, ZonedDateTime to) throws Exception;
+	}
+	
+	/**
+	 * Identifies a forecast of a day.
+	 * 
+	 * @author K. Foerderer
+	 *
+	 */
+	private static class Key {
+		final Class<?> clazz;
+		final Object argument;
+		final long begin;
+		final ZoneId zone;
+		final int slotLength;
+		
+		Key(Class<?> clazz, Object argument, ZonedDateTime begin, int slotLength) {
+			this.clazz = clazz;
+			this.argument = argument;
+			this.begin = begin.toEpochSecond();
+			this.zone = begin.getZone();
+			this.slotLength = slotLength;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if(false == (object instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) object;
+			return clazz == key.clazz && begin == key.begin && slotLength == key.slotLength &&
+					Objects.equals(argument, key.argument) && zone.equals(key.zone);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(clazz, argument, begin, zone, slotLength);
+		}
+	}
+	
+	/**
+	 * Cached forecast of a day.
+	 * 
+	 * @author K. Foerderer
+	 *
+	 */
+	private static class CachedForecast {
+		int[] wattages;
+		/**
+		 * Epoch second of creation
+		 */
+		long created;
+		/**
+		 * Epoch second of the begin of the day of creation
+		 */
+		long day;
+	}
+	
+	private int timeToLive;
+	private Map<Key, CachedForecast> entries;
+	
+	// statistics
+	private long hits;
+	private long misses;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param size maximum number of forecast days. 0 disables caching.
+	 * @param timeToLive seconds a forecast is used at most
+	 */
+	public ForecastCache(int size, int timeToLive) {
+		this.timeToLive = timeToLive;
+		this.entries = new LinkedHashMap<Key, CachedForecast>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CachedForecast> eldest) {
+				return size() > size;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the wattages for [from, to). Days that are not cached are computed by $source and stored.
+	 * 
+	 * @param clazz
+	 * @param argument
+	 * @param from
+	 * @param to
+	 * @param slotLength
+	 * @param now epoch second
+	 * @param day epoch second of the begin of the current day
+	 * @param source computes missing days
+	 * @return wattage for each slot in [from, to), at least one, or <i>null</i> if $source has no forecast
+	 * @throws Exception
+	 */
+	public int[] getWattages(Class<?> clazz, Object argument, ZonedDateTime from, ZonedDateTime to, int slotLength, long now, long day, 
+			WattageSource source) throws Exception {
+		int[] wattages = new int[Math.max(1, (int)((to.toEpochSecond() - from.toEpochSecond() + slotLength - 1) / slotLength))];
+		ZonedDateTime dayBegin = from.truncatedTo(ChronoUnit.DAYS);
+		long offset = from.toEpochSecond() - dayBegin.toEpochSecond();
+		if(offset % slotLength != 0) {
+			return compute(source, from, to);
+		}
+		
+		int slot = (int)(offset / slotLength);
+		int index = 0;
+		while(index < wattages.length) {
+			ZonedDateTime dayEnd = dayBegin.plusDays(1);
+			if((dayEnd.toEpochSecond() - dayBegin.toEpochSecond()) % slotLength != 0) {
+				// slots of consecutive days would not line up
+				return compute(source, from, to);
+			}
+			Key key = new Key(clazz, argument, dayBegin, slotLength);
+			int[] dayWattages = get(key, now, day);
+			if(null == dayWattages) {
+				dayWattages = compute(source, dayBegin, dayEnd);
+				if(null == dayWattages) {
+					return null;
+				}
+				put(key, dayWattages, now, day);
+			}
+			int count = Math.min(dayWattages.length - slot, wattages.length - index);
+			if(count <= 0) {
+				// the day does not cover the requested slots
+				return compute(source, from, to);
+			}
+			System.arraycopy(dayWattages, slot, wattages, index, count);
+			index += count;
+			slot = 0;
+			dayBegin = dayEnd;
+		}
+		return wattages;
+	}
+	
+	/**
+	 * Computes wattages without caching them.
+	 * 
+	 * @param source
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws Exception
+	 */
+	private int[] compute(WattageSource source, ZonedDateTime from, ZonedDateTime to) throws Exception {
+		synchronized(this) {
+			misses++;
+		}
+		return source.getWattages(from, to);
+	}
+	
+	/**
+	 * Returns the cached wattages of a day or <i>null</i>.
+	 * 
+	 * @param key
+	 * @param now
+	 * @param day
+	 * @return
+	 */
+	private synchronized int[] get(Key key, long now, long day) {
+		CachedForecast entry = entries.get(key);
+		if(null == entry || entry.created + timeToLive < now || entry.day != day) {
+			if(null != entry) {
+				entries.remove(key);
+			}
+			return null;
+		}
+		hits++;
+		return entry.wattages;
+	}
+	
+	/**
+	 * Stores the wattages of a day.
+	 * 
+	 * @param key
+	 * @param wattages
+	 * @param now
+	 * @param day
+	 */
+	private synchronized void put(Key key, int[] wattages, long now, long day) {
+		CachedForecast entry = new CachedForecast();
+		entry.wattages = wattages;
+		entry.created = now;
+		entry.day = day;
+		entries.put(key, entry);
+	}
+	
+	/**
+	 * Removes all forecasts.
+	 */
+	public synchronized void invalidate() {
+		entries.clear();
+	}
+	
+	/**
+	 * Returns the number of forecast days served from the cache.
+	 * 
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of forecasts that had to be computed.
+	 * 
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
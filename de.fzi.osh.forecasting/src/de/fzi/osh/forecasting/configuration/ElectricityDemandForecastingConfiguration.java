@@ -6,7 +6,7 @@ import java.util.UUID;
  * Configuration for the electricity demand forecasting.
  * 
  * This forecasting service can either provide a standard load profile based forecast or
- * a forecast based on averages of previous demand.
+ * a forecast based on averages of previous demand (recent similar days or rolling day type profiles).
  * 
  * @author K. Foerderer
  *
@@ -31,7 +31,11 @@ public class ElectricityDemandForecastingConfiguration {
 		/**
 		 * Derive forecast from historic data.
 		 */
-		HistoricData(2);
+		HistoricData(2),
+		/**
+		 * Use rolling profiles of week days, Saturdays and Sundays that are updated with new data once a day.
+		 */
+		DayTypeProfile(3);
 		
 		private int id;
 		private ForecastingMethod(int id) {
@@ -79,12 +83,27 @@ public class ElectricityDemandForecastingConfiguration {
 	public UUID sourceUUID;
 	
 	/**
-	 * Number of similar days used for computing averages.
+	 * Number of similar days used for computing averages. Also the window of the day type profiles.
 	 */
 	public int numberOfDays=2;
 	
+	/**
+	 * File used to store the day type profiles
+	 */
+	public String profileFile = "persistence_demand_profiles.json";
+	
 	/**
 	 * Scalar multiplied with value to account for meter precision.
 	 */
 	public double meterScalar = 0.1;
+	
+	/**
+	 * Maximum number of cached forecast days. 0 disables caching.
+	 */
+	public int cacheSize = 32;
+	
+	/**
+	 * Seconds a cached forecast is used at most. Cached forecasts are also dropped when the day changes.
+	 */
+	public int cacheTimeToLive = 60 * 60;
 }
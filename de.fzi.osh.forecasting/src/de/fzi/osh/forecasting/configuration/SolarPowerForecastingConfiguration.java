@@ -9,4 +9,14 @@ public class SolarPowerForecastingConfiguration {
 	 * Scalar multiplied with value to account for meter precision.
 	 */
 	public double scalar = 0.1;
+	
+	/**
+	 * Maximum number of cached forecast days. 0 disables caching.
+	 */
+	public int cacheSize = 32;
+	
+	/**
+	 * Seconds a cached forecast is used at most. Cached forecasts are also dropped when the day changes.
+	 */
+	public int cacheTimeToLive = 60 * 60;
 }
@@ -2,9 +2,12 @@ package de.fzi.osh.forecasting.demand;
 
 import java.sql.Timestamp;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 
+import de.fzi.osh.core.timeseries.IntegerSlotSeries;
 import de.fzi.osh.core.timeseries.TimeSeries;
 import de.fzi.osh.data.storage.Column;
+import de.fzi.osh.data.storage.IntArrayCodec;
 import de.fzi.osh.data.storage.Table;
 import de.fzi.osh.forecasting.Forecast;
 
@@ -42,50 +45,41 @@ public class ElectricityDemandForecast extends Forecast{
 	@Column(name="timeSlotLength", declaration="INT")
 	public int timeSlotLength = 15 * 60;
 	/**
-	 * Average wattage during time slot t as ;-separated string
+	 * Average wattage during time slot t. Stored in a compact text encoding (see {@link IntArrayCodec}).
 	 */
 	@Column(name="wattages", declaration="TEXT")
-	public String wattages = "";
+	private int[] wattages = new int[0];
 	
 	/**
-	 * Converts the database string into an integer array
+	 * Returns the wattages. The array is not copied, since forecasts are shared, it must not be altered.
 	 * 
 	 * @return
 	 */
 	public int[] getWattages() {
-		String[] splitted = wattages.split(";");
-		int[] result = new int[splitted.length];
-		
-		for(int i = 0; i < result.length; i++) {
-			result[i] = Integer.parseInt(splitted[i]);
-		}
-		
-		return result;
+		return wattages;
 	}
 	
 	/**
-	 * Converts an integer array into a string to be stored in the database
+	 * Sets the wattages. The array is used directly and not copied.
 	 * 
 	 * @param wattages
 	 */
 	public void setWattages(int[] wattages) {
-		this.wattages = "";
-		for(int i = 0; i < wattages.length; i++) {
-			this.wattages += (i == 0 ? "" : ";") + wattages[i];
-		}
+		this.wattages = wattages;
 	}
 	
 	/**
-	 * Adds a value to the wattages
+	 * Adds a value to the wattages. Copies the wattages, use {@link #setWattages(int[])} for more than a few values.
 	 * 
 	 * @param wattage
 	 */
 	public void addWattage(int wattage) {
-		wattages += (wattages.length() == 0 ? "" : ";") + wattage;
+		wattages = Arrays.copyOf(wattages, wattages.length + 1);
+		wattages[wattages.length - 1] = wattage;
 	}
 	
 	/**
-	 * Converts this forecast into a time series in W.
+	 * Converts this forecast into a time series in W. Prefer {@link #getSlotSeries()}, which does not box the values.
 	 * 
 	 * @return
 	 */
@@ -93,11 +87,19 @@ public class ElectricityDemandForecast extends Forecast{
 		TimeSeries<Integer> series = new TimeSeries<>(ChronoUnit.SECONDS);
 		
 		long time = forecastBegin.toInstant().getEpochSecond();
-		int[] wattages = getWattages();
 		for(int i = 0; i < wattages.length; i++, time += timeSlotLength) {
 			series.add(time, wattages[i]);
 		}
 		
 		return series;
 	}
+	
+	/**
+	 * Returns this forecast as slot series in W. The series is backed by a copy of the wattages and may be altered.
+	 * 
+	 * @return
+	 */
+	public IntegerSlotSeries getSlotSeries() {
+		return new IntegerSlotSeries(ChronoUnit.SECONDS, forecastBegin.toInstant().getEpochSecond(), timeSlotLength, wattages.clone());
+	}
 }
@@ -0,0 +1,172 @@
+package de.fzi.osh.forecasting.demand.implementation;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.zone.ZoneRules;
+import java.util.UUID;
+
+/**
+ * Rolling mean wattage per slot of day for week days, Saturdays and Sundays.
+ * Slots refer to the local time of day, i.e. on days with 23 hours some slots are skipped and on days with 25 hours some slots are used twice.
+ * 
+ * Each slot holds its mean and the number of values it is based on. The count is capped at the window size, hence
+ * once a slot is warmed up newer values are weighted with 1/window and older ones fade out.
+ * 
+ * Used for persistence, thus all fields are public.
+ * 
+ * @author K. Foerderer
+ *
+ */
+public class DayTypeProfiles {
+	
+	/**
+	 * Day types with distinct profiles.
+	 * 
+	 * @author K. Foerderer
+	 *
+	 */
+	public static enum DayType {
+		Weekday,
+		Saturday,
+		Sunday;
+		
+		public static DayType of(DayOfWeek dayOfWeek) {
+			switch(dayOfWeek) {
+			case SATURDAY:
+				return Saturday;
+			case SUNDAY:
+				return Sunday;
+			default:
+				return Weekday;
+			}
+		}
+		
+		/**
+		 * Returns the type of the local day containing the given epoch second.
+		 * 
+		 * @param epochSecond
+		 * @param rules time zone rules
+		 * @return
+		 */
+		public static DayType of(long epochSecond, ZoneRules rules) {
+			long localSecond = epochSecond + rules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+			// epoch day 0 was a Thursday
+			return of(DayOfWeek.of((int)Math.floorMod(Math.floorDiv(localSecond, 24 * 60 * 60) + 3, 7) + 1));
+		}
+	}
+	
+	/**
+	 * Meter the profiles are based on
+	 */
+	public UUID source;
+	/**
+	 * Slot length in seconds
+	 */
+	public int intervalLength;
+	/**
+	 * Maximum count of a slot
+	 */
+	public int window;
+	/**
+	 * Epoch second of the begin of the latest day included
+	 */
+	public long latestDay;
+	/**
+	 * Day type -> slot of day -> mean wattage (float keeps the stored file small)
+	 */
+	public float[][] means;
+	/**
+	 * Day type -> slot of day -> number of values
+	 */
+	public int[][] counts;
+	
+	public DayTypeProfiles() {
+	}
+	
+	/**
+	 * Constructor. Creates empty profiles.
+	 * 
+	 * @param source
+	 * @param intervalLength
+	 * @param window
+	 */
+	public DayTypeProfiles(UUID source, int intervalLength, int window) {
+		this.source = source;
+		this.intervalLength = intervalLength;
+		this.window = Math.max(1, window);
+		
+		int slots = getSlotsPerDay();
+		means = new float[DayType.values().length][slots];
+		counts = new int[DayType.values().length][slots];
+	}
+	
+	/**
+	 * Returns whether these profiles have been created for the given source and slot length.
+	 * 
+	 * @param source
+	 * @param intervalLength
+	 * @return
+	 */
+	public boolean matches(UUID source, int intervalLength) {
+		return null != means && null != counts && intervalLength == this.intervalLength && 
+				(null == source ? null == this.source : source.equals(this.source));
+	}
+	
+	/**
+	 * Returns the number of slots of a day.
+	 * 
+	 * @return
+	 */
+	public int getSlotsPerDay() {
+		return (24 * 60 * 60 + intervalLength - 1) / intervalLength;
+	}
+	
+	/**
+	 * Returns the slot of the local day containing the given epoch second.
+	 * 
+	 * @param epochSecond
+	 * @param rules time zone rules
+	 * @return
+	 */
+	public int getSlot(long epochSecond, ZoneRules rules) {
+		long localSecond = epochSecond + rules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+		return (int)(Math.floorMod(localSecond, 24 * 60 * 60) / intervalLength);
+	}
+	
+	/**
+	 * Adds a value to the slot containing the given epoch second.
+	 * 
+	 * @param epochSecond
+	 * @param rules time zone rules
+	 * @param wattage
+	 */
+	public void add(long epochSecond, ZoneRules rules, double wattage) {
+		int type = DayType.of(epochSecond, rules).ordinal();
+		int slot = getSlot(epochSecond, rules);
+		if(counts[type][slot] < window) {
+			counts[type][slot]++;
+		}
+		means[type][slot] += (float)((wattage - means[type][slot]) / counts[type][slot]);
+	}
+	
+	/**
+	 * Writes the means of the slots starting at $from into an array.
+	 * 
+	 * @param from epoch second of the first slot
+	 * @param rules time zone rules
+	 * @param out one value per slot
+	 * @return <i>false</i> if a slot has no value yet
+	 */
+	public boolean fill(long from, ZoneRules rules, int[] out) {
+		long time = from;
+		for(int i = 0; i < out.length; i++, time += intervalLength) {
+			int type = DayType.of(time, rules).ordinal();
+			int slot = getSlot(time, rules);
+			if(counts[type][slot] == 0) {
+				return false;
+			}
+			out[i] = Math.round(means[type][slot]);
+		}
+		return true;
+	}
+}
@@ -3,11 +3,10 @@ package de.fzi.osh.forecasting.demand.implementation;
 import java.sql.Timestamp;
 import java.time.DayOfWeek;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.osgi.service.component.annotations.Activate;
@@ -18,10 +17,12 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
 
 import de.fzi.osh.core.configuration.ConfigurationService;
+import de.fzi.osh.core.data.Json;
 import de.fzi.osh.data.logging.types.MeterData;
 import de.fzi.osh.data.storage.timeseries.TimeSeries;
 import de.fzi.osh.data.storage.timeseries.TimeSeriesStorageService;
 import de.fzi.osh.forecasting.Forecast;
+import de.fzi.osh.forecasting.ForecastCache;
 import de.fzi.osh.forecasting.ForecastingService;
 import de.fzi.osh.forecasting.configuration.ElectricityDemandForecastingConfiguration;
 import de.fzi.osh.forecasting.configuration.ElectricityDemandForecastingConfiguration.ForecastingMethod;
@@ -31,7 +32,7 @@ import de.fzi.osh.time.TimeService;
 /**
  * Service for doing electricity demand forecasts
  * 
- * Using slp h21 (E.DIS AG) OR averages of recent days (see configuration)
+ * Using slp h21 (E.DIS AG) OR averages of recent days OR rolling day type profiles (see configuration)
  * 
  * @author K. Foerderer
  *
@@ -47,6 +48,13 @@ public class ElectricityDemandForecastingService implements ForecastingService {
 	private static TimeService timeService;
 	
 	private StandardLoadProfile profile;
+	
+	/**
+	 * Profiles for {@link ForecastingMethod#DayTypeProfile}
+	 */
+	private DayTypeProfiles profiles;
+	
+	private ForecastCache cache;
 
 	public ElectricityDemandForecastingService() {
 	}
@@ -62,7 +70,7 @@ public class ElectricityDemandForecastingService implements ForecastingService {
 	}	
 
 	@Override
-	public <T extends Forecast> T getForecast(ZonedDateTime from, ZonedDateTime to, Class<T> clazz, Object arguments) { 
+	public <T extends Forecast> T getForecast(ZonedDateTime from, ZonedDateTime to, Class<T> clazz, Object arguments) {
 		
 		try {
 		if(clazz == ElectricityDemandForecast.class) {			
@@ -73,148 +81,13 @@ public class ElectricityDemandForecastingService implements ForecastingService {
 			demand.forecastEnd = new Timestamp(to.toInstant().toEpochMilli());
 			demand.timeSlotLength = configuration.intervalLength;
 			
-			// fill with zeroes if no forecast is wished
-			if(configuration.forecastingMethod == ForecastingMethod.None) {
-				
-				// copy $from
-				ZonedDateTime iterator = from.plusMinutes(0);
-				
-				do {
-					// get value
-					demand.addWattage(0);
-					
-					// move to next interval
-					iterator = iterator.plusSeconds(configuration.intervalLength);
-				} while(iterator.isBefore(to));
-			
-			} 
-			// standard forecast
-			else {
-			
-				// forecast via SLP?
-				boolean getSlpForecast = configuration.forecastingMethod == ForecastingMethod.StandardLoadProfile;
-				
-				if(Duration.between(from, to).toDays() >= 1 && (to.getHour() != 0 || from.getHour() != 0) && getSlpForecast == false) {
-					log.warning("Can not forecast across multiple days. Fallback to SLP.");
-					getSlpForecast = true;
-				}
-				
-				// try historic forecast if wished
-				try {
-					if(configuration.forecastingMethod == ForecastingMethod.HistoricData) {
-						// get calendar to determine day
-						DayOfWeek dayOfWeek = from.getDayOfWeek();
-						
-						NavigableMap<Integer, Integer> powers = new TreeMap<Integer,Integer>();
-						// prepare map
-						long startSecond = from.truncatedTo(ChronoUnit.DAYS).toEpochSecond();
-				    	long currentSecond = from.toEpochSecond();    
-				    	while(currentSecond < to.toEpochSecond()) {
-				    		int secondOfDay = (int)(currentSecond - startSecond);
-				    		powers.put(secondOfDay, 0);          		
-				    		currentSecond += configuration.intervalLength;
-				    	}
-						
-						// initialize iterator with begin of target day
-						ZonedDateTime dayIterator = from.truncatedTo(ChronoUnit.DAYS); 						
-						int nDays = 0;
-						for(int i = 0; i < configuration.numberOfDays; i++) {
-							// begin and end times of a day for time series retrieval
-							ZonedDateTime end;
-							ZonedDateTime begin;
-							
-							if(dayOfWeek == DayOfWeek.SATURDAY) {
-								// move begin back to previous Saturday
-								begin = dayIterator.minusDays(7);
-								end = begin.plusDays(1);							
-							} else if(dayOfWeek == DayOfWeek.SUNDAY) {
-								// move begin back to previous Sunday
-								begin = dayIterator.minusDays(7);
-								end = begin.plusDays(1);									
-							} else {
-								if(dayIterator.getDayOfWeek() == DayOfWeek.MONDAY) {
-									// move begin back to previous Friday
-									begin = dayIterator.minusDays(3);
-									end = begin.plusDays(1);										
-								} else {
-									// move begin back to previous week day
-									begin = dayIterator.minusDays(1);
-									end = dayIterator;										
-								}
-							}
-							dayIterator = begin;
-							// check if day is in the future (which would lead to missing or incomplete time series) 
-							if(!dayIterator.isBefore(timeService.nowAsZonedDateTime().truncatedTo(ChronoUnit.DAYS))) {
-								i--;
-								continue;
-							}
-							
-							
-							NavigableMap<Integer, Integer> series = getSeries(begin, end);
-							  
-							if(series.size() == 0) {
-					    		log.warning("Empty result set for historical meter data. Ignoring day.");
-					    		continue;
-					    	}
-							
-							// debug
-							//NavigableMap<Integer, Integer> series = (NavigableMap<Integer, Integer>)((TreeMap<Integer, Integer>) powers).clone();
-							//series.replaceAll((k,v) -> { return v+2; });							
-					    	
-							// aggregate
-							final int numberOfDays = nDays;
-							powers.replaceAll((k,v) -> {
-								Integer key = series.floorKey(k);
-								if(key == null) {
-									// if data is missing use average of previous days
-									if(numberOfDays == 0) {
-										return 0;
-									} else {
-										return v + v / numberOfDays;
-									}
-								} else {
-									return v + series.get(key);
-								}
-							}); 
-							
-							// increment number of days
-							nDays++;
-						}
-						final int numberOfDays = nDays;
-						
-						// check forecast
-				    	if(powers.entrySet().stream().filter(e -> e.getValue() > 0).count() == 0) {
-				    		// only zeroes in map
-				    		log.warning("Forecast only consists of 0s. Using SLP now.");
-				    		getSlpForecast = true;
-				    	} else {
-					    	// compile result
-					    	powers.forEach((k,v) -> demand.addWattage(v/numberOfDays));
-				    	}			    	
-					}
-				} catch(Exception e) {
-					// reset wattages
-					demand.wattages = "";
-					log.severe(e.toString());
-					getSlpForecast = true;
-				}
-				
-				// if setting says so or forecast on historic data fails, do slp based forecast
-				if(getSlpForecast) {
-						
-					// copy $from
-					ZonedDateTime iterator = from.plusMinutes(0);
-					
-					do {
-						// get value
-						demand.addWattage((int)Math.round(configuration.multiplier * 
-								profile.getWattageForTimestamp(new Timestamp(iterator.toInstant().toEpochMilli()))));
-						
-						// move to next interval
-						iterator = iterator.plusSeconds(configuration.intervalLength);
-					} while(iterator.isBefore(to));
-				}				
-			}
+			// whole days are computed and cached, the requested time frame is sliced out of them
+			long now = timeService.now();
+			long day = timeService.nowAsZonedDateTime().truncatedTo(ChronoUnit.DAYS).toEpochSecond();
+			demand.setWattages(cache.getWattages(clazz, arguments, from, to, configuration.intervalLength, now, day, (begin, end) -> {
+				log.fine("Computing forecast (cache hits: " + cache.getHits() + ", misses: " + cache.getMisses() + ").");
+				return getWattages(begin, end);
+			}));
 			
 			return clazz.cast(demand);	
 		} // if
@@ -224,38 +97,253 @@ public class ElectricityDemandForecastingService implements ForecastingService {
 		
 		return null;
 	}
+	
+	/**
+	 * Computes the wattages of a forecast.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return wattage for each slot in [from, to)
+	 */
+	private int[] getWattages(ZonedDateTime from, ZonedDateTime to) { 
+		
+		// fill with zeroes if no forecast is wished
+		if(configuration.forecastingMethod == ForecastingMethod.None) {
+			return new int[getSlotCount(from, to)];
+		} 
+		
+		// forecast via SLP?
+		boolean getSlpForecast = configuration.forecastingMethod == ForecastingMethod.StandardLoadProfile;
+		
+		if(Duration.between(from, to).toDays() >= 1 && (to.getHour() != 0 || from.getHour() != 0) && 
+				configuration.forecastingMethod == ForecastingMethod.HistoricData) {
+			log.warning("Can not forecast across multiple days. Fallback to SLP.");
+			getSlpForecast = true;
+		}
+		
+		// try historic forecast if wished
+		try {
+			if(configuration.forecastingMethod == ForecastingMethod.HistoricData && false == getSlpForecast) {
+				int[] wattages = getHistoricWattages(from, to);
+				if(null == wattages) {
+		    		log.warning("Forecast only consists of 0s. Using SLP now.");
+				} else {
+					return wattages;
+				}
+			} else if(configuration.forecastingMethod == ForecastingMethod.DayTypeProfile) {
+				int[] wattages = getProfileWattages(from, to);
+				if(null == wattages) {
+					log.warning("Day type profiles are incomplete. Using SLP now.");
+				} else {
+					return wattages;
+				}
+			}
+		} catch(Exception e) {
+			log.severe(e.toString());
+		}
+		
+		// if setting says so or forecast on historic data fails, do slp based forecast
+		int[] wattages = new int[getSlotCount(from, to)];
+		long begin = from.toEpochSecond();
+		profile.fill(begin, begin + (long)wattages.length * configuration.intervalLength, configuration.intervalLength, configuration.multiplier, wattages);
+		return wattages;
+	}
 
 	
-	public NavigableMap<Integer, Integer> getSeries(ZonedDateTime begin, ZonedDateTime end)
-	{
-		log.finest("Retrieving consumption from " + begin + " to " + end + ".");
-		// mapping for data association
-    	// second of day -> power
-    	NavigableMap<Integer, Integer> powers = new TreeMap<Integer, Integer>();
-    	long startSecond = begin.toEpochSecond();
-    	
-    	String table = configuration.sourceUUID + "_" + MeterData.class.getAnnotation(TimeSeries.class).name();
-    	
-    	//retrieve historic data from time series store
-    	List<MeterData> result;
+	/**
+	 * Returns the number of slots of a forecast for [from, to). There is at least one slot.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	private static int getSlotCount(ZonedDateTime from, ZonedDateTime to) {
+		int intervalLength = configuration.intervalLength;
+		return Math.max(1, (int)((to.toEpochSecond() - from.toEpochSecond() + intervalLength - 1) / intervalLength));
+	}
+	
+	/**
+	 * Returns the begin of the most recent day before $day that is similar to $target, i.e. the same weekend day or a week day.
+	 * 
+	 * @param day
+	 * @param target
+	 * @return
+	 */
+	private static ZonedDateTime getPreviousSimilarDay(ZonedDateTime day, DayOfWeek target) {
+		if(target == DayOfWeek.SATURDAY || target == DayOfWeek.SUNDAY) {
+			// move back to previous Saturday/Sunday
+			return day.minusDays(7);
+		} else if(day.getDayOfWeek() == DayOfWeek.MONDAY) {
+			// move back to previous Friday
+			return day.minusDays(3);
+		} else {
+			// move back to previous week day
+			return day.minusDays(1);
+		}
+	}
+	
+	/**
+	 * Computes a forecast from the averages of the recent similar days (see {@link #getPreviousSimilarDay(ZonedDateTime, DayOfWeek)}).
+	 * 
+	 * All days are retrieved with a single query spanning all of them. Values are grouped by slot of day and averaged in one pass.
+	 * A slot of a day before the day's first value counts as missing and is left out of the average, later gaps count as 0.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return wattage for each slot in [from, to) or <i>null</i> if there is no positive value
+	 * @throws Exception
+	 */
+	private int[] getHistoricWattages(ZonedDateTime from, ZonedDateTime to) throws Exception {
+		int intervalLength = configuration.intervalLength;
+		ZonedDateTime targetDay = from.truncatedTo(ChronoUnit.DAYS);
+		long startSecond = targetDay.toEpochSecond();
+		
+		// select days, most recent first (days that have not passed yet would lead to missing or incomplete time series)
+		ZonedDateTime today = timeService.nowAsZonedDateTime().truncatedTo(ChronoUnit.DAYS);
+		int numberOfDays = Math.max(1, configuration.numberOfDays);
+		long[] dayBegins = new long[numberOfDays];
+		long[] dayEnds = new long[numberOfDays];
+		ZonedDateTime dayIterator = targetDay;
+		for(int i = numberOfDays - 1; i >= 0; ) {
+			dayIterator = getPreviousSimilarDay(dayIterator, targetDay.getDayOfWeek());
+			if(dayIterator.isBefore(today)) {
+				// store in ascending order
+				dayBegins[i] = dayIterator.toEpochSecond();
+				dayEnds[i] = dayIterator.plusDays(1).toEpochSecond();
+				i--;
+			}
+		}
+		
+		// slot of day per forecast slot
+		int slots = getSlotCount(from, to);
+		int firstSlotOfDay = (int)((from.toEpochSecond() - startSecond) / intervalLength);
+		int slotsOfDay = firstSlotOfDay + slots;
+		
+		// retrieve all days at once
+		log.finest("Retrieving consumption of " + numberOfDays + " days from " + dayBegins[0] + " to " + dayEnds[numberOfDays - 1] + ".");
+		String table = configuration.sourceUUID + "_" + MeterData.class.getAnnotation(TimeSeries.class).name();
+		List<MeterData> result = timeSeriesStorageService.select("time < " + dayEnds[numberOfDays - 1] + "s" + " AND time >= " + dayBegins[0] + "s", 
+				table,
+				MeterData.class,
+				intervalLength + "s", "MEAN");
+		
+		// slot of day -> sum of values
+		long[] sums = new long[slotsOfDay];
+		// slot of day -> number of days starting at that slot
+		int[] starts = new int[slotsOfDay + 1];
+		int day = 0;
+		int firstSlot = -1;
+		int emptyDays = 0;
+		for(MeterData meterData : result) {
+			long time = meterData.time.getEpochSecond();
+			// results are ordered by time
+			while(day < numberOfDays && time >= dayEnds[day]) {
+				if(firstSlot < 0) {
+					emptyDays++;
+				} else {
+					starts[firstSlot]++;
+				}
+				day++;
+				firstSlot = -1;
+			}
+			if(day >= numberOfDays) {
+				break;
+			}
+			if(time < dayBegins[day]) {
+				// not a similar day
+				continue;
+			}
+			int slot = (int)((time - dayBegins[day]) / intervalLength);
+			if(slot >= slotsOfDay) {
+				continue;
+			}
+			if(firstSlot < 0) {
+				firstSlot = slot;
+			}
+			sums[slot] += (int)(meterData.totalActivePower * configuration.meterScalar);
+		}
+		for(; day < numberOfDays; day++, firstSlot = -1) {
+			if(firstSlot < 0) {
+				emptyDays++;
+			} else {
+				starts[firstSlot]++;
+			}
+		}
+		if(emptyDays > 0) {
+			log.warning("Empty result set for historical meter data of " + emptyDays + " days. Ignoring them.");
+		}
+		
+		// average
+		int[] wattages = new int[slots];
+		boolean positive = false;
+		int count = 0;
+		for(int slot = 0; slot < slotsOfDay; slot++) {
+			count += starts[slot];
+			if(slot >= firstSlotOfDay) {
+				int wattage = (count == 0) ? 0 : (int)(sums[slot] / count);
+				wattages[slot - firstSlotOfDay] = wattage;
+				positive |= wattage > 0;
+			}
+		}
+		return positive ? wattages : null;
+	}
+	
+	/**
+	 * Returns a forecast from the day type profiles, which are updated first if there are new complete days.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return wattage for each slot in [from, to) or <i>null</i> if a slot has no value yet
+	 */
+	private synchronized int[] getProfileWattages(ZonedDateTime from, ZonedDateTime to) {
+		updateProfiles();
+		
+		int[] wattages = new int[getSlotCount(from, to)];
+		if(false == profiles.fill(from.toEpochSecond(), from.getZone().getRules(), wattages)) {
+			return null;
+		}
+		return wattages;
+	}
+	
+	/**
+	 * Adds all complete days since the latest update to the day type profiles and stores them. 
+	 * Initially the days of the last $numberOfDays weeks are added. Slots without data are not changed.
+	 */
+	private synchronized void updateProfiles() {
+		ZonedDateTime today = timeService.nowAsZonedDateTime().truncatedTo(ChronoUnit.DAYS);
+		ZonedDateTime first = today.minusWeeks(Math.max(1, configuration.numberOfDays));
+		if(profiles.latestDay > 0) {
+			ZonedDateTime next = Instant.ofEpochSecond(profiles.latestDay).atZone(today.getZone()).truncatedTo(ChronoUnit.DAYS).plusDays(1);
+			if(next.isAfter(first)) {
+				first = next;
+			}
+		}
+		if(false == first.isBefore(today)) {
+			// up to date
+			return;
+		}
+		
+		log.fine("Updating day type profiles from " + first + " to " + today + ".");
+		String table = configuration.sourceUUID + "_" + MeterData.class.getAnnotation(TimeSeries.class).name();
+		List<MeterData> result;
 		try {
-			result = timeSeriesStorageService.select("time < " + end.toEpochSecond() + "s" + " AND time >= " + begin.toEpochSecond() + "s", 
+			result = timeSeriesStorageService.select("time < " + today.toEpochSecond() + "s" + " AND time >= " + first.toEpochSecond() + "s", 
 					table,
 					MeterData.class,
 					configuration.intervalLength + "s", "MEAN");
 		} catch (Exception e) {
 			log.severe("Retrieving data from database failed.");
 			log.severe(e.toString());
-			return powers;
+			// try again with the next forecast
+			return;
 		}
-    	
-    	for (MeterData meterData : result) {
-    		int secondOfDay = (int)(meterData.time.getEpochSecond() - startSecond);
-    		powers.put(secondOfDay, (int)(meterData.totalActivePower * configuration.meterScalar));
-    		// put a zero to make missing data 0 
-    		powers.put(secondOfDay + configuration.intervalLength, 0);
-		}            	          	            	
-    	return powers;
+		
+		for(MeterData meterData : result) {
+			profiles.add(meterData.time.getEpochSecond(), today.getZone().getRules(), meterData.totalActivePower * configuration.meterScalar);
+		}
+		profiles.latestDay = today.minusDays(1).toEpochSecond();
+		
+		Json.writeFile(configuration.profileFile, profiles);
 	}
 	
 	public static ElectricityDemandForecastingConfiguration getConfiguration() {
@@ -308,14 +396,28 @@ public class ElectricityDemandForecastingService implements ForecastingService {
 	protected synchronized void activate() throws Exception {
 		configuration = configurationService.get(ElectricityDemandForecastingConfiguration.class);
 		
+		// new configuration => new cache
+		cache = new ForecastCache(configuration.cacheSize, configuration.cacheTimeToLive);
+		
 		profile = new StandardLoadProfile();		
 		profile.load(configuration.standardLoadProfile);
 		
+		if(configuration.forecastingMethod == ForecastingMethod.DayTypeProfile) {
+			profiles = Json.readFile(configuration.profileFile, DayTypeProfiles.class);
+			if(null == profiles || false == profiles.matches(configuration.sourceUUID, configuration.intervalLength)) {
+				log.info("Creating new day type profiles.");
+				profiles = new DayTypeProfiles(configuration.sourceUUID, configuration.intervalLength, configuration.numberOfDays);
+			}
+			profiles.window = Math.max(1, configuration.numberOfDays);
+		}
+		
 		// DEBUG:
 		getForecast(ZonedDateTime.parse("2018-08-03T00:00:00+02:00"), ZonedDateTime.parse("2018-08-04T00:00:00+02:00"), ElectricityDemandForecast.class, null);
 	}
 
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
+		log.info("Forecast cache hits: " + cache.getHits() + ", misses: " + cache.getMisses() + ".");
+		cache.invalidate();
 	}
 }
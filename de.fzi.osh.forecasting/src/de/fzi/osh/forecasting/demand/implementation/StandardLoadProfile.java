@@ -5,8 +5,11 @@ import java.io.FileReader;
 import java.sql.Timestamp;
 import java.time.DayOfWeek;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
@@ -14,6 +17,9 @@ import java.util.logging.Logger;
 /**
  * Provides a standard load profile which is loaded from a csv file
  * 
+ * For lookups the profile is compiled once per year into a table holding the values of each day of the year.
+ * Times are converted to the local time of the system's time zone, i.e. on days with 23 or 25 hours the values of the local hours are used.
+ * 
  * @author K. Foerderer
  *
  */
@@ -43,8 +49,31 @@ public class StandardLoadProfile {
 		public double[][] values;		
 	}
 	
+	/**
+	 * Profile values of each day of a year.
+	 * 
+	 * @author K. Foerderer
+	 *
+	 */
+	private static class CompiledYear {
+		public int year;
+		/**
+		 * Day of year - 1 -> values of the matching partial profile and day type
+		 */
+		public double[][] values;
+		/**
+		 * Day of year - 1 -> slot length in minutes
+		 */
+		public int[] slotLengths;
+	}
+	
 	private List<PartialProfile> parts;
 	
+	/**
+	 * Most recently used compiled year
+	 */
+	private volatile CompiledYear compiled;
+	
 	/**
 	 * Loads the profile from a ";" separated csv file
 	 * 
@@ -116,56 +145,165 @@ public class StandardLoadProfile {
 		} catch (Exception e) {
 			log.severe(e.getMessage());
 		}
+		compiled = null;
 	}
 	
 	/**
-	 * Returns the slp wattage for the given time stamp
+	 * Returns the first partial profile covering the given date or <i>null</i>.
 	 * 
-	 * @param time
+	 * @param month
+	 * @param day
 	 * @return
 	 */
-	public double getWattageForTimestamp(Timestamp time) {
-		
-		// get calendar to determine day
-		ZonedDateTime zonedTime = ZonedDateTime.ofInstant(Instant.ofEpochMilli(time.getTime()), ZoneId.systemDefault());
-
-		// figure out which data to use, depending on the date
-		int day = zonedTime.getDayOfMonth();
-		int month = zonedTime.getMonthValue();		
-		PartialProfile profile = null;
+	private PartialProfile getPart(int month, int day) {
 		for(PartialProfile part : parts) {
 			if(part.endMonth < part.startMonth || (part.endMonth == part.startMonth && part.endDay < part.startDay)) {
 				// different years
 				if( (part.startMonth < month || part.startMonth == month && part.startDay <= day) || (month < part.endMonth || month == part.endMonth && day <= part.endDay) ) {
-					profile = part;
 					// use the first fitting data
-					break;
+					return part;
 				}
 			} else {
 				// same years
 				if((part.startMonth < month || part.startMonth == month && part.startDay <= day) && (month < part.endMonth || month == part.endMonth && day <= part.endDay)) {
-					profile = part;
 					// use the first fitting data
-					break;
+					return part;
 				}
 			}
 		}
+		return null;
+	}
+	
+	/**
+	 * Returns the compiled table of a year. Compiles it if necessary.
+	 * 
+	 * @param year
+	 * @return
+	 */
+	private CompiledYear getCompiledYear(int year) {
+		CompiledYear result = compiled;
+		if(null != result && result.year == year) {
+			return result;
+		}
+		
+		result = new CompiledYear();
+		result.year = year;
+		int days = LocalDate.of(year, 12, 31).getDayOfYear();
+		result.values = new double[days][];
+		result.slotLengths = new int[days];
+		int missing = 0;
+		for(LocalDate date = LocalDate.of(year, 1, 1); date.getYear() == year; date = date.plusDays(1)) {
+			PartialProfile part = getPart(date.getMonthValue(), date.getDayOfMonth());
+			if(null == part) {
+				missing++;
+				continue;
+			}
+			
+			// determine corresponding day type
+			int type;
+			DayOfWeek dayOfWeek = date.getDayOfWeek();
+			if(dayOfWeek == DayOfWeek.SATURDAY) {
+				type = 0;
+			} else if(dayOfWeek == DayOfWeek.SUNDAY) {
+				type = 1;
+			} else {
+				type = 2;
+			}
+			result.values[date.getDayOfYear() - 1] = part.values[type];
+			result.slotLengths[date.getDayOfYear() - 1] = part.slotLength;
+		}
+		if(missing > 0) {
+			log.warning("Standard load profile does not cover " + missing + " days of " + year + ". Using 0.");
+		}
 		
-		// determine corresponding value		
-		DayOfWeek dayOfWeek = zonedTime.getDayOfWeek();
-		if(dayOfWeek == DayOfWeek.SATURDAY) {
-			day = 0;
-		} else if(dayOfWeek == DayOfWeek.SUNDAY) {
-			day = 1;
-		} else {
-			day = 2;
+		compiled = result;
+		return result;
+	}
+	
+	/**
+	 * Returns the slp wattage for the given time stamp
+	 * 
+	 * @param time
+	 * @return
+	 */
+	public double getWattageForTimestamp(Timestamp time) {
+		
+		// get calendar to determine day
+		ZonedDateTime zonedTime = ZonedDateTime.ofInstant(Instant.ofEpochMilli(time.getTime()), ZoneId.systemDefault());
+		
+		CompiledYear year = getCompiledYear(zonedTime.getYear());
+		double[] values = year.values[zonedTime.getDayOfYear() - 1];
+		if(null == values) {
+			return 0;
 		}
 		
-		int hour = zonedTime.getHour();
-		int minute = zonedTime.getMinute();
+		int totalMinutes = zonedTime.getHour() * 60 + zonedTime.getMinute();
+		return values[totalMinutes / year.slotLengths[zonedTime.getDayOfYear() - 1]];	
+	}
+	
+	/**
+	 * Writes the slp wattages of consecutive slots into an array.
+	 * 
+	 * @param from epoch second of the begin of the first slot
+	 * @param to epoch second of the end of the last slot
+	 * @param slotLength in seconds
+	 * @param out receives one value per slot, has to be large enough
+	 * @return number of slots written
+	 */
+	public int fill(long from, long to, int slotLength, int[] out) {
+		return fill(from, to, slotLength, 1, out);
+	}
+	
+	/**
+	 * Writes the slp wattages of consecutive slots multiplied with the given value into an array.
+	 * 
+	 * The values of a day are looked up in the compiled table, the time zone offset is only recomputed at transitions. Hence no objects are created per slot.
+	 * 
+	 * @param from epoch second of the begin of the first slot
+	 * @param to epoch second of the end of the last slot
+	 * @param slotLength in seconds
+	 * @param multiplier
+	 * @param out receives one value per slot, has to be large enough
+	 * @return number of slots written
+	 */
+	public int fill(long from, long to, int slotLength, double multiplier, int[] out) {
+		ZoneRules rules = ZoneId.systemDefault().getRules();
 		
-		int totalMinutes = hour * 60 + minute;
-		return profile.values[day][totalMinutes / profile.slotLength];	
+		// time zone offset and the epoch second it changes
+		int offset = 0;
+		long nextTransition = Long.MIN_VALUE;
+		// current local day
+		long epochDay = Long.MIN_VALUE;
+		double[] values = null;
+		int valueLength = 1;
+		
+		int slots = (int)((to - from + slotLength - 1) / slotLength);
+		long time = from;
+		for(int i = 0; i < slots; i++, time += slotLength) {
+			if(time >= nextTransition) {
+				Instant instant = Instant.ofEpochSecond(time);
+				offset = rules.getOffset(instant).getTotalSeconds();
+				ZoneOffsetTransition transition = rules.nextTransition(instant);
+				nextTransition = (null == transition) ? Long.MAX_VALUE : transition.toEpochSecond();
+			}
+			long localSecond = time + offset;
+			long day = Math.floorDiv(localSecond, 24 * 60 * 60);
+			if(day != epochDay) {
+				// next day
+				epochDay = day;
+				LocalDate date = LocalDate.ofEpochDay(day);
+				CompiledYear year = getCompiledYear(date.getYear());
+				values = year.values[date.getDayOfYear() - 1];
+				valueLength = year.slotLengths[date.getDayOfYear() - 1] * 60;
+			}
+			if(null == values) {
+				out[i] = 0;
+			} else {
+				int secondOfDay = (int)(localSecond - day * 24 * 60 * 60);
+				out[i] = (int)Math.round(multiplier * values[secondOfDay / valueLength]);
+			}
+		}
+		return slots;
 	}
 	
 }
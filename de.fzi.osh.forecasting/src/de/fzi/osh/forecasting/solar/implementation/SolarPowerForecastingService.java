@@ -23,6 +23,7 @@ import de.fzi.osh.data.logging.types.MeterData;
 import de.fzi.osh.data.storage.timeseries.TimeSeriesStorageService;
 import de.fzi.osh.data.storage.timeseries.TimeSeries;
 import de.fzi.osh.forecasting.Forecast;
+import de.fzi.osh.forecasting.ForecastCache;
 import de.fzi.osh.forecasting.ForecastingService;
 import de.fzi.osh.forecasting.configuration.SolarPowerForecastingConfiguration;
 import de.fzi.osh.forecasting.solar.SolarPowerForecast;
@@ -49,6 +50,8 @@ public class SolarPowerForecastingService implements ForecastingService{
 	private static SolarPowerForecastingConfiguration configuration;	
 	private static TimeService timeService;
 	
+	private ForecastCache cache;
+	
 	public static SolarPowerForecastingConfiguration getConfiguration() {
 		return configuration;
 	}
@@ -83,64 +86,14 @@ public class SolarPowerForecastingService implements ForecastingService{
 				pv.forecastEnd = new Timestamp(to.toInstant().toEpochMilli());
 				pv.timeSlotLength = configuration.intervalLength;
 				
-				// do database request
-				ZonedDateTime yesterdayEnd = timeService.nowAsZonedDateTime().truncatedTo(ChronoUnit.DAYS);
-				ZonedDateTime yesterdayBegin = yesterdayEnd.minusDays(1);
-				String table = uuid + "_" + MeterData.class.getAnnotation(TimeSeries.class).name();            
-            	
-            	// mapping for data association
-            	// second of day -> power
-            	NavigableMap<Integer, Integer> powers = new TreeMap<Integer, Integer>();
-            	long startOfDay = yesterdayBegin.toEpochSecond();
-            	
-            	
-            	//retrieve historic data from time series store
-            	List<MeterData> result = timeSeriesStorageService.select("time < " + yesterdayEnd.toEpochSecond() + "s" + " AND time >= " + yesterdayBegin.toEpochSecond() + "s", 
-						table,
-						MeterData.class,
-						configuration.intervalLength + "s", "MEAN");
-            	
-            	for (MeterData meterData : result) {
-            		int secondOfDay = (int)(meterData.time.getEpochSecond() - startOfDay);
-            		powers.put(secondOfDay, (int)(meterData.totalActivePower * configuration.scalar));
-            		// put a zero to make missing data 0 
-            		powers.put(secondOfDay + configuration.intervalLength, 0);
-				}            	            	            	
-            	
-            	if(powers.size() == 0) {
-            		log.warning("Empty result set for historical meter data. Assuming 0.");
-            	}
-            	
-            	// now use the mapping to create a forecast
-            	startOfDay = from.truncatedTo(ChronoUnit.DAYS).toEpochSecond();
-            	long currentSecond = from.toEpochSecond();    
-            	int missingData = 0;
-            	while(currentSecond < to.toEpochSecond()) {
-            		int secondOfDay = (int)(currentSecond - startOfDay);
-            		
-            		// if the forecast period extends to the following day
-            		if(secondOfDay >= 25 * 60 * 60) { // daylight savings [!]
-            			// 25 since at night pv equals 0, so no need to take be get the exact second of day
-            			startOfDay = Instant.ofEpochSecond(startOfDay).atZone(ZoneId.systemDefault()).plusDays(1).toEpochSecond();
-            			secondOfDay = (int)(currentSecond - startOfDay);
-            		}
-            		
-            		Integer key = powers.floorKey(secondOfDay);
-            		if(powers.size() == 0) {
-            			pv.addWattage(0);
-            		} else if(key == null) {
-            			missingData++;
-            			pv.addWattage(0);
-            		} else {
-            			pv.addWattage(powers.get(key));
-            		}            		
-            		currentSecond += configuration.intervalLength;
-            	}
-            	
-            	if(missingData > 0) {
-        			log.warning("No floor value found for " + missingData + " values. Added 0s to forecast.");
-            	}
-            	
+				// whole days are computed and cached, the requested time frame is sliced out of them
+				long now = timeService.now();
+				long day = timeService.nowAsZonedDateTime().truncatedTo(ChronoUnit.DAYS).toEpochSecond();
+				pv.setWattages(cache.getWattages(clazz, uuid, from, to, configuration.intervalLength, now, day, (begin, end) -> {
+					log.fine("Computing forecast (cache hits: " + cache.getHits() + ", misses: " + cache.getMisses() + ").");
+					return getWattages(begin, end, uuid);
+				}));
+				
 				return clazz.cast(pv);	
 			}
 		} catch(Exception e) {
@@ -151,6 +104,77 @@ public class SolarPowerForecastingService implements ForecastingService{
 		return null;
 	}
 	
+	/**
+	 * Computes the wattages of a forecast from the data of yesterday.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param uuid data source
+	 * @return wattage for each slot in [from, to)
+	 * @throws Exception
+	 */
+	private int[] getWattages(ZonedDateTime from, ZonedDateTime to, UUID uuid) throws Exception {
+		// do database request
+		ZonedDateTime yesterdayEnd = timeService.nowAsZonedDateTime().truncatedTo(ChronoUnit.DAYS);
+		ZonedDateTime yesterdayBegin = yesterdayEnd.minusDays(1);
+		String table = uuid + "_" + MeterData.class.getAnnotation(TimeSeries.class).name();
+		
+		// mapping for data association
+		// second of day -> power
+		NavigableMap<Integer, Integer> powers = new TreeMap<Integer, Integer>();
+		long startOfDay = yesterdayBegin.toEpochSecond();
+		
+		
+		//retrieve historic data from time series store
+		List<MeterData> result = timeSeriesStorageService.select("time < " + yesterdayEnd.toEpochSecond() + "s" + " AND time >= " + yesterdayBegin.toEpochSecond() + "s",
+				table,
+				MeterData.class,
+				configuration.intervalLength + "s", "MEAN");
+		
+		for (MeterData meterData : result) {
+			int secondOfDay = (int)(meterData.time.getEpochSecond() - startOfDay);
+			powers.put(secondOfDay, (int)(meterData.totalActivePower * configuration.scalar));
+			// put a zero to make missing data 0
+			powers.put(secondOfDay + configuration.intervalLength, 0);
+		}
+		
+		if(powers.size() == 0) {
+			log.warning("Empty result set for historical meter data. Assuming 0.");
+		}
+		
+		// now use the mapping to create a forecast
+		startOfDay = from.truncatedTo(ChronoUnit.DAYS).toEpochSecond();
+		long currentSecond = from.toEpochSecond();
+		int missingData = 0;
+		int[] wattages = new int[(int)((to.toEpochSecond() - currentSecond + configuration.intervalLength - 1) / configuration.intervalLength)];
+		for(int i = 0; i < wattages.length; i++) {
+			int secondOfDay = (int)(currentSecond - startOfDay);
+			
+			// if the forecast period extends to the following day
+			if(secondOfDay >= 25 * 60 * 60) { // daylight savings [!]
+				// 25 since at night pv equals 0, so no need to take be get the exact second of day
+				startOfDay = Instant.ofEpochSecond(startOfDay).atZone(ZoneId.systemDefault()).plusDays(1).toEpochSecond();
+				secondOfDay = (int)(currentSecond - startOfDay);
+			}
+			
+			Integer key = powers.floorKey(secondOfDay);
+			if(powers.size() == 0) {
+				wattages[i] = 0;
+			} else if(key == null) {
+				missingData++;
+				wattages[i] = 0;
+			} else {
+				wattages[i] = powers.get(key);
+			}
+			currentSecond += configuration.intervalLength;
+		}
+		if(missingData > 0) {
+			log.warning("No floor value found for " + missingData + " values. Added 0s to forecast.");
+		}
+		
+		return wattages;
+	}
+	
 	@Reference(
 			name = "ConfigurationService",
 			service = ConfigurationService.class,
@@ -197,6 +221,9 @@ public class SolarPowerForecastingService implements ForecastingService{
 	protected synchronized void activate() throws Exception {
 		configuration = configurationService.get(SolarPowerForecastingConfiguration.class);
 		
+		// new configuration => new cache
+		cache = new ForecastCache(configuration.cacheSize, configuration.cacheTimeToLive);
+		
 		/*
 		ZonedDateTime now = ZonedDateTime.now();
 		ZonedDateTime tomorrow = ZonedDateTime.of(now.getYear(), now.getMonthValue(), now.getDayOfMonth(), 0, 0, 0, 0, ZoneId.systemDefault()).plusDays(1);
@@ -205,5 +232,7 @@ public class SolarPowerForecastingService implements ForecastingService{
 
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
+		log.info("Forecast cache hits: " + cache.getHits() + ", misses: " + cache.getMisses() + ".");
+		cache.invalidate();
 	}	
 }
@@ -0,0 +1,296 @@
+package de.fzi.osh.optimization.lp;
+
+import java.util.Arrays;
+
+/**
+ * A sparse linear program of the form
+ *
+ * 	min c'x  s.t.  l <= Ax <= u,  lb <= x <= ub
+ *
+ * solved by a diagonally preconditioned primal-dual hybrid gradient method (Chambolle & Pock). The method only needs sparse matrix-vector products,
+ * hence memory grows with the number of non-zeros. It can be stopped at any time and warm started from a previous primal/dual pair.
+ *
+ * Results are approximate (up to the given tolerance), callers have to make sure the solution is feasible for their purpose.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class LinearProgram {
+
+	public static final double INFINITY = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Iterations between two convergence checks
+	 */
+	private static final int CHECK_INTERVAL = 64;
+
+	private int variables = 0;
+	private double[] cost = new double[16];
+	private double[] lower = new double[16];
+	private double[] upper = new double[16];
+
+	private int rows = 0;
+	private double[] rowLower = new double[16];
+	private double[] rowUpper = new double[16];
+	/**
+	 * CSR layout: row i uses entries [rowStart[i], rowStart[i+1])
+	 */
+	private int[] rowStart = new int[17];
+	private int[] columns = new int[64];
+	private double[] values = new double[64];
+
+	/**
+	 * Adds a variable.
+	 *
+	 * @param cost objective coefficient
+	 * @param lower lower bound, may be -INFINITY
+	 * @param upper upper bound, may be INFINITY
+	 * @return index of the variable
+	 */
+	public int addVariable(double cost, double lower, double upper) {
+		if(variables == this.cost.length) {
+			this.cost = Arrays.copyOf(this.cost, variables * 2);
+			this.lower = Arrays.copyOf(this.lower, variables * 2);
+			this.upper = Arrays.copyOf(this.upper, variables * 2);
+		}
+		this.cost[variables] = cost;
+		this.lower[variables] = lower;
+		this.upper[variables] = upper;
+		return variables++;
+	}
+
+	/**
+	 * Adds a constraint lower <= sum(values[k] * x[columns[k]]) <= upper.
+	 *
+	 * @param lower may be -INFINITY
+	 * @param upper may be INFINITY
+	 * @param columns
+	 * @param values
+	 * @return index of the row
+	 */
+	public int addRow(double lower, double upper, int[] columns, double[] values) {
+		return addRow(lower, upper, columns, values, columns.length);
+	}
+
+	/**
+	 * Adds a constraint using the first $length entries of the given arrays.
+	 *
+	 * @param lower
+	 * @param upper
+	 * @param columns
+	 * @param values
+	 * @param length
+	 * @return
+	 */
+	public int addRow(double lower, double upper, int[] columns, double[] values, int length) {
+		if(rows == rowLower.length) {
+			rowLower = Arrays.copyOf(rowLower, rows * 2);
+			rowUpper = Arrays.copyOf(rowUpper, rows * 2);
+			rowStart = Arrays.copyOf(rowStart, rows * 2 + 1);
+		}
+		int start = rowStart[rows];
+		while(start + length > this.columns.length) {
+			this.columns = Arrays.copyOf(this.columns, this.columns.length * 2);
+			this.values = Arrays.copyOf(this.values, this.values.length * 2);
+		}
+		for(int k = 0; k < length; k++) {
+			if(columns[k] < 0 || columns[k] >= variables) {
+				throw new IllegalArgumentException("Unknown variable " + columns[k]);
+			}
+		}
+		System.arraycopy(columns, 0, this.columns, start, length);
+		System.arraycopy(values, 0, this.values, start, length);
+		rowLower[rows] = lower;
+		rowUpper[rows] = upper;
+		rowStart[rows + 1] = start + length;
+		return rows++;
+	}
+
+	/**
+	 * Returns the number of variables.
+	 *
+	 * @return
+	 */
+	public int getVariableCount() {
+		return variables;
+	}
+
+	/**
+	 * Returns the number of constraints.
+	 *
+	 * @return
+	 */
+	public int getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * Solves the program.
+	 *
+	 * @param timeBudget maximum computation time in ms
+	 * @param tolerance stopping tolerance for relative primal infeasibility and iterate change
+	 * @param primal initial primal values or <i>null</i>. Values are clamped to the bounds.
+	 * @param dual initial dual values or <i>null</i>. Ignored if the length does not match the row count.
+	 * @return
+	 */
+	public Result solve(long timeBudget, double tolerance, double[] primal, double[] dual) {
+		long deadline = System.nanoTime() + timeBudget * 1000000;
+		int n = variables;
+		int m = rows;
+
+		// diagonal preconditioning: tau_j = 1 / sum_i |a_ij|, sigma_i = 1 / sum_j |a_ij|
+		double[] tau = new double[n];
+		double[] sigma = new double[m];
+		for(int i = 0; i < m; i++) {
+			for(int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				double a = Math.abs(values[k]);
+				sigma[i] += a;
+				tau[columns[k]] += a;
+			}
+		}
+		for(int i = 0; i < m; i++) {
+			sigma[i] = sigma[i] > 0 ? 1 / sigma[i] : 1;
+		}
+		for(int j = 0; j < n; j++) {
+			tau[j] = tau[j] > 0 ? 1 / tau[j] : 1;
+		}
+
+		double[] x = new double[n];
+		for(int j = 0; j < n; j++) {
+			double value = (null != primal && j < primal.length) ? primal[j] : 0;
+			x[j] = clamp(value, lower[j], upper[j]);
+		}
+		double[] y = (null != dual && dual.length == m) ? Arrays.copyOf(dual, m) : new double[m];
+
+		double[] ax = multiply(x, new double[m]);
+		double[] aty = new double[n];
+		double[] xNext = new double[n];
+		double[] axNext = new double[m];
+
+		Result result = new Result();
+		while(true) {
+			// primal step
+			multiplyTransposed(y, aty);
+			double change = 0;
+			double norm = 0;
+			for(int j = 0; j < n; j++) {
+				xNext[j] = clamp(x[j] - tau[j] * (cost[j] + aty[j]), lower[j], upper[j]);
+				change = Math.max(change, Math.abs(xNext[j] - x[j]));
+				norm = Math.max(norm, Math.abs(xNext[j]));
+			}
+			multiply(xNext, axNext);
+
+			// dual step using the extrapolated point 2 * xNext - x
+			for(int i = 0; i < m; i++) {
+				double v = y[i] + sigma[i] * (2 * axNext[i] - ax[i]);
+				y[i] = v - sigma[i] * clamp(v / sigma[i], rowLower[i], rowUpper[i]);
+			}
+
+			double[] swap = x;
+			x = xNext;
+			xNext = swap;
+			swap = ax;
+			ax = axNext;
+			axNext = swap;
+			result.iterations++;
+
+			if(result.iterations % CHECK_INTERVAL == 0) {
+				if(change <= tolerance * (1 + norm) && infeasibility(ax) <= tolerance) {
+					result.converged = true;
+					break;
+				}
+				if(System.nanoTime() > deadline) {
+					break;
+				}
+			}
+		}
+
+		result.primal = x;
+		result.dual = y;
+		for(int j = 0; j < n; j++) {
+			result.objective += cost[j] * x[j];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the largest relative constraint violation.
+	 *
+	 * @param ax
+	 * @return
+	 */
+	private double infeasibility(double[] ax) {
+		double result = 0;
+		for(int i = 0; i < rows; i++) {
+			double violation = Math.max(rowLower[i] - ax[i], ax[i] - rowUpper[i]);
+			if(violation > 0) {
+				double scale = 1 + Math.min(Math.abs(ax[i]), Math.max(Math.abs(rowLower[i] == -INFINITY ? 0 : rowLower[i]), Math.abs(rowUpper[i] == INFINITY ? 0 : rowUpper[i])));
+				result = Math.max(result, violation / scale);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * result = A x
+	 */
+	private double[] multiply(double[] x, double[] result) {
+		for(int i = 0; i < rows; i++) {
+			double sum = 0;
+			for(int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				sum += values[k] * x[columns[k]];
+			}
+			result[i] = sum;
+		}
+		return result;
+	}
+
+	/**
+	 * result = A' y
+	 */
+	private double[] multiplyTransposed(double[] y, double[] result) {
+		Arrays.fill(result, 0);
+		for(int i = 0; i < rows; i++) {
+			double value = y[i];
+			if(value != 0) {
+				for(int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+					result[columns[k]] += values[k] * value;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static double clamp(double value, double lower, double upper) {
+		return value < lower ? lower : (value > upper ? upper : value);
+	}
+
+	/**
+	 * Result of a solver run.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	public static class Result {
+		/**
+		 * Variable values
+		 */
+		public double[] primal;
+		/**
+		 * Constraint multipliers. Can be used for warm starting.
+		 */
+		public double[] dual;
+		/**
+		 * Objective value of $primal
+		 */
+		public double objective;
+		/**
+		 * Number of iterations performed
+		 */
+		public int iterations;
+		/**
+		 * <i>false</i> if the time budget has been exhausted before reaching the tolerance
+		 */
+		public boolean converged;
+	}
+}
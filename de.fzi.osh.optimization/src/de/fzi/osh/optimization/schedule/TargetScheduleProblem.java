@@ -43,6 +43,11 @@ public class TargetScheduleProblem extends Problem{
 	 * device -> tasks & offered flexibilities
 	 */
 	public Map<UUID, ScheduleData> schedules;
+	/**
+	 * Solution of a previous run or <i>null</i>. If set, only the devices in $schedules are optimized (incremental optimization). 
+	 * For all other devices the tasks are kept and their consumption is taken from this solution.
+	 */
+	public TargetScheduleSolution previousSolution;
 	/**
 	 * Target schedule.
 	 */
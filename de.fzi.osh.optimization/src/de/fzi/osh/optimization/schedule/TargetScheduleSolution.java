@@ -31,6 +31,23 @@ public class TargetScheduleSolution extends Solution {
 	public int expectedMaximumDeviation;
 	/**
 	 * A collection of tasks to execute for each device. Only starting the fields: flexibilityId, startingTime and power hold data. 
+	 * For incremental optimizations only re-optimized devices are contained.
 	 */
 	public Map<UUID, Task[]> tasks;
+	/**
+	 * Begin of slot 0 of $total and $contributions.
+	 */
+	public long currentSlotBegin;
+	/**
+	 * Time slot length in seconds.
+	 */
+	public int slotLength;
+	/**
+	 * Expected consumption in Wh per slot including all tasks. Consumption > 0, Feed In < 0.
+	 */
+	public int[] total;
+	/**
+	 * Consumption in Wh per slot caused by the tasks of each device. 
+	 */
+	public Map<UUID, int[]> contributions;
 }
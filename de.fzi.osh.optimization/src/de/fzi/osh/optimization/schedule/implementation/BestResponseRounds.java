@@ -0,0 +1,147 @@
+package de.fzi.osh.optimization.schedule.implementation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+import de.fzi.osh.optimization.schedule.ScheduleData;
+import de.fzi.osh.types.flexibilities.Task;
+
+/**
+ * Optimizes devices independently of each other in best response rounds.
+ *
+ * In each round all devices are optimized in parallel against a snapshot of the residual load of the previous round.
+ * Every device is asked to cover its own previous contribution plus an equal share of the remaining deviation from the target.
+ * Results are merged in UUID order after all devices have finished. Since devices only see the snapshot, the result does not depend
+ * on the number of threads or their timing.
+ *
+ * @author K. Foerderer
+ *
+ */
+class BestResponseRounds {
+
+	private static Logger log = Logger.getLogger(BestResponseRounds.class.getName());
+
+	/**
+	 * Optimization of a single device.
+	 */
+	interface DeviceOptimizer {
+		/**
+		 * Optimizes the flexibilities of a device and adds the resulting energy per slot to $total.
+		 *
+		 * @param scheduleData
+		 * @param total [Wh] per slot
+		 * @return tasks of the device
+		 */
+		Task[] optimize(ScheduleData scheduleData, int[] total);
+	}
+
+	/**
+	 * Runs the rounds. Stops early if no device changes its contribution or the deadline has passed.
+	 *
+	 * @param pool
+	 * @param schedules
+	 * @param total [Wh] per slot without flexibilities. Contains the resulting totals afterwards.
+	 * @param target [Wh] per slot, aligned with $total
+	 * @param rounds maximum number of rounds
+	 * @param deadline epoch ms, rounds started after this time are skipped
+	 * @param contributions receives the consumption per slot [Wh] of each device
+	 * @param optimizer
+	 * @return
+	 */
+	static Map<UUID, Task[]> solve(ForkJoinPool pool, Map<UUID, ScheduleData> schedules, int[] total, int[] target, int rounds, long deadline, Map<UUID, int[]> contributions,
+			DeviceOptimizer optimizer) {
+		UUID[] devices = schedules.keySet().toArray(new UUID[schedules.size()]);
+		Arrays.sort(devices);
+
+		int[] base = Arrays.copyOf(total, total.length);
+		int[][] deviceContributions = new int[devices.length][total.length];
+		Task[][] tasks = new Task[devices.length][];
+		// devices sharing the deviation
+		int active = Math.max(1, devices.length);
+
+		int round = 0;
+		while(round < rounds) {
+			int[] snapshot = Arrays.copyOf(total, total.length);
+			int share = active;
+
+			List<RecursiveAction> actions = new ArrayList<RecursiveAction>();
+			int[][] results = new int[devices.length][];
+			Task[][] resultTasks = new Task[devices.length][];
+			for(int i = 0; i < devices.length; i++) {
+				final int device = i;
+				actions.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						// residual as seen by the device such that covering it equals the device's share
+						int[] contribution = deviceContributions[device];
+						int[] view = new int[snapshot.length];
+						for(int s = 0; s < view.length; s++) {
+							view[s] = target[s] - contribution[s] - (target[s] - snapshot[s]) / share;
+						}
+						int[] before = Arrays.copyOf(view, view.length);
+
+						resultTasks[device] = optimizer.optimize(schedules.get(devices[device]), view);
+
+						for(int s = 0; s < view.length; s++) {
+							view[s] -= before[s];
+						}
+						results[device] = view;
+					}
+				});
+			}
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(actions);
+				}
+			});
+
+			// merge
+			boolean changed = false;
+			active = 0;
+			System.arraycopy(base, 0, total, 0, total.length);
+			for(int i = 0; i < devices.length; i++) {
+				if(false == Arrays.equals(deviceContributions[i], results[i])) {
+					changed = true;
+				}
+				deviceContributions[i] = results[i];
+				tasks[i] = resultTasks[i];
+				if(tasks[i].length > 0) {
+					active++;
+				}
+				for(int s = 0; s < total.length; s++) {
+					total[s] += results[i][s];
+				}
+			}
+			active = Math.max(1, active);
+			round++;
+
+			if(false == changed) {
+				break;
+			}
+			if(System.currentTimeMillis() > deadline) {
+				log.warning("Optimization deadline reached after " + round + " rounds.");
+				break;
+			}
+		}
+		log.fine("Finished " + round + " best response rounds for " + devices.length + " devices.");
+
+		Map<UUID, Task[]> solution = new HashMap<UUID, Task[]>();
+		for(int i = 0; i < devices.length; i++) {
+			solution.put(devices[i], null == tasks[i] ? new Task[0] : tasks[i]);
+			contributions.put(devices[i], deviceContributions[i]);
+		}
+		return solution;
+	}
+}
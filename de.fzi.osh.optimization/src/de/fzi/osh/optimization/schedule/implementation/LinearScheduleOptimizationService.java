@@ -0,0 +1,613 @@
+package de.fzi.osh.optimization.schedule.implementation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+
+import de.fzi.osh.com.fms.PublicSchedule;
+import de.fzi.osh.optimization.OptimizationService;
+import de.fzi.osh.optimization.Problem;
+import de.fzi.osh.optimization.Solution;
+import de.fzi.osh.optimization.lp.LinearProgram;
+import de.fzi.osh.optimization.schedule.ScheduleData;
+import de.fzi.osh.optimization.schedule.SchedulingProblem;
+import de.fzi.osh.optimization.schedule.SchedulingSolution;
+import de.fzi.osh.optimization.schedule.TargetScheduleProblem;
+import de.fzi.osh.optimization.schedule.TargetScheduleSolution;
+import de.fzi.osh.time.TimeService;
+import de.fzi.osh.types.flexibilities.CompiledFlexibility;
+import de.fzi.osh.types.flexibilities.Flexibility;
+import de.fzi.osh.types.flexibilities.Task;
+
+/**
+ * Service solving scheduling and target schedule problems as one linear program over all flexibilities.
+ *
+ * Each flexibility is split into segments at slot borders and corridor breakpoints with one power variable per segment.
+ * 	- power corridor -> variable bounds
+ * 	- energy corridor (incl. adaption buffer) -> bounds on the cumulated energy
+ * 	- minimize sum of absolute slot deviations from target (0 for self consumption) + variationWeight * sum of absolute power changes
+ *
+ * The program is solved approximately within a time budget and warm started from the previous solution.
+ * The result is then clamped to the corridors, so tasks are valid even if the solver did not converge.
+ *
+ * Disabled by default, such that the greedy optimizers stay in use. To use it, enable the component and set it as
+ * preferredOptimizationService of the scheduler.
+ *
+ * @author K. Foerderer
+ *
+ */
+@Component(enabled=false, service=OptimizationService.class, property={"timeBudget:Integer=2000", "variationWeight:Double=0.01", "tolerance:Double=1.0E-4"})
+public class LinearScheduleOptimizationService implements OptimizationService {
+
+	private static Logger log = Logger.getLogger(LinearScheduleOptimizationService.class.getName());
+
+	private TimeService timeService;
+
+	/**
+	 * Maximum solving time in ms
+	 */
+	private long timeBudget = 2000;
+	/**
+	 * Objective weight of power changes [1/kW] relative to slot deviations [1/kWh]
+	 */
+	private double variationWeight = 0.01;
+	/**
+	 * Solver tolerance
+	 */
+	private double tolerance = 1e-4;
+
+	/**
+	 * Power [kW] of the last solution for warm starting: device/flexibility/segment start -> power
+	 */
+	private Map<String, Double> previousPower = new HashMap<String, Double>();
+	/**
+	 * Variable keys and duals of the last program. Duals are reused if the program layout did not change.
+	 */
+	private List<String> previousLayout = new ArrayList<String>();
+	private double[] previousDual;
+
+	@Activate
+	protected synchronized void activate(Map<String, ?> properties) {
+		Object value = properties.get("timeBudget");
+		if(value instanceof Number) {
+			timeBudget = ((Number)value).longValue();
+		}
+		value = properties.get("variationWeight");
+		if(value instanceof Number) {
+			variationWeight = ((Number)value).doubleValue();
+		}
+		value = properties.get("tolerance");
+		if(value instanceof Number) {
+			tolerance = ((Number)value).doubleValue();
+		}
+	}
+
+	@Override
+	public Map<Class<?>, Class<?>[]> getCapabilities() {
+		// create mapping
+		Map<Class<?>, Class<?>[]> capabilities = new HashMap<Class<?>, Class<?>[]>();
+		capabilities.put(SchedulingProblem.class, new Class<?>[] {SchedulingSolution.class});
+		capabilities.put(TargetScheduleProblem.class, new Class<?>[] {TargetScheduleSolution.class});
+
+		return capabilities;
+	}
+
+	@Override
+	public boolean canSolve(Class<? extends Problem> problem, Class<? extends Solution> solution) {
+		return 	(problem.equals(SchedulingProblem.class) && solution.equals(SchedulingSolution.class)) ||
+				(problem.equals(TargetScheduleProblem.class) && solution.equals(TargetScheduleSolution.class));
+	}
+
+	@Override
+	public <P extends Problem, S extends Solution> S solve(P problem, Class<P> problemClass, Class<S> solutionClass) {
+		if(!canSolve(problemClass, solutionClass)) {
+			log.warning("Problem- and/or solution-class not supported.");
+			return null;
+		}
+		if(problemClass.equals(SchedulingProblem.class)) {
+			return solutionClass.cast(solve((SchedulingProblem) problem));
+		}
+		return solutionClass.cast(solve((TargetScheduleProblem) problem));
+	}
+
+	/**
+	 * Optimizes self consumption.
+	 *
+	 * @param schedulingProblem
+	 * @return
+	 */
+	private SchedulingSolution solve(SchedulingProblem schedulingProblem) {
+		log.info("Starting linear schedule optimization.");
+
+		SchedulingSolution solution = new SchedulingSolution();
+		solution.from = schedulingProblem.from;
+		solution.to = schedulingProblem.to;
+		solution.schedule = new PublicSchedule();
+
+		// pre-analysis
+		int[] total = new int[schedulingProblem.electricityDemand.length]; // Wh
+		for(int i = 0; i < total.length; i++) {
+			total[i] = schedulingProblem.electricityProduction[i] + schedulingProblem.electricityDemand[i]; // Consumption > 0; Feed In < 0
+		}
+		// target schedule = 0 => self consumption
+		int[] target = new int[total.length];
+
+		solution.tasks = optimize(schedulingProblem.schedules, schedulingProblem.from, schedulingProblem.from, schedulingProblem.from, schedulingProblem.to,
+				schedulingProblem.slotLength, schedulingProblem.flexibilityAdaptionBuffer, total, target, 0, budget(schedulingProblem.optimizationTimeBuffer),
+				new HashMap<UUID, int[]>());
+
+		solution.schedule.timestamp = timeService.now();
+		solution.schedule.startingTime = schedulingProblem.from;
+		solution.schedule.consumption = new int[total.length];
+		solution.schedule.production = new int[total.length];
+		for(int i = 0; i < total.length; i++) {
+			solution.schedule.consumption[i] = total[i] - schedulingProblem.electricityProduction[i]; // total = demand + production => demand = total - production
+			solution.schedule.production[i] = schedulingProblem.electricityProduction[i]; // negative values
+		}
+		solution.schedule.flexibleConsumption = new int[total.length];
+		solution.schedule.flexibleProduction = new int[total.length];
+		solution.schedule.slotLength = schedulingProblem.slotLength;
+
+		// compute result
+		for(int i = 0; i < total.length; i++) {
+			if(total[i] < 0) {
+				solution.expectedElectricitySold += -total[i];
+			} else {
+				solution.expectedElectricityBought += total[i];
+			}
+		}
+
+		// aggregate flexibilities for publishing
+		solution.flexibility = ScheduleOptimizationService.aggregate(schedulingProblem, solution.tasks, timeService.now());
+
+		log.info("Finished linear schedule optimization.");
+		return solution;
+	}
+
+	/**
+	 * Optimizes target schedule compliance.
+	 *
+	 * @param schedulingProblem
+	 * @return
+	 */
+	private TargetScheduleSolution solve(TargetScheduleProblem schedulingProblem) {
+		log.info("Starting linear target schedule optimization.");
+
+		TargetScheduleSolution solution = new TargetScheduleSolution();
+		solution.from = schedulingProblem.from;
+		solution.to = schedulingProblem.to;
+
+		// pre-analysis
+		int[] total = new int[schedulingProblem.electricityDemand.length];
+		for(int i = 0; i < total.length; i++) {
+			total[i] = schedulingProblem.electricityProduction[i] + schedulingProblem.electricityDemand[i]; // Consumption > 0; Feed In < 0
+		}
+		int targetSlotOffset = (int) (schedulingProblem.currentSlotBegin - schedulingProblem.targetSchedule.startingTime) / schedulingProblem.slotLength;
+
+		// determine target
+		PublicSchedule targetSchedule = schedulingProblem.targetSchedule;
+		int[] target = new int[targetSchedule.consumption.length];
+		for(int i = 0; i < target.length; i++) {
+			target[i] = targetSchedule.consumption[i] + targetSchedule.flexibleConsumption[i] + targetSchedule.production[i] + targetSchedule.flexibleProduction[i];
+		}
+
+		// incremental optimization: consumption of devices that are not re-optimized
+		Map<UUID, int[]> contributions = TargetScheduleOptimizationService.previousContributions(schedulingProblem, total.length);
+		for(int[] contribution : contributions.values()) {
+			for(int i = 0; i < total.length; i++) {
+				total[i] += contribution[i];
+			}
+		}
+
+		solution.tasks = optimize(schedulingProblem.schedules, schedulingProblem.from, schedulingProblem.from + schedulingProblem.optimizationTimeBuffer,
+				schedulingProblem.currentSlotBegin, schedulingProblem.to, schedulingProblem.slotLength, schedulingProblem.flexibilityAdaptionBuffer,
+				total, target, targetSlotOffset, budget(schedulingProblem.optimizationTimeBuffer), contributions);
+		solution.currentSlotBegin = schedulingProblem.currentSlotBegin;
+		solution.slotLength = schedulingProblem.slotLength;
+		solution.total = total;
+		solution.contributions = contributions;
+
+		// compute result
+		for(int i = 0; i < total.length; i++) {
+			// deviation = total - target
+			int deviation = total[i] - (i + targetSlotOffset < target.length ? target[i + targetSlotOffset] : 0);
+			solution.expectedCumulativeDeviation += Math.abs(deviation);
+			if(Math.abs(deviation) > Math.abs(solution.expectedMaximumDeviation)) {
+				solution.expectedMaximumDeviation = deviation;
+			}
+		}
+
+		log.info("Finished linear target schedule optimization.");
+		return solution;
+	}
+
+	/**
+	 * Returns the time budget for solving. The optimization time buffer [s] of the problem is respected if set.
+	 *
+	 * @param optimizationTimeBuffer
+	 * @return
+	 */
+	private long budget(int optimizationTimeBuffer) {
+		if(optimizationTimeBuffer > 0) {
+			return Math.min(timeBudget, optimizationTimeBuffer * 1000L);
+		}
+		return timeBudget;
+	}
+
+	/**
+	 * Determines tasks for all relevant flexibilities and adds their energy to $total.
+	 *
+	 * @param schedules
+	 * @param from optimization start
+	 * @param earliestStart tasks starting before are not changed
+	 * @param currentSlotBegin begin of slot 0 of $total
+	 * @param to
+	 * @param slotLength
+	 * @param flexibilityAdaptionBuffer
+	 * @param total [Wh] per slot
+	 * @param target [Wh] per slot
+	 * @param targetSlotOffset index of slot 0 of $total in $target
+	 * @param budget time budget in ms
+	 * @param contributions receives the consumption per slot [Wh] of each device
+	 * @return
+	 */
+	private synchronized Map<UUID, Task[]> optimize(Map<UUID, ScheduleData> schedules, long from, long earliestStart, long currentSlotBegin, long to, int slotLength,
+			int flexibilityAdaptionBuffer, int[] total, int[] target, int targetSlotOffset, long budget, Map<UUID, int[]> contributions) {
+
+		// collect flexibilities in a fixed order
+		List<Segments> candidates = new ArrayList<Segments>();
+		for(Map.Entry<UUID, ScheduleData> entry : new TreeMap<UUID, ScheduleData>(schedules).entrySet()) {
+			ScheduleData scheduleData = entry.getValue();
+
+			// flexibilities that have been turned into tasks which can still be modified
+			Map<Integer, Task> relevantTasks = new HashMap<Integer, Task>();
+			TreeMap<Integer, Flexibility> relevantFlexibilities = new TreeMap<Integer, Flexibility>();
+			for(Task task : scheduleData.tasks) {
+				if(task.flexibilityId >= 0 && (task.adaptable || task.startingTime >= earliestStart)) {
+					relevantTasks.put(task.id, task);
+					for(Flexibility flexibility : scheduleData.flexibilities) {
+						if(flexibility.id == task.flexibilityId) {
+							relevantFlexibilities.put(task.flexibilityId, flexibility);
+						}
+					}
+				}
+			}
+			// flexibilities without task
+			for(Flexibility flexibility : scheduleData.flexibilities) {
+				if(flexibility.taskId < 0 && flexibility.stoppingTime.max - flexibility.runningTime.min >= earliestStart) {
+					relevantFlexibilities.put(flexibility.id, flexibility);
+				}
+			}
+
+			for(Flexibility flexibility : relevantFlexibilities.values()) {
+				Task task = relevantTasks.get(flexibility.taskId);
+				if(null == task) {
+					// no task, create one
+					log.info("Creating a new task for flexibility " + flexibility.id + ".");
+					task = new Task();
+					task.id = -1; // this task doesn't exist yet
+					task.flexibilityId = flexibility.id;
+					task.adaptable = flexibility.adaptable;
+					if(flexibility.stoppingTime.min - flexibility.runningTime.max < from) { // don't start before $from
+						task.startingTime = from;
+					} else {
+						task.startingTime = flexibility.stoppingTime.min - flexibility.runningTime.max;
+					}
+					task.runningTime = flexibility.runningTime.max;
+				}
+				candidates.add(new Segments(entry.getKey(), flexibility, task, from, currentSlotBegin, to, slotLength, flexibilityAdaptionBuffer));
+			}
+		}
+
+		// set up program
+		LinearProgram program = new LinearProgram();
+		List<String> layout = new ArrayList<String>();
+		List<double[]> slotTerms = new ArrayList<double[]>(); // per slot: {variable, hours, variable, hours, ...}
+		for(int i = 0; i < total.length; i++) {
+			slotTerms.add(new double[0]);
+		}
+		double[] initial = new double[16];
+
+		for(Segments candidate : candidates) {
+			int previousPowerVariable = -1;
+			int previousEnergyVariable = -1;
+			candidate.variables = new int[candidate.size];
+			for(int k = 0; k < candidate.size; k++) {
+				double hours = (candidate.end[k] - candidate.start[k]) / 3600.0;
+
+				// power [kW]
+				String key = candidate.key(k);
+				int power = program.addVariable(0, candidate.powerMin[k] / 1000.0, candidate.powerMax[k] / 1000.0);
+				candidate.variables[k] = power;
+				layout.add(key);
+				initial = set(initial, power, previousPower.getOrDefault(key, 0.0));
+
+				// cumulated energy [kWh]; equals 0 at optimization start
+				double energyMin = candidate.energyMin[k] / 3600000.0;
+				double energyMax = candidate.energyMax[k] / 3600000.0;
+				if(energyMin > energyMax) {
+					// infeasible corridor, left to clamping
+					energyMin = -LinearProgram.INFINITY;
+					energyMax = LinearProgram.INFINITY;
+				}
+				int energy = program.addVariable(0, energyMin, energyMax);
+				layout.add(key + "e");
+				if(previousEnergyVariable < 0) {
+					program.addRow(0, 0, new int[] {energy, power}, new double[] {1, -hours});
+				} else {
+					program.addRow(0, 0, new int[] {energy, previousEnergyVariable, power}, new double[] {1, -1, -hours});
+				}
+
+				// power variation
+				if(previousPowerVariable >= 0 && variationWeight > 0) {
+					int variation = program.addVariable(variationWeight, 0, LinearProgram.INFINITY);
+					layout.add(key + "v");
+					program.addRow(0, LinearProgram.INFINITY, new int[] {variation, power, previousPowerVariable}, new double[] {1, 1, -1});
+					program.addRow(0, LinearProgram.INFINITY, new int[] {variation, power, previousPowerVariable}, new double[] {1, -1, 1});
+				}
+
+				// slot energy
+				int slot = candidate.slot[k];
+				if(slot >= 0 && slot < total.length) {
+					double[] terms = slotTerms.get(slot);
+					terms = Arrays.copyOf(terms, terms.length + 2);
+					terms[terms.length - 2] = power;
+					terms[terms.length - 1] = hours;
+					slotTerms.set(slot, terms);
+				}
+
+				previousPowerVariable = power;
+				previousEnergyVariable = energy;
+			}
+		}
+
+		// absolute slot deviations: u >= +-(target - total - flexible energy)
+		for(int i = 0; i < total.length; i++) {
+			double[] terms = slotTerms.get(i);
+			if(terms.length == 0) {
+				// nothing to optimize in this slot
+				continue;
+			}
+			double residual = ((i + targetSlotOffset < target.length ? target[i + targetSlotOffset] : 0) - total[i]) / 1000.0; // kWh
+			int deviation = program.addVariable(1, 0, LinearProgram.INFINITY);
+			layout.add("slot" + i);
+			int[] columns = new int[terms.length / 2 + 1];
+			double[] plus = new double[columns.length];
+			double[] minus = new double[columns.length];
+			columns[0] = deviation;
+			plus[0] = minus[0] = 1;
+			for(int k = 0; k < terms.length / 2; k++) {
+				columns[k + 1] = (int)terms[2 * k];
+				plus[k + 1] = terms[2 * k + 1];
+				minus[k + 1] = -terms[2 * k + 1];
+			}
+			program.addRow(residual, LinearProgram.INFINITY, columns, plus);
+			program.addRow(-residual, LinearProgram.INFINITY, columns, minus);
+		}
+
+		// solve
+		LinearProgram.Result result = null;
+		if(program.getVariableCount() > 0) {
+			result = program.solve(budget, tolerance, initial, layout.equals(previousLayout) ? previousDual : null);
+			log.fine("Linear program with " + program.getVariableCount() + " variables and " + program.getRowCount() + " constraints: " +
+					result.iterations + " iterations, converged: " + result.converged + ", objective: " + result.objective);
+			if(false == result.converged) {
+				log.info("Linear schedule optimization stopped at time budget.");
+			}
+			previousLayout = layout;
+			previousDual = result.dual;
+		}
+
+		// turn solution into valid tasks
+		previousPower = new HashMap<String, Double>();
+		Map<UUID, List<Task>> taskLists = new HashMap<UUID, List<Task>>();
+		for(Segments candidate : candidates) {
+			double[] power = new double[candidate.size];
+			for(int k = 0; k < candidate.size; k++) {
+				power[k] = result.primal[candidate.variables[k]];
+				previousPower.put(candidate.key(k), power[k]);
+			}
+			int[] contribution = contributions.computeIfAbsent(candidate.uuid, uuid -> new int[total.length]);
+			Task task = candidate.apply(power, total, contribution);
+			taskLists.computeIfAbsent(candidate.uuid, uuid -> new ArrayList<Task>()).add(task);
+		}
+
+		Map<UUID, Task[]> tasks = new HashMap<UUID, Task[]>();
+		for(UUID uuid : schedules.keySet()) {
+			List<Task> list = taskLists.getOrDefault(uuid, new ArrayList<Task>());
+			tasks.put(uuid, list.toArray(new Task[list.size()]));
+			contributions.putIfAbsent(uuid, new int[total.length]);
+		}
+		return tasks;
+	}
+
+	/**
+	 * Sets a value and grows the array if necessary.
+	 */
+	private static double[] set(double[] array, int index, double value) {
+		if(index >= array.length) {
+			array = Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+		}
+		array[index] = value;
+		return array;
+	}
+
+	/**
+	 * Segmentation of a flexibility at slot borders and corridor breakpoints. Bounds are those valid at the begin of a segment.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	private static class Segments {
+		final UUID uuid;
+		final Flexibility flexibility;
+		final Task task;
+		final int flexibilityAdaptionBuffer;
+
+		int size = 0;
+		/**
+		 * Relative to task start
+		 */
+		int[] start = new int[8];
+		int[] end = new int[8];
+		/**
+		 * Slot relative to current slot begin
+		 */
+		int[] slot = new int[8];
+		int[] powerMin = new int[8];
+		int[] powerMax = new int[8];
+		/**
+		 * Bounds for the energy [Ws] at the end of the segment, buffer included if possible
+		 */
+		long[] energyMin = new long[8];
+		long[] energyMax = new long[8];
+
+		int[] variables;
+
+		public Segments(UUID uuid, Flexibility flexibility, Task task, long from, long currentSlotBegin, long to, int slotLength, int flexibilityAdaptionBuffer) {
+			this.uuid = uuid;
+			this.flexibility = flexibility;
+			this.task = task;
+			this.flexibilityAdaptionBuffer = flexibilityAdaptionBuffer;
+
+			CompiledFlexibility.Cursor corridor = flexibility.compile().cursor();
+
+			int relativeTime = (int)(from - task.startingTime); // = time since start of task
+			int currentSlot;
+			if(relativeTime < 0) {
+				// task has not started yet
+				relativeTime = 0;
+			}
+			currentSlot = (int)Math.floorDiv(task.startingTime + relativeTime - currentSlotBegin, (long)slotLength);
+			int nextSlotBegin = (int)(currentSlotBegin + (long)(currentSlot + 1) * slotLength - task.startingTime);
+
+			while(task.startingTime + relativeTime < to && relativeTime < task.runningTime) {
+				corridor.moveTo(relativeTime);
+				int nextTime = Math.min(Math.min(corridor.getNextTime(), nextSlotBegin), task.runningTime);
+
+				int energyConstraintMin = corridor.getEnergyMin();
+				int energyConstraintMax = corridor.getEnergyMax();
+				long minEnergy = (long)energyConstraintMin + flexibilityAdaptionBuffer;
+				long maxEnergy = (long)energyConstraintMax - flexibilityAdaptionBuffer;
+				if(minEnergy > maxEnergy) {
+					// there is not enough space for the buffer, use original values
+					minEnergy = energyConstraintMin;
+					maxEnergy = energyConstraintMax;
+				}
+				add(relativeTime, nextTime, currentSlot, corridor.getPowerMin(), corridor.getPowerMax(), minEnergy, maxEnergy);
+
+				relativeTime = nextTime;
+				if(relativeTime == nextSlotBegin) {
+					currentSlot++;
+					nextSlotBegin += slotLength;
+				}
+			}
+		}
+
+		private void add(int start, int end, int slot, int powerMin, int powerMax, long energyMin, long energyMax) {
+			if(size == this.start.length) {
+				int length = size * 2;
+				this.start = Arrays.copyOf(this.start, length);
+				this.end = Arrays.copyOf(this.end, length);
+				this.slot = Arrays.copyOf(this.slot, length);
+				this.powerMin = Arrays.copyOf(this.powerMin, length);
+				this.powerMax = Arrays.copyOf(this.powerMax, length);
+				this.energyMin = Arrays.copyOf(this.energyMin, length);
+				this.energyMax = Arrays.copyOf(this.energyMax, length);
+			}
+			this.start[size] = start;
+			this.end[size] = end;
+			this.slot[size] = slot;
+			this.powerMin[size] = powerMin;
+			this.powerMax[size] = powerMax;
+			this.energyMin[size] = energyMin;
+			this.energyMax[size] = energyMax;
+			size++;
+		}
+
+		/**
+		 * Key identifying segment k across optimization runs.
+		 *
+		 * @param k
+		 * @return
+		 */
+		public String key(int k) {
+			return uuid + "/" + flexibility.id + "@" + (task.startingTime + start[k]);
+		}
+
+		/**
+		 * Writes the given powers [kW] into the task, clamped to the corridors, and adds the resulting energy to $total.
+		 *
+		 * @param power
+		 * @param total [Wh]
+		 * @param contribution receives the energy [Wh] per slot of this task
+		 * @return
+		 */
+		public Task apply(double[] power, int[] total, int[] contribution) {
+			NavigableMap<Integer, Integer> taskPower = new TreeMap<Integer, Integer>();
+			taskPower.put(0, 0);
+
+			long energy = 0; // in Ws, equals 0 at optimization start
+			for(int k = 0; k < size; k++) {
+				int length = end[k] - start[k];
+				int min = powerMin[k];
+				int max = powerMax[k];
+
+				// derive min and max power from energy constraint
+				int minFromEnergy = (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, (energyMin[k] - energy) / length));
+				int maxFromEnergy = (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, (energyMax[k] - energy) / length));
+				if(minFromEnergy > min) {
+					min = minFromEnergy;
+				}
+				if(maxFromEnergy < max) {
+					max = maxFromEnergy;
+				}
+				if(max < min) {
+					log.severe("Illegal power schedule for flexibility " + flexibility.id + ". [max=" + max + ", min=" + min + "]");
+					min = max = 0;
+				}
+
+				int value = (int)Math.round(power[k] * 1000);
+				value = Math.max(min, Math.min(max, value));
+				taskPower.put(start[k], value);
+
+				energy += (long)value * length; // Ws
+				if(slot[k] >= 0 && slot[k] < total.length) {
+					int slotEnergy = (int)Math.round(value * length / 3600.0); // Wh
+					total[slot[k]] += slotEnergy;
+					contribution[slot[k]] += slotEnergy;
+				}
+			}
+			taskPower.put(task.runningTime, 0);
+			task.power = taskPower;
+			task.compress();
+			return task;
+		}
+	}
+
+	@Reference(
+			name = "TimeService",
+			service = TimeService.class,
+			cardinality = ReferenceCardinality.MANDATORY,
+			policy = ReferencePolicy.DYNAMIC,
+			unbind = "unbindTimeService"
+		)
+	protected synchronized void bindTimeService(TimeService timeService) {
+		this.timeService = timeService;
+	}
+	protected synchronized void unbindTimeService(TimeService timeService) {
+		this.timeService = null;
+	}
+}
@@ -7,10 +7,13 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
 
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
@@ -24,6 +27,7 @@ import de.fzi.osh.optimization.schedule.ScheduleData;
 import de.fzi.osh.optimization.schedule.SchedulingProblem;
 import de.fzi.osh.optimization.schedule.SchedulingSolution;
 import de.fzi.osh.time.TimeService;
+import de.fzi.osh.types.flexibilities.CompiledFlexibility;
 import de.fzi.osh.types.flexibilities.Flexibility;
 import de.fzi.osh.types.flexibilities.Task;
 import de.fzi.osh.types.math.IntInterval;
@@ -41,16 +45,47 @@ import de.fzi.osh.types.math.IntInterval;
  * - minimize amount of electricity sold and bought
  * - minimize flexibility usage variation (idea: integral of absolute derivative)
  * 
+ * With parallelism > 0 devices are optimized in parallel best response rounds (see {@link BestResponseRounds}).
+ * 
  * @author K. Foerderer
  *
  */
-@Component(enabled=true, service=OptimizationService.class)
+@Component(enabled=true, service=OptimizationService.class, property={"parallelism:Integer=0", "rounds:Integer=10"})
 public class ScheduleOptimizationService implements OptimizationService{
 
 	private static Logger log = Logger.getLogger(ScheduleOptimizationService.class.getName());
 	
 	private TimeService timeService;
 	
+	/**
+	 * Pool for parallel optimization of devices. <i>null</i> for sequential optimization.
+	 */
+	private ForkJoinPool pool;
+	/**
+	 * Maximum number of best response rounds
+	 */
+	private int rounds = 10;
+	
+	@Activate
+	protected synchronized void activate(Map<String, ?> properties) {
+		Object value = properties.get("rounds");
+		if(value instanceof Number) {
+			rounds = Math.max(1, ((Number)value).intValue());
+		}
+		value = properties.get("parallelism");
+		if(value instanceof Number && ((Number)value).intValue() > 0) {
+			pool = new ForkJoinPool(((Number)value).intValue());
+		}
+	}
+	
+	@Deactivate
+	protected synchronized void deactivate() {
+		if(null != pool) {
+			pool.shutdownNow();
+			pool = null;
+		}
+	}
+	
 	@Override
 	public Map<Class<?>, Class<?>[]> getCapabilities() {
 		// create mapping
@@ -99,161 +134,16 @@ public class ScheduleOptimizationService implements OptimizationService{
 		// solving (heuristic)
 		int[] target = new int[total.length]; // target schedule = 0 => self consumption
 		
-		for(Entry<UUID, ScheduleData> entry : schedulingProblem.schedules.entrySet()) {
-			ScheduleData scheduleData = entry.getValue();
-			
-			// filter for all relevant flexibilities and tasks
-			Map<Integer, Task> relevantTasks = new HashMap<Integer, Task>();
-			Map<Integer, Flexibility> relevantFlexibilities = new HashMap<Integer, Flexibility>();
-			
-			// first look which flexibilities have been turned into tasks and which of those can still be modified
-			for(Task task : scheduleData.tasks) {
-				// is this task generated from a flexibility and can it still be changed?
-				// only do changes to tasks that have not started before $from, since they are most likely relevant for the target schedule optimization
-				if(task.flexibilityId >= 0 && (task.adaptable || task.startingTime >= schedulingProblem.from)) {
-					relevantTasks.put(task.id, task);
-					// find flexibility for this task
-					for(Flexibility flexibility : scheduleData.flexibilities) {
-						if(flexibility.id == task.flexibilityId) {
-							relevantFlexibilities.put(task.flexibilityId, flexibility);
-						}
-					}
-				}
-			}
-			// now find all flexibilities that have no task associated
-			for(Flexibility flexibility : scheduleData.flexibilities) {
-				if(flexibility.taskId < 0 && flexibility.stoppingTime.max - flexibility.runningTime.min >= schedulingProblem.from) {
-					relevantFlexibilities.put(flexibility.id, flexibility);
-				}
-			}
-			
-			List<Task> taskList = new ArrayList<Task>();
-			// apply a simple self consumption heuristic
-			for(Flexibility flexibility : relevantFlexibilities.values()) {
-				// get the corresponding task if there is any
-				Task task = relevantTasks.get(flexibility.taskId);
-				if(null == task) {
-					// no task, create one
-					log.info("Creating a new task for flexibility " + flexibility.id + ".");
-					task = new Task();
-					task.id = -1; // this task doesn't exist yet
-					task.flexibilityId = flexibility.id;
-					task.adaptable = flexibility.adaptable;
-					if(flexibility.stoppingTime.min - flexibility.runningTime.max < schedulingProblem.from) { // don't start before $from
-						task.startingTime = schedulingProblem.from;
-					} else {
-						task.startingTime = flexibility.stoppingTime.min - flexibility.runningTime.max;
-					}
-					task.runningTime = flexibility.runningTime.max;
-				}
-				
-				// initialization
-				NavigableMap<Integer, IntInterval> powerCorridor = flexibility.powerCorridor;
-				NavigableMap<Integer, IntInterval> energyCorridor = flexibility.energyCorridor;
-			
-				NavigableMap<Integer, Integer> taskPower = new TreeMap<Integer, Integer>();
-				taskPower.put(0, 0);
-				
-				int relativeTime = (int)(schedulingProblem.from - task.startingTime); // = time since start of task
-				long energy = 0; // in Ws, equals 0 at optimization start
-				// $from is at the begin of a slot => slot = 0 is valid
-				int slot = 0; // relative slot since $currentSlotBegin
-				int nextSlotBegin = 0; // as time since start of task
-				double slotEnergy = 0; // in Wh
-				
-				// has the task started yet?
-				if(relativeTime < 0) {
-					relativeTime = 0;
-					slot = -relativeTime / schedulingProblem.slotLength;
-					// first slot, everything is fine
-					nextSlotBegin = schedulingProblem.slotLength - (int)(task.startingTime - schedulingProblem.from) % schedulingProblem.slotLength;
-				} else {
-					// task is already running, hence previous slots have to be considered
-					nextSlotBegin = (int)(schedulingProblem.from + schedulingProblem.slotLength - task.startingTime); // again: $from is at slot start
-				}
-
-				// TODO: optimization when exceeding $to
-				while(task.startingTime + relativeTime < schedulingProblem.to && relativeTime < task.runningTime) {
-					
-					// next time = min { next power corridor constraint, next energy corridor constraint, next slot begin}
-					Integer key = powerCorridor.higherKey(relativeTime);
-					int nextTime = (key == null ? Integer.MAX_VALUE : key); // relative
-					key = energyCorridor.higherKey(relativeTime);
-					if(null != key && key < nextTime) {
-						nextTime = key;
-					}
-					if(nextSlotBegin < nextTime) {
-						nextTime = nextSlotBegin;
-					}
-					
-					// valid power constraint up to $nextTime
-					IntInterval powerConstraint = powerCorridor.floorEntry(relativeTime).getValue();
-					
-					// min and max power
-					int min = powerConstraint.min;
-					int max = powerConstraint.max;
-					
-					// retrieve energy constraint for this point in time
-					IntInterval energyConstraint = flexibility.getEnergyConstraint(relativeTime);
-					// try to apply buffer
-					int minEnergy = energyConstraint.min + schedulingProblem.flexibilityAdaptionBuffer; // Ws
-					int maxEnergy = energyConstraint.max - schedulingProblem.flexibilityAdaptionBuffer; // Ws
-					if(minEnergy > maxEnergy) {
-						// there is not enough space for the buffer, use original values
-						minEnergy = energyConstraint.min;
-						maxEnergy = energyConstraint.max;
-					}
-					
-					// derive min and max power from energy constraint
-					int minFromEnergy = (int)((minEnergy - energy) / (nextTime - relativeTime));
-					int maxFromEnergy = (int)((maxEnergy - energy) / (nextTime - relativeTime));
-					if(minFromEnergy > min) {
-						min = minFromEnergy;
-					}
-					if(maxFromEnergy < max) {
-						max = maxFromEnergy;
-					}
-					if(max < min) {
-						// debug
-						log.severe("Max power < Min power.");
-						log.info("Power constraint: [" + powerConstraint.min + ", " + powerConstraint.max + "]");
-						log.info("Energy constraint: [" + energyConstraint.min + ", " + energyConstraint.max + "]; Current Energy: " + energy);
-						min = max = 0;
-					}
-					
-					// average power in this time slot | Note: Wh * 60 min/h * 60 s/min = Ws
-					// target - total < 0 => uses too much energy => target < 0 in order to provide energy
-					// [!] also, since target.length = total.length no offset has to be applied (compare to target schedule opt.)
-					int targetPower = (target[slot] - total[slot]) * 60 * 60 / (schedulingProblem.slotLength); // W
-					
-					if(targetPower <= min) {
-						taskPower.put(relativeTime, min);
-					} else if(targetPower >= max) {
-						taskPower.put(relativeTime, max);
-					} else {
-						taskPower.put(relativeTime, targetPower);
-					}
-					
-					// step forward in time
-					energy += (nextTime - relativeTime) * taskPower.get(relativeTime); // Ws
-					slotEnergy += (nextTime - relativeTime) * taskPower.get(relativeTime) / (60 * 60.0); // Wh  
-					
-					relativeTime = nextTime;
-					if(relativeTime == nextSlotBegin) {
-						// adjust slot consumption
-						total[slot] += slotEnergy;
-						slotEnergy = 0;
-						slot++;
-						nextSlotBegin += schedulingProblem.slotLength;
-					}
-				}
-				taskPower.put(task.runningTime, 0);
-				task.power = taskPower;
-				taskList.add(task);
+		ForkJoinPool pool = this.pool;
+		if(null != pool && schedulingProblem.schedules.size() > 1) {
+			// parallel best response rounds
+			long deadline = System.currentTimeMillis() + schedulingProblem.optimizationTimeBuffer * 1000L;
+			solution.tasks = BestResponseRounds.solve(pool, schedulingProblem.schedules, total, target, rounds, deadline, new HashMap<UUID, int[]>(),
+					(scheduleData, view) -> optimize(scheduleData, schedulingProblem, view, target));
+		} else {
+			for(Entry<UUID, ScheduleData> entry : schedulingProblem.schedules.entrySet()) {
+				solution.tasks.put(entry.getKey(), optimize(entry.getValue(), schedulingProblem, total, target));
 			}
-			
-			// add to solution
-			solution.tasks.put(entry.getKey(), taskList.toArray(new Task[taskList.size()]));
 		}
 		solution.schedule.timestamp = timeService.nowAsInstant().getEpochSecond();
 		solution.schedule.startingTime = schedulingProblem.from;
@@ -280,7 +170,7 @@ public class ScheduleOptimizationService implements OptimizationService{
 		}
 		
 		// aggregate flexibilities for publishing
-		solution.flexibility = aggregate(schedulingProblem, solution.tasks);
+		solution.flexibility = aggregate(schedulingProblem, solution.tasks, timeService.now());
 		
 		// set missing fields and return solution
 		solution.expectedElectricityBought = expectedElectricityBought;
@@ -289,6 +179,163 @@ public class ScheduleOptimizationService implements OptimizationService{
 		return solutionClass.cast(solution);
 	}
 	
+	/**
+	 * Greedily optimizes the flexibilities of a single device and adds their energy to $total.
+	 * 
+	 * @param scheduleData
+	 * @param problem
+	 * @param total [Wh] per slot
+	 * @param target [Wh] per slot
+	 * @return
+	 */
+	private Task[] optimize(ScheduleData scheduleData, SchedulingProblem problem, int[] total, int[] target) {
+		// filter for all relevant flexibilities and tasks
+		Map<Integer, Task> relevantTasks = new HashMap<Integer, Task>();
+		Map<Integer, Flexibility> relevantFlexibilities = new HashMap<Integer, Flexibility>();
+		
+		// first look which flexibilities have been turned into tasks and which of those can still be modified
+		for(Task task : scheduleData.tasks) {
+			// is this task generated from a flexibility and can it still be changed?
+			// only do changes to tasks that have not started before $from, since they are most likely relevant for the target schedule optimization
+			if(task.flexibilityId >= 0 && (task.adaptable || task.startingTime >= problem.from)) {
+				relevantTasks.put(task.id, task);
+				// find flexibility for this task
+				for(Flexibility flexibility : scheduleData.flexibilities) {
+					if(flexibility.id == task.flexibilityId) {
+						relevantFlexibilities.put(task.flexibilityId, flexibility);
+					}
+				}
+			}
+		}
+		// now find all flexibilities that have no task associated
+		for(Flexibility flexibility : scheduleData.flexibilities) {
+			if(flexibility.taskId < 0 && flexibility.stoppingTime.max - flexibility.runningTime.min >= problem.from) {
+				relevantFlexibilities.put(flexibility.id, flexibility);
+			}
+		}
+		
+		List<Task> taskList = new ArrayList<Task>();
+		// apply a simple self consumption heuristic
+		for(Flexibility flexibility : relevantFlexibilities.values()) {
+			// get the corresponding task if there is any
+			Task task = relevantTasks.get(flexibility.taskId);
+			if(null == task) {
+				// no task, create one
+				log.info("Creating a new task for flexibility " + flexibility.id + ".");
+				task = new Task();
+				task.id = -1; // this task doesn't exist yet
+				task.flexibilityId = flexibility.id;
+				task.adaptable = flexibility.adaptable;
+				if(flexibility.stoppingTime.min - flexibility.runningTime.max < problem.from) { // don't start before $from
+					task.startingTime = problem.from;
+				} else {
+					task.startingTime = flexibility.stoppingTime.min - flexibility.runningTime.max;
+				}
+				task.runningTime = flexibility.runningTime.max;
+			}
+			
+			// initialization
+			CompiledFlexibility.Cursor corridor = flexibility.compile().cursor();
+		
+			NavigableMap<Integer, Integer> taskPower = new TreeMap<Integer, Integer>();
+			taskPower.put(0, 0);
+			
+			int relativeTime = (int)(problem.from - task.startingTime); // = time since start of task
+			long energy = 0; // in Ws, equals 0 at optimization start
+			// $from is at the begin of a slot => slot = 0 is valid
+			int slot = 0; // relative slot since $currentSlotBegin
+			int nextSlotBegin = 0; // as time since start of task
+			double slotEnergy = 0; // in Wh
+			
+			// has the task started yet?
+			if(relativeTime < 0) {
+				relativeTime = 0;
+				slot = -relativeTime / problem.slotLength;
+				// first slot, everything is fine
+				nextSlotBegin = problem.slotLength - (int)(task.startingTime - problem.from) % problem.slotLength;
+			} else {
+				// task is already running, hence previous slots have to be considered
+				nextSlotBegin = (int)(problem.from + problem.slotLength - task.startingTime); // again: $from is at slot start
+			}
+
+			// TODO: optimization when exceeding $to
+			while(task.startingTime + relativeTime < problem.to && relativeTime < task.runningTime) {
+				
+				// next time = min { next power corridor constraint, next energy corridor constraint, next slot begin}
+				corridor.moveTo(relativeTime);
+				int nextTime = corridor.getNextTime(); // relative
+				if(nextSlotBegin < nextTime) {
+					nextTime = nextSlotBegin;
+				}
+				
+				// valid power constraint up to $nextTime
+				// min and max power
+				int min = corridor.getPowerMin();
+				int max = corridor.getPowerMax();
+				
+				// retrieve energy constraint for this point in time
+				int energyConstraintMin = corridor.getEnergyMin();
+				int energyConstraintMax = corridor.getEnergyMax();
+				// try to apply buffer
+				int minEnergy = energyConstraintMin + problem.flexibilityAdaptionBuffer; // Ws
+				int maxEnergy = energyConstraintMax - problem.flexibilityAdaptionBuffer; // Ws
+				if(minEnergy > maxEnergy) {
+					// there is not enough space for the buffer, use original values
+					minEnergy = energyConstraintMin;
+					maxEnergy = energyConstraintMax;
+				}
+				
+				// derive min and max power from energy constraint
+				int minFromEnergy = (int)((minEnergy - energy) / (nextTime - relativeTime));
+				int maxFromEnergy = (int)((maxEnergy - energy) / (nextTime - relativeTime));
+				if(minFromEnergy > min) {
+					min = minFromEnergy;
+				}
+				if(maxFromEnergy < max) {
+					max = maxFromEnergy;
+				}
+				if(max < min) {
+					// debug
+					log.severe("Max power < Min power.");
+					log.info("Power constraint: [" + corridor.getPowerMin() + ", " + corridor.getPowerMax() + "]");
+					log.info("Energy constraint: [" + energyConstraintMin + ", " + energyConstraintMax + "]; Current Energy: " + energy);
+					min = max = 0;
+				}
+				
+				// average power in this time slot | Note: Wh * 60 min/h * 60 s/min = Ws
+				// target - total < 0 => uses too much energy => target < 0 in order to provide energy
+				// [!] also, since target.length = total.length no offset has to be applied (compare to target schedule opt.)
+				int targetPower = (target[slot] - total[slot]) * 60 * 60 / (problem.slotLength); // W
+				
+				if(targetPower <= min) {
+					taskPower.put(relativeTime, min);
+				} else if(targetPower >= max) {
+					taskPower.put(relativeTime, max);
+				} else {
+					taskPower.put(relativeTime, targetPower);
+				}
+				
+				// step forward in time
+				energy += (nextTime - relativeTime) * taskPower.get(relativeTime); // Ws
+				slotEnergy += (nextTime - relativeTime) * taskPower.get(relativeTime) / (60 * 60.0); // Wh  
+				
+				relativeTime = nextTime;
+				if(relativeTime == nextSlotBegin) {
+					// adjust slot consumption
+					total[slot] += slotEnergy;
+					slotEnergy = 0;
+					slot++;
+					nextSlotBegin += problem.slotLength;
+				}
+			}
+			taskPower.put(task.runningTime, 0);
+			task.power = taskPower;
+			taskList.add(task);
+		}
+		
+		return taskList.toArray(new Task[taskList.size()]);
+	}
+	
 	/**
 	 * Generates the public flexibility.
 	 * 
@@ -296,12 +343,13 @@ public class ScheduleOptimizationService implements OptimizationService{
 	 * @param to
 	 * @param schedules
 	 * @param tasksToSchedule
+	 * @param timestamp
 	 * @return
 	 */
-	private PublicFlexibility aggregate(SchedulingProblem schedulingProblem, Map<UUID, Task[]> tasksToSchedule) {
+	static PublicFlexibility aggregate(SchedulingProblem schedulingProblem, Map<UUID, Task[]> tasksToSchedule, long timestamp) {
 		PublicFlexibility result = new PublicFlexibility();
 		
-		result.timestamp = timeService.now();
+		result.timestamp = timestamp;
 		result.startingTime = schedulingProblem.from;
 		result.slotLength = schedulingProblem.slotLength;
 		
@@ -341,8 +389,7 @@ public class ScheduleOptimizationService implements OptimizationService{
 				} else {
 					Flexibility taskFlexibility = flexibility.determineTaskFlexibility(task);
 					
-					NavigableMap<Integer,IntInterval> powerCorridor = taskFlexibility.powerCorridor;
-					NavigableMap<Integer,IntInterval> energyCorridor = taskFlexibility.energyCorridor;
+					CompiledFlexibility.Cursor corridor = taskFlexibility.compile().cursor();
 										
 					int relativeTime = (int)(schedulingProblem.from - task.startingTime); // = time since start of task
 					// $from is at the begin of a slot => slot = 0 is valid
@@ -363,28 +410,23 @@ public class ScheduleOptimizationService implements OptimizationService{
 					while(task.startingTime + relativeTime < schedulingProblem.to && relativeTime < task.runningTime) {
 
 						// next time = min { next power corridor constraint, next energy corridor constraint, next slot beginn}
-						Integer key = powerCorridor.higherKey(relativeTime);
-						int nextTime = (key == null ? Integer.MAX_VALUE : key);
-						key = energyCorridor.higherKey(relativeTime);
-						if(null != key && key < nextTime) {
-							nextTime = key;
-						}
+						corridor.moveTo(relativeTime);
+						int nextTime = corridor.getNextTime();
 						if(nextSlotBegin < nextTime) {
 							nextTime = nextSlotBegin;
 						}
 					
 						// for power, use average
-						IntInterval power = powerCorridor.floorEntry(relativeTime).getValue();
-						powerMin[slot] += power.min * (nextTime - relativeTime) / (double)schedulingProblem.slotLength;
-						powerMax[slot] += power.max * (nextTime - relativeTime) / (double)schedulingProblem.slotLength;
+						powerMin[slot] += corridor.getPowerMin() * (nextTime - relativeTime) / (double)schedulingProblem.slotLength;
+						powerMax[slot] += corridor.getPowerMax() * (nextTime - relativeTime) / (double)schedulingProblem.slotLength;
 						
 						// for energy, the slot begin and end are relevant
 
 						relativeTime = nextTime;
 						if(relativeTime == nextSlotBegin) {
-							IntInterval energy = taskFlexibility.getEnergyConstraint(relativeTime);
-							energyMin[slot] += energy.min + schedulingProblem.flexibilityAdaptionBuffer;
-							energyMax[slot] += energy.max - schedulingProblem.flexibilityAdaptionBuffer;
+							corridor.moveTo(relativeTime);
+							energyMin[slot] += corridor.getEnergyMin() + schedulingProblem.flexibilityAdaptionBuffer;
+							energyMax[slot] += corridor.getEnergyMax() - schedulingProblem.flexibilityAdaptionBuffer;
 							
 							if(energyMin[slot] > energyMax[slot]) {
 								// since the flexibility is based on a task, 0 is a valid option
@@ -1,16 +1,20 @@
 package de.fzi.osh.optimization.schedule.implementation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
 
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 
 import de.fzi.osh.optimization.OptimizationService;
 import de.fzi.osh.optimization.Problem;
@@ -18,9 +22,9 @@ import de.fzi.osh.optimization.Solution;
 import de.fzi.osh.optimization.schedule.ScheduleData;
 import de.fzi.osh.optimization.schedule.TargetScheduleProblem;
 import de.fzi.osh.optimization.schedule.TargetScheduleSolution;
+import de.fzi.osh.types.flexibilities.CompiledFlexibility;
 import de.fzi.osh.types.flexibilities.Flexibility;
 import de.fzi.osh.types.flexibilities.Task;
-import de.fzi.osh.types.math.IntInterval;
 
 /**
  * Service for optimizing the schedule in order to achieve target schedule compliance.
@@ -33,14 +37,46 @@ import de.fzi.osh.types.math.IntInterval;
  * - minimize total deviation
  * - minimize within this solution the max. deviation
  * 
+ * With parallelism > 0 devices are optimized in parallel best response rounds (see {@link BestResponseRounds}).
+ * If a previous solution is given, only the devices of the problem are re-optimized against the residual of the previous solution.
+ * 
  * @author K. Foerderer
  *
  */
-@Component(enabled=true, service=OptimizationService.class)
+@Component(enabled=true, service=OptimizationService.class, property={"parallelism:Integer=0", "rounds:Integer=10"})
 public class TargetScheduleOptimizationService implements OptimizationService{
 
 	private static Logger log = Logger.getLogger(TargetScheduleProblem.class.getName());
 	
+	/**
+	 * Pool for parallel optimization of devices. <i>null</i> for sequential optimization.
+	 */
+	private ForkJoinPool pool;
+	/**
+	 * Maximum number of best response rounds
+	 */
+	private int rounds = 10;
+	
+	@Activate
+	protected synchronized void activate(Map<String, ?> properties) {
+		Object value = properties.get("rounds");
+		if(value instanceof Number) {
+			rounds = Math.max(1, ((Number)value).intValue());
+		}
+		value = properties.get("parallelism");
+		if(value instanceof Number && ((Number)value).intValue() > 0) {
+			pool = new ForkJoinPool(((Number)value).intValue());
+		}
+	}
+	
+	@Deactivate
+	protected synchronized void deactivate() {
+		if(null != pool) {
+			pool.shutdownNow();
+			pool = null;
+		}
+	}
+	
 	@Override
 	public Map<Class<?>, Class<?>[]> getCapabilities() {
 		// create mapping
@@ -78,6 +114,14 @@ public class TargetScheduleOptimizationService implements OptimizationService{
 		}
 		int targetSlotOffset = (int) (schedulingProblem.currentSlotBegin - schedulingProblem.targetSchedule.startingTime) / schedulingProblem.slotLength;
 		
+		// incremental optimization: consumption of devices that are not re-optimized
+		Map<UUID, int[]> contributions = previousContributions(schedulingProblem, total.length);
+		for(int[] contribution : contributions.values()) {
+			for(int i = 0; i < total.length; i++) {
+				total[i] += contribution[i];
+			}
+		}
+		
 		// solving (heuristic)
 		solution.tasks = new HashMap<UUID, Task[]>();
 		
@@ -88,166 +132,30 @@ public class TargetScheduleOptimizationService implements OptimizationService{
 					+ schedulingProblem.targetSchedule.production[i] + schedulingProblem.targetSchedule.flexibleProduction[i];
 		}
 		
-		for(Entry<UUID, ScheduleData> entry : schedulingProblem.schedules.entrySet()) {
-			ScheduleData scheduleData = entry.getValue();
-			
-			// filter for all relevant flexibilities and tasks
-			Map<Integer, Task> relevantTasks = new HashMap<Integer, Task>();
-			Map<Integer, Flexibility> relevantFlexibilities = new HashMap<Integer, Flexibility>();
-			
-			// first look which flexibilities have been turned into tasks and which of those can still be modified
-			for(Task task : scheduleData.tasks) {
-				// is this task generated from a flexibility and can it still be changed?
-				// only do changes to tasks that have not started before $from + buffer, since they are most likely relevant for the target schedule optimization
-				if(task.flexibilityId >= 0 && (task.adaptable || task.startingTime >= schedulingProblem.from + schedulingProblem.optimizationTimeBuffer)) {
-					relevantTasks.put(task.id, task);
-					// find flexibility for this task
-					for(Flexibility flexibility : scheduleData.flexibilities) {
-						if(flexibility.id == task.flexibilityId) {
-							relevantFlexibilities.put(task.flexibilityId, flexibility);
-						}
-					}
-				}
+		ForkJoinPool pool = this.pool;
+		if(null != pool && schedulingProblem.schedules.size() > 1) {
+			// parallel best response rounds
+			int[] alignedTarget = new int[total.length];
+			for(int i = 0; i < total.length && i + targetSlotOffset < target.length; i++) {
+				alignedTarget[i] = target[i + targetSlotOffset];
 			}
-			// now find all flexibilities that have no task associated
-			for(Flexibility flexibility : scheduleData.flexibilities) {
-				if(flexibility.taskId < 0 && flexibility.stoppingTime.max - flexibility.runningTime.min >= schedulingProblem.from + schedulingProblem.optimizationTimeBuffer) {
-					relevantFlexibilities.put(flexibility.id, flexibility);
-				}
-			}
-			
-			List<Task> taskList = new ArrayList<Task>();
-			// apply a simple self consumption heuristic
-			for(Flexibility flexibility : relevantFlexibilities.values()) {
-				// get the corresponding task if there is any
-				Task task = relevantTasks.get(flexibility.taskId);
-				if(null == task) {
-					// no task, create one
-					log.info("Creating a new task for flexibility " + flexibility.id + ".");
-					task = new Task();
-					task.id = -1; // this task doesn't exist yet
-					task.flexibilityId = flexibility.id;
-					task.adaptable = flexibility.adaptable;
-					if(flexibility.stoppingTime.min - flexibility.runningTime.max < schedulingProblem.from) { // don't start before $from
-						task.startingTime = schedulingProblem.from;
-					} else {
-						task.startingTime = flexibility.stoppingTime.min - flexibility.runningTime.max;
-					}
-					task.runningTime = flexibility.runningTime.max;
-				}
-				
-				// initialization
-				NavigableMap<Integer, IntInterval> powerCorridor = flexibility.powerCorridor;
-				NavigableMap<Integer, IntInterval> energyCorridor = flexibility.energyCorridor;
-			
-				NavigableMap<Integer, Integer> taskPower = new TreeMap<Integer, Integer>();
-				taskPower.put(0, 0);
-				
-				int relativeTime = (int)(schedulingProblem.from - task.startingTime); // = time since start of task
-				long energy = 0; // in Ws, equals 0 at optimization start
-				int slot = 0; // relative slot since $currentSlotBegin
-				int nextSlotBegin = 0; // as time since start of task
-				double slotEnergy = 0; // in Wh
-				
-				// has the task started yet?
-				if(relativeTime < 0) {
-					relativeTime = 0;
-					slot = -relativeTime / schedulingProblem.slotLength;
-					// first slot, everything is fine
-					nextSlotBegin = schedulingProblem.slotLength - (int)(task.startingTime - schedulingProblem.currentSlotBegin) % schedulingProblem.slotLength;
-				} else {
-					// since a buffer is applied $from is not necessarily in slot 0
-					slot = (int)((schedulingProblem.from - schedulingProblem.currentSlotBegin) / schedulingProblem.slotLength);
-					// task is already running, hence previous slots have to be considered
-					nextSlotBegin = (int)(schedulingProblem.currentSlotBegin + schedulingProblem.slotLength - task.startingTime);
-					if(nextSlotBegin < relativeTime) {
-						// $from is in slot nr. 1 not slot nr. 0
-						nextSlotBegin += schedulingProblem.slotLength;
-					}
+			long deadline = System.currentTimeMillis() + schedulingProblem.optimizationTimeBuffer * 1000L;
+			solution.tasks = BestResponseRounds.solve(pool, schedulingProblem.schedules, total, alignedTarget, rounds, deadline, contributions,
+					(scheduleData, view) -> optimize(scheduleData, schedulingProblem, view, target, targetSlotOffset));
+		} else {
+			for(Entry<UUID, ScheduleData> entry : schedulingProblem.schedules.entrySet()) {
+				int[] before = Arrays.copyOf(total, total.length);
+				solution.tasks.put(entry.getKey(), optimize(entry.getValue(), schedulingProblem, total, target, targetSlotOffset));
+				for(int i = 0; i < total.length; i++) {
+					before[i] = total[i] - before[i];
 				}
-				
-				// TODO: optimization when exceeding $to
-				while(task.startingTime + relativeTime < schedulingProblem.to && relativeTime < task.runningTime) {
-					
-					// next time = min { next power corridor constraint, next energy corridor constraint, next slot begin}
-					Integer key = powerCorridor.higherKey(relativeTime);
-					int nextTime = (key == null ? Integer.MAX_VALUE : key); // relative
-					key = energyCorridor.higherKey(relativeTime);
-					if(null != key && key < nextTime) {
-						nextTime = key;
-					}
-					if(nextSlotBegin < nextTime) {
-						nextTime = nextSlotBegin;
-					}
-					
-					// valid power constraint up to $nextTime
-					IntInterval powerConstraint = powerCorridor.floorEntry(relativeTime).getValue();
-					
-					// min and max power
-					int min = powerConstraint.min;
-					int max = powerConstraint.max;
-					
-					// retrieve energy constraint for this point in time
-					IntInterval energyConstraint = flexibility.getEnergyConstraint(relativeTime);
-					// try to apply buffer
-					int minEnergy = energyConstraint.min + schedulingProblem.flexibilityAdaptionBuffer; // Ws
-					int maxEnergy = energyConstraint.max - schedulingProblem.flexibilityAdaptionBuffer; // Ws
-					if(minEnergy > maxEnergy) {
-						// there is not enough space for the buffer, use original values
-						log.fine("Not applying energy buffer.");
-						minEnergy = energyConstraint.min;
-						maxEnergy = energyConstraint.max;
-					}
-					
-					// derive min and max power from energy constraint
-					int minFromEnergy = (int)((minEnergy - energy) / (nextTime - relativeTime));
-					int maxFromEnergy = (int)((maxEnergy - energy) / (nextTime - relativeTime));
-					if(minFromEnergy > min) {
-						min = minFromEnergy;
-					}
-					if(maxFromEnergy < max) {
-						max = maxFromEnergy;
-					}
-					if(max < min) {
-						// debug
-						log.severe("Illegal power schedule for task. [max=" + max + ", min=" + min + ", powerC=" + powerConstraint.toString() + ", energyC=" + energyConstraint.toString()+ "]");
-						log.severe("energy=" + energy + ", minFromEnergy=" + minFromEnergy + ", maxFromEnergy=" + maxFromEnergy);
-						min = max = 0;
-					}
-					
-					// average power in this time slot | Note: Wh * 60 min/h * 60 s/min = Ws
-					// target - total < 0 => uses too much energy => target < 0 in order to provide energy
-					int targetPower = (target[slot + targetSlotOffset] - total[slot]) * 60 * 60 / (schedulingProblem.slotLength); // W
-					
-					if(targetPower <= min) {
-						taskPower.put(relativeTime, min);
-					} else if(targetPower >= max) {
-						taskPower.put(relativeTime, max);
-					} else {
-						taskPower.put(relativeTime, targetPower);
-					}
-					
-					// step forward in time
-					energy += (nextTime - relativeTime) * taskPower.get(relativeTime); // Ws
-					slotEnergy += (nextTime - relativeTime) * taskPower.get(relativeTime) / (60 * 60.0); // Wh  
-					
-					relativeTime = nextTime;
-					if(relativeTime == nextSlotBegin) {
-						// adjust slot consumption
-						total[slot] += slotEnergy;
-						slotEnergy = 0;
-						slot++;
-						nextSlotBegin += schedulingProblem.slotLength;
-					}
-				}
-				taskPower.put(task.runningTime, 0);
-				task.power = taskPower;
-				taskList.add(task);
+				contributions.put(entry.getKey(), before);
 			}
-			
-			// add to solution
-			solution.tasks.put(entry.getKey(), taskList.toArray(new Task[taskList.size()]));
 		}
+		solution.currentSlotBegin = schedulingProblem.currentSlotBegin;
+		solution.slotLength = schedulingProblem.slotLength;
+		solution.total = total;
+		solution.contributions = contributions;
 		
 		// compute result
 		int expectedCumulativeDeviation = 0;
@@ -265,4 +173,201 @@ public class TargetScheduleOptimizationService implements OptimizationService{
 		log.info("Finished target schedule optimization.");
 		return solutionClass.cast(solution);
 	}
+	
+	/**
+	 * Returns the consumption per slot of all devices that are not part of an incremental optimization, as computed by the previous solution.
+	 * Slots are aligned to the current slot begin of the problem. Empty if the problem is not incremental.
+	 * 
+	 * @param problem
+	 * @param length number of slots
+	 * @return
+	 */
+	static Map<UUID, int[]> previousContributions(TargetScheduleProblem problem, int length) {
+		Map<UUID, int[]> contributions = new HashMap<UUID, int[]>();
+		TargetScheduleSolution previous = problem.previousSolution;
+		if(null == previous || null == previous.contributions) {
+			return contributions;
+		}
+		long difference = problem.currentSlotBegin - previous.currentSlotBegin;
+		if(previous.slotLength != problem.slotLength || difference < 0 || difference % problem.slotLength != 0) {
+			log.warning("Previous solution does not match the problem. Ignoring it.");
+			return contributions;
+		}
+		int shift = (int)(difference / problem.slotLength);
+		for(Entry<UUID, int[]> entry : previous.contributions.entrySet()) {
+			if(problem.schedules.containsKey(entry.getKey())) {
+				// device is re-optimized
+				continue;
+			}
+			int[] contribution = new int[length];
+			if(shift < entry.getValue().length) {
+				System.arraycopy(entry.getValue(), shift, contribution, 0, Math.min(length, entry.getValue().length - shift));
+			}
+			contributions.put(entry.getKey(), contribution);
+		}
+		return contributions;
+	}
+	
+	/**
+	 * Greedily optimizes the flexibilities of a single device and adds their energy to $total.
+	 * 
+	 * @param scheduleData
+	 * @param problem
+	 * @param total [Wh] per slot
+	 * @param target [Wh] per slot of the target schedule
+	 * @param targetSlotOffset index of slot 0 of $total in $target
+	 * @return
+	 */
+	private Task[] optimize(ScheduleData scheduleData, TargetScheduleProblem problem, int[] total, int[] target, int targetSlotOffset) {
+		// filter for all relevant flexibilities and tasks
+		Map<Integer, Task> relevantTasks = new HashMap<Integer, Task>();
+		Map<Integer, Flexibility> relevantFlexibilities = new HashMap<Integer, Flexibility>();
+		
+		// first look which flexibilities have been turned into tasks and which of those can still be modified
+		for(Task task : scheduleData.tasks) {
+			// is this task generated from a flexibility and can it still be changed?
+			// only do changes to tasks that have not started before $from + buffer, since they are most likely relevant for the target schedule optimization
+			if(task.flexibilityId >= 0 && (task.adaptable || task.startingTime >= problem.from + problem.optimizationTimeBuffer)) {
+				relevantTasks.put(task.id, task);
+				// find flexibility for this task
+				for(Flexibility flexibility : scheduleData.flexibilities) {
+					if(flexibility.id == task.flexibilityId) {
+						relevantFlexibilities.put(task.flexibilityId, flexibility);
+					}
+				}
+			}
+		}
+		// now find all flexibilities that have no task associated
+		for(Flexibility flexibility : scheduleData.flexibilities) {
+			if(flexibility.taskId < 0 && flexibility.stoppingTime.max - flexibility.runningTime.min >= problem.from + problem.optimizationTimeBuffer) {
+				relevantFlexibilities.put(flexibility.id, flexibility);
+			}
+		}
+		
+		List<Task> taskList = new ArrayList<Task>();
+		// apply a simple self consumption heuristic
+		for(Flexibility flexibility : relevantFlexibilities.values()) {
+			// get the corresponding task if there is any
+			Task task = relevantTasks.get(flexibility.taskId);
+			if(null == task) {
+				// no task, create one
+				log.info("Creating a new task for flexibility " + flexibility.id + ".");
+				task = new Task();
+				task.id = -1; // this task doesn't exist yet
+				task.flexibilityId = flexibility.id;
+				task.adaptable = flexibility.adaptable;
+				if(flexibility.stoppingTime.min - flexibility.runningTime.max < problem.from) { // don't start before $from
+					task.startingTime = problem.from;
+				} else {
+					task.startingTime = flexibility.stoppingTime.min - flexibility.runningTime.max;
+				}
+				task.runningTime = flexibility.runningTime.max;
+			}
+			
+			// initialization
+			CompiledFlexibility.Cursor corridor = flexibility.compile().cursor();
+		
+			NavigableMap<Integer, Integer> taskPower = new TreeMap<Integer, Integer>();
+			taskPower.put(0, 0);
+			
+			int relativeTime = (int)(problem.from - task.startingTime); // = time since start of task
+			long energy = 0; // in Ws, equals 0 at optimization start
+			int slot = 0; // relative slot since $currentSlotBegin
+			int nextSlotBegin = 0; // as time since start of task
+			double slotEnergy = 0; // in Wh
+			
+			// has the task started yet?
+			if(relativeTime < 0) {
+				relativeTime = 0;
+				slot = -relativeTime / problem.slotLength;
+				// first slot, everything is fine
+				nextSlotBegin = problem.slotLength - (int)(task.startingTime - problem.currentSlotBegin) % problem.slotLength;
+			} else {
+				// since a buffer is applied $from is not necessarily in slot 0
+				slot = (int)((problem.from - problem.currentSlotBegin) / problem.slotLength);
+				// task is already running, hence previous slots have to be considered
+				nextSlotBegin = (int)(problem.currentSlotBegin + problem.slotLength - task.startingTime);
+				if(nextSlotBegin < relativeTime) {
+					// $from is in slot nr. 1 not slot nr. 0
+					nextSlotBegin += problem.slotLength;
+				}
+			}
+			
+			// TODO: optimization when exceeding $to
+			while(task.startingTime + relativeTime < problem.to && relativeTime < task.runningTime) {
+				
+				// next time = min { next power corridor constraint, next energy corridor constraint, next slot begin}
+				corridor.moveTo(relativeTime);
+				int nextTime = corridor.getNextTime(); // relative
+				if(nextSlotBegin < nextTime) {
+					nextTime = nextSlotBegin;
+				}
+				
+				// valid power constraint up to $nextTime
+				// min and max power
+				int min = corridor.getPowerMin();
+				int max = corridor.getPowerMax();
+				
+				// retrieve energy constraint for this point in time
+				int energyConstraintMin = corridor.getEnergyMin();
+				int energyConstraintMax = corridor.getEnergyMax();
+				// try to apply buffer
+				int minEnergy = energyConstraintMin + problem.flexibilityAdaptionBuffer; // Ws
+				int maxEnergy = energyConstraintMax - problem.flexibilityAdaptionBuffer; // Ws
+				if(minEnergy > maxEnergy) {
+					// there is not enough space for the buffer, use original values
+					log.fine("Not applying energy buffer.");
+					minEnergy = energyConstraintMin;
+					maxEnergy = energyConstraintMax;
+				}
+				
+				// derive min and max power from energy constraint
+				int minFromEnergy = (int)((minEnergy - energy) / (nextTime - relativeTime));
+				int maxFromEnergy = (int)((maxEnergy - energy) / (nextTime - relativeTime));
+				if(minFromEnergy > min) {
+					min = minFromEnergy;
+				}
+				if(maxFromEnergy < max) {
+					max = maxFromEnergy;
+				}
+				if(max < min) {
+					// debug
+					log.severe("Illegal power schedule for task. [max=" + max + ", min=" + min + ", powerC=[" + corridor.getPowerMin() + ", " + corridor.getPowerMax() + 
+							"], energyC=[" + energyConstraintMin + ", " + energyConstraintMax + "]]");
+					log.severe("energy=" + energy + ", minFromEnergy=" + minFromEnergy + ", maxFromEnergy=" + maxFromEnergy);
+					min = max = 0;
+				}
+				
+				// average power in this time slot | Note: Wh * 60 min/h * 60 s/min = Ws
+				// target - total < 0 => uses too much energy => target < 0 in order to provide energy
+				int targetPower = (target[slot + targetSlotOffset] - total[slot]) * 60 * 60 / (problem.slotLength); // W
+				
+				if(targetPower <= min) {
+					taskPower.put(relativeTime, min);
+				} else if(targetPower >= max) {
+					taskPower.put(relativeTime, max);
+				} else {
+					taskPower.put(relativeTime, targetPower);
+				}
+				
+				// step forward in time
+				energy += (nextTime - relativeTime) * taskPower.get(relativeTime); // Ws
+				slotEnergy += (nextTime - relativeTime) * taskPower.get(relativeTime) / (60 * 60.0); // Wh  
+				
+				relativeTime = nextTime;
+				if(relativeTime == nextSlotBegin) {
+					// adjust slot consumption
+					total[slot] += slotEnergy;
+					slotEnergy = 0;
+					slot++;
+					nextSlotBegin += problem.slotLength;
+				}
+			}
+			taskPower.put(task.runningTime, 0);
+			task.power = taskPower;
+			taskList.add(task);
+		}
+		
+		return taskList.toArray(new Task[taskList.size()]);
+	}
 }
@@ -0,0 +1,447 @@
+package de.fzi.osh.scheduling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import de.fzi.osh.time.TimeService;
+
+/**
+ * Runs jobs one after another on a worker thread.
+ *
+ * Every job is of a {@link Kind} which determines
+ * <ul>
+ * <li>its priority: of all due jobs the one with the highest priority runs first, then the one with the earliest deadline,</li>
+ * <li>a minimum interval between the starts of two jobs of this kind,</li>
+ * <li>whether waiting jobs with the same key are coalesced, i.e. only the newest one is run,</li>
+ * <li>whether a running job is cancelled if a job of higher priority becomes due. A cancelled job is queued again.</li>
+ * </ul>
+ *
+ * Cancellation is cooperative: jobs have to check {@link Job#isCancelled()}. Jobs whose deadline passed before they could be started are dropped.
+ * Times are epoch seconds of the time service.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class JobScheduler {
+
+	private static Logger log = Logger.getLogger(JobScheduler.class.getName());
+
+	/**
+	 * Work done by a job.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	public static interface Task {
+		/**
+		 * Does the work.
+		 *
+		 * @param job job running this task
+		 */
+		public void run(Job job);
+	}
+
+	/**
+	 * Properties and statistics of a kind of job.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	public static class Kind {
+		private final String name;
+		private final int priority;
+		private final int minimumInterval;
+		private final boolean coalescing;
+		private final boolean preemptible;
+
+		/**
+		 * Waiting jobs by key. Only used for coalescing.
+		 */
+		private Map<Object, Job> waiting = new HashMap<Object, Job>();
+		/**
+		 * Start of the latest job.
+		 */
+		private long latestStart = Long.MIN_VALUE;
+
+		// statistics
+		private long submitted;
+		private long coalesced;
+		private long started;
+		private long finished;
+		private long cancelled;
+		private long expired;
+		private long waitingTime; // s
+		private long maxWaitingTime; // s
+		private long runningTime; // ms
+
+		private Kind(String name, int priority, int minimumInterval, boolean coalescing, boolean preemptible) {
+			this.name = name;
+			this.priority = priority;
+			this.minimumInterval = minimumInterval;
+			this.coalescing = coalescing;
+			this.preemptible = preemptible;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+	}
+
+	/**
+	 * A queued or running job.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	public static class Job {
+		private final Kind kind;
+		private final Object key;
+		private final long sequence;
+		private Task task;
+		/**
+		 * Earliest start.
+		 */
+		private long due;
+		private long deadline;
+		private volatile boolean cancelled;
+		/**
+		 * Cancelled in favor of a job of higher priority.
+		 */
+		private boolean preempted;
+
+		private Job(Kind kind, Object key, Task task, long due, long deadline, long sequence) {
+			this.kind = kind;
+			this.key = key;
+			this.task = task;
+			this.due = due;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * Returns the epoch second the job has to be started by.
+		 *
+		 * @return
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Returns whether the job should stop as soon as possible, since it has been superseded or preempted.
+		 *
+		 * @return
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private String name;
+	private TimeService timeService;
+	private Thread worker;
+	private volatile boolean running = true;
+
+	private List<Job> queue = new ArrayList<Job>();
+	private Job current;
+	private long sequence;
+
+	/**
+	 * Constructor. Starts the worker thread.
+	 *
+	 * @param name used for the thread name
+	 * @param timeService
+	 */
+	public JobScheduler(String name, TimeService timeService) {
+		this.name = name;
+		this.timeService = timeService;
+
+		worker = new Thread(() -> work(), "de.fzi.osh.scheduling.jobs:" + name);
+		worker.start();
+	}
+
+	/**
+	 * Creates a kind of job.
+	 *
+	 * @param name
+	 * @param priority higher values are run first
+	 * @param minimumInterval minimum time in seconds between the starts of two jobs of this kind
+	 * @param coalescing if <i>true</i> only the newest of all waiting jobs with the same key is kept
+	 * @param preemptible if <i>true</i> running jobs are cancelled and queued again when a job of higher priority becomes due
+	 * @return
+	 */
+	public Kind createKind(String name, int priority, int minimumInterval, boolean coalescing, boolean preemptible) {
+		return new Kind(name, priority, minimumInterval, coalescing, preemptible);
+	}
+
+	/**
+	 * Queues a job. It is started as soon as the minimum interval of its kind allows.
+	 *
+	 * If the kind is coalescing and a job with the same key is already waiting, the waiting job gets the new task and deadline.
+	 *
+	 * @param kind
+	 * @param key coalescing key, may be <i>null</i>
+	 * @param task
+	 * @param deadline epoch second the job has to be started by, Long.MAX_VALUE if there is none
+	 * @param supersede if <i>true</i> a running job of the same kind and key is cancelled and the minimum interval is ignored
+	 * @return the queued job
+	 */
+	public synchronized Job submit(Kind kind, Object key, Task task, long deadline, boolean supersede) {
+		long now = timeService.now();
+		kind.submitted++;
+
+		if(supersede && null != current && current.kind == kind && Objects.equals(current.key, key) && false == current.cancelled) {
+			log.fine("Cancelling superseded job '" + kind.name + "'.");
+			current.cancelled = true;
+		}
+
+		long due = supersede ? now : Math.max(now, kind.latestStart + kind.minimumInterval);
+
+		if(kind.coalescing) {
+			Job waiting = kind.waiting.get(key);
+			if(null != waiting) {
+				// newest task wins, keep place in queue
+				kind.coalesced++;
+				waiting.task = task;
+				waiting.deadline = deadline;
+				waiting.due = Math.min(waiting.due, due);
+				notifyAll();
+				preempt();
+				return waiting;
+			}
+		}
+
+		Job job = new Job(kind, key, task, due, deadline, sequence++);
+		queue.add(job);
+		if(kind.coalescing) {
+			kind.waiting.put(key, job);
+		}
+		notifyAll();
+
+		if(due > now) {
+			// check for preemption and wake up the worker as soon as the job is due
+			timeService.schedule(() -> {
+				synchronized(JobScheduler.this) {
+					preempt();
+					JobScheduler.this.notifyAll();
+				}
+			}, (due - now) * 1000);
+		} else {
+			preempt();
+		}
+		return job;
+	}
+
+	/**
+	 * Removes a waiting job from the queue or cancels a running one.
+	 *
+	 * @param job
+	 */
+	public synchronized void cancel(Job job) {
+		if(queue.remove(job)) {
+			job.kind.waiting.remove(job.key, job);
+			job.kind.cancelled++;
+		}
+		job.cancelled = true;
+	}
+
+	/**
+	 * Cancels the running job if it is preemptible and a job with higher priority is due. Has to be called holding the lock.
+	 */
+	private void preempt() {
+		if(null == current || false == current.kind.preemptible || current.cancelled) {
+			return;
+		}
+		long now = timeService.now();
+		for(Job job : queue) {
+			if(job.due <= now && job.kind.priority > current.kind.priority) {
+				log.info("Preempting job '" + current.kind.name + "' for job '" + job.kind.name + "'.");
+				current.preempted = true;
+				current.cancelled = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the next job to run, i.e. the due job with the highest priority and the earliest deadline, or <i>null</i>. Has to be called holding the lock.
+	 *
+	 * @param now
+	 * @return
+	 */
+	private Job next(long now) {
+		Job next = null;
+		for(Job job : queue) {
+			if(job.due > now) {
+				continue;
+			}
+			if(null == next || job.kind.priority > next.kind.priority ||
+					(job.kind.priority == next.kind.priority && (job.deadline < next.deadline ||
+							(job.deadline == next.deadline && job.sequence < next.sequence)))) {
+				next = job;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Worker loop.
+	 */
+	private void work() {
+		while(running) {
+			Job job;
+			long start;
+			synchronized(this) {
+				long now = timeService.now();
+				job = next(now);
+				if(null == job) {
+					// wait for the earliest job or a new one
+					long due = Long.MAX_VALUE;
+					for(Job waiting : queue) {
+						due = Math.min(due, waiting.due);
+					}
+					try {
+						if(due == Long.MAX_VALUE) {
+							wait();
+						} else {
+							wait(Math.max(1, timeService.convert(due - now)) * 1000);
+						}
+					} catch (InterruptedException e) {
+						if(running) {
+							log.severe(e.toString());
+						}
+					}
+					continue;
+				}
+
+				queue.remove(job);
+				job.kind.waiting.remove(job.key, job);
+				if(job.deadline < now) {
+					job.kind.expired++;
+					log.warning("Dropping job '" + job.kind.name + "', deadline passed " + (now - job.deadline) + "s ago.");
+					continue;
+				}
+
+				long waited = now - job.due;
+				job.kind.waitingTime += waited;
+				job.kind.maxWaitingTime = Math.max(job.kind.maxWaitingTime, waited);
+				job.kind.started++;
+				job.kind.latestStart = now;
+				current = job;
+				start = System.currentTimeMillis();
+			}
+
+			log.info("Starting job '" + job.kind.name + "'.");
+			try {
+				job.task.run(job);
+			} catch(Exception e) {
+				log.severe("Job '" + job.kind.name + "' failed.");
+				log.severe(e.toString());
+				e.printStackTrace();
+			}
+
+			synchronized(this) {
+				current = null;
+				long duration = System.currentTimeMillis() - start;
+				job.kind.runningTime += duration;
+				if(job.cancelled) {
+					job.kind.cancelled++;
+					log.info("Cancelled job '" + job.kind.name + "' after " + duration + "ms.");
+				} else {
+					job.kind.finished++;
+					log.info("Finished job '" + job.kind.name + "' after " + duration + "ms.");
+				}
+				if(job.preempted) {
+					requeue(job);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues a preempted job again, such that it runs as soon as the preempting jobs are done. Has to be called holding the lock.
+	 * 
+	 * @param job
+	 */
+	private void requeue(Job job) {
+		long now = timeService.now();
+		if(job.kind.coalescing) {
+			Job waiting = job.kind.waiting.get(job.key);
+			if(null != waiting) {
+				// a newer job is waiting anyway
+				waiting.due = Math.min(waiting.due, now);
+				return;
+			}
+		}
+		Job copy = new Job(job.kind, job.key, job.task, now, job.deadline, sequence++);
+		queue.add(copy);
+		if(job.kind.coalescing) {
+			job.kind.waiting.put(job.key, copy);
+		}
+	}
+	
+	/**
+	 * Returns the number of queued jobs.
+	 *
+	 * @return
+	 */
+	public synchronized int getQueueLength() {
+		return queue.size();
+	}
+
+	/**
+	 * Logs and resets the statistics of the given kinds.
+	 *
+	 * @param kinds
+	 */
+	public synchronized void logStatistics(Kind... kinds) {
+		StringBuilder builder = new StringBuilder("Job statistics for '" + name + "': queued=" + queue.size());
+		for(Kind kind : kinds) {
+			long started = kind.started;
+			builder.append(" '" + kind.name + "' submitted=" + kind.submitted +
+					" coalesced=" + kind.coalesced +
+					" finished=" + kind.finished +
+					" cancelled=" + kind.cancelled +
+					" expired=" + kind.expired +
+					" wait avg=" + (started == 0 ? 0 : kind.waitingTime / started) + "s" +
+					" max=" + kind.maxWaitingTime + "s" +
+					" run avg=" + (started == 0 ? 0 : kind.runningTime / started) + "ms");
+			kind.submitted = 0;
+			kind.coalesced = 0;
+			kind.started = 0;
+			kind.finished = 0;
+			kind.cancelled = 0;
+			kind.expired = 0;
+			kind.waitingTime = 0;
+			kind.maxWaitingTime = 0;
+			kind.runningTime = 0;
+		}
+		log.info(builder.toString());
+	}
+
+	/**
+	 * Stops the worker after the running job. Queued jobs are discarded.
+	 */
+	public void shutdown() {
+		running = false;
+		synchronized(this) {
+			if(null != current) {
+				current.cancelled = true;
+			}
+			queue.clear();
+		}
+		worker.interrupt();
+	}
+}
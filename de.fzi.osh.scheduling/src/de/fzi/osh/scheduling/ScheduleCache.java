@@ -0,0 +1,271 @@
+package de.fzi.osh.scheduling;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import de.fzi.osh.optimization.schedule.ScheduleData;
+import de.fzi.osh.types.flexibilities.Flexibility;
+import de.fzi.osh.types.flexibilities.Task;
+import de.fzi.osh.types.math.IntInterval;
+import de.fzi.osh.types.math.LongInterval;
+
+/**
+ * Local view of the schedules (flexibilities and tasks) of all flexibility providers.
+ *
+ * A schedule stays valid until the provider announces a change, the scheduler changes it, it becomes too old or the optimization slot ends.
+ * The latter is needed, since providers like batteries adapt their corridors to the current state without announcing a change.
+ * Every invalidation increases the version of a provider. Schedules retrieved while the version changed are not stored,
+ * since they may already be outdated.
+ * 
+ * Flexibilities and tasks are copied when stored and when returned, since optimizers alter tasks in place.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class ScheduleCache {
+
+	/**
+	 * Cached schedule of a provider.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	private static class Entry {
+		long version;
+		ScheduleData schedule;
+		/**
+		 * Epoch second of retrieval.
+		 */
+		long retrieved;
+		Map<Integer, Flexibility> flexibilities = new HashMap<Integer, Flexibility>();
+		Map<Integer, Task> tasks = new HashMap<Integer, Task>();
+	}
+
+	private int maxAge;
+	private int slotLength;
+	private Map<UUID, Entry> entries = new HashMap<UUID, Entry>();
+
+	// statistics
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxAge seconds a schedule is used at most. 0 disables caching.
+	 * @param slotLength optimization slot length in seconds, schedules are only used within the slot they have been retrieved in
+	 */
+	public ScheduleCache(int maxAge, int slotLength) {
+		this.maxAge = maxAge;
+		this.slotLength = Math.max(1, slotLength);
+	}
+
+	private Entry getEntry(UUID uuid) {
+		Entry entry = entries.get(uuid);
+		if(null == entry) {
+			entry = new Entry();
+			entries.put(uuid, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the current version of a provider. Has to be requested before retrieving its schedule.
+	 *
+	 * @param uuid
+	 * @return
+	 */
+	public synchronized long getVersion(UUID uuid) {
+		return getEntry(uuid).version;
+	}
+
+	/**
+	 * Marks the schedule of a provider as outdated.
+	 *
+	 * @param uuid provider or <i>null</i> for all providers
+	 */
+	public synchronized void invalidate(UUID uuid) {
+		if(null == uuid) {
+			for(Entry entry : entries.values()) {
+				entry.version++;
+				entry.schedule = null;
+			}
+		} else {
+			Entry entry = getEntry(uuid);
+			entry.version++;
+			entry.schedule = null;
+		}
+	}
+
+	/**
+	 * Stores a retrieved schedule, if the provider has not been invalidated since the retrieval started.
+	 *
+	 * @param uuid provider
+	 * @param schedule
+	 * @param version version of the provider before the retrieval started
+	 * @param now epoch seconds
+	 * @return <i>false</i> if the schedule has not been stored
+	 */
+	public synchronized boolean put(UUID uuid, ScheduleData schedule, long version, long now) {
+		Entry entry = getEntry(uuid);
+		if(maxAge <= 0 || entry.version != version) {
+			return false;
+		}
+		entry.schedule = copy(schedule);
+		entry.retrieved = now;
+		entry.flexibilities.clear();
+		for(Flexibility flexibility : entry.schedule.flexibilities) {
+			entry.flexibilities.put(flexibility.id, flexibility);
+		}
+		entry.tasks.clear();
+		for(Task task : entry.schedule.tasks) {
+			entry.tasks.put(task.id, task);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the schedule of a provider if it is valid and covers the given time frame, otherwise <i>null</i>.
+	 *
+	 * @param uuid
+	 * @param from
+	 * @param to
+	 * @param now epoch seconds
+	 * @return a copy of the cached schedule
+	 */
+	public synchronized ScheduleData get(UUID uuid, long from, long to, long now) {
+		Entry entry = entries.get(uuid);
+		if(null == entry || null == entry.schedule || entry.retrieved + maxAge < now ||
+				Math.floorDiv(entry.retrieved, slotLength) != Math.floorDiv(now, slotLength) ||
+				entry.schedule.from > from || entry.schedule.to < to) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return copy(entry.schedule);
+	}
+
+	/**
+	 * Returns a copy of a cached flexibility or <i>null</i>.
+	 *
+	 * @param uuid
+	 * @param id
+	 * @return
+	 */
+	public synchronized Flexibility getFlexibility(UUID uuid, int id) {
+		Entry entry = entries.get(uuid);
+		return (null == entry || null == entry.schedule) ? null : copy(entry.flexibilities.get(id));
+	}
+
+	/**
+	 * Returns a copy of a cached task or <i>null</i>.
+	 *
+	 * @param uuid
+	 * @param id
+	 * @return
+	 */
+	public synchronized Task getTask(UUID uuid, int id) {
+		Entry entry = entries.get(uuid);
+		return (null == entry || null == entry.schedule) ? null : copy(entry.tasks.get(id));
+	}
+
+	/**
+	 * Returns the number of schedules served from the cache.
+	 *
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of schedules that had to be retrieved.
+	 *
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Copies a schedule including its flexibilities and tasks.
+	 * 
+	 * @param schedule
+	 * @return
+	 */
+	private static ScheduleData copy(ScheduleData schedule) {
+		ScheduleData result = new ScheduleData();
+		result.uuid = schedule.uuid;
+		result.from = schedule.from;
+		result.to = schedule.to;
+		result.constraints = (null == schedule.constraints) ? null : Arrays.copyOf(schedule.constraints, schedule.constraints.length);
+		result.flexibilities = new Flexibility[schedule.flexibilities.length];
+		for(int i = 0; i < result.flexibilities.length; i++) {
+			result.flexibilities[i] = copy(schedule.flexibilities[i]);
+		}
+		result.tasks = new Task[schedule.tasks.length];
+		for(int i = 0; i < result.tasks.length; i++) {
+			result.tasks[i] = copy(schedule.tasks[i]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Copies a flexibility.
+	 * 
+	 * @param flexibility may be <i>null</i>
+	 * @return
+	 */
+	private static Flexibility copy(Flexibility flexibility) {
+		if(null == flexibility) {
+			return null;
+		}
+		Flexibility result = new Flexibility();
+		result.id = flexibility.id;
+		result.taskId = flexibility.taskId;
+		result.adaptable = flexibility.adaptable;
+		result.stoppingTime = new LongInterval(flexibility.stoppingTime.min, flexibility.stoppingTime.max);
+		result.runningTime = new IntInterval(flexibility.runningTime.min, flexibility.runningTime.max);
+		result.powerCorridor = copy(flexibility.powerCorridor);
+		result.energyCorridor = copy(flexibility.energyCorridor);
+		return result;
+	}
+	
+	/**
+	 * Copies a corridor.
+	 * 
+	 * @param corridor
+	 * @return
+	 */
+	private static NavigableMap<Integer, IntInterval> copy(NavigableMap<Integer, IntInterval> corridor) {
+		NavigableMap<Integer, IntInterval> result = new TreeMap<Integer, IntInterval>();
+		for(Map.Entry<Integer, IntInterval> entry : corridor.entrySet()) {
+			result.put(entry.getKey(), new IntInterval(entry.getValue().min, entry.getValue().max));
+		}
+		return result;
+	}
+	
+	/**
+	 * Copies a task.
+	 * 
+	 * @param task may be <i>null</i>
+	 * @return
+	 */
+	private static Task copy(Task task) {
+		if(null == task) {
+			return null;
+		}
+		Task result = new Task();
+		result.id = task.id;
+		result.flexibilityId = task.flexibilityId;
+		result.adaptable = task.adaptable;
+		result.startingTime = task.startingTime;
+		result.runningTime = task.runningTime;
+		result.power = (null == task.power) ? null : new TreeMap<Integer, Integer>(task.power);
+		return result;
+	}
+}
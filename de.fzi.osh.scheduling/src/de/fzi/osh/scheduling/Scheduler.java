@@ -28,7 +28,8 @@ import de.fzi.osh.com.fms.PublicSchedule;
 import de.fzi.osh.core.component.OshComponent;
 import de.fzi.osh.core.configuration.BaseConfiguration;
 import de.fzi.osh.core.configuration.ConfigurationService;
-import de.fzi.osh.core.data.Json;
+import de.fzi.osh.core.data.FieldRecord;
+import de.fzi.osh.core.data.Journal;
 import de.fzi.osh.forecasting.ForecastingService;
 import de.fzi.osh.optimization.OptimizationService;
 import de.fzi.osh.scheduling.communication.SchedulerEnabledListener;
@@ -68,15 +69,21 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 	private SchedulerCommunication bus;
 	
 	// optimization
-	private SchedulerOptimizationQueue optimizationQueue;
+	private JobScheduler jobScheduler;
+	private JobScheduler.Kind initialPublicationJob;
+	private JobScheduler.Kind updatePublicationJob;
+	private JobScheduler.Kind complianceOptimizationJob;
 	
 	// scheduler data
 	private volatile SchedulerData data;
+	private Journal<SchedulerData, FieldRecord> journal;
 	
 	// temporary data
 	// for keeping track of the adaptable flexibilities. Reason for employing a second map is the accessibility of the task id.
 	private Map<UUID, Map<Integer, Task>> adaptableTasks;
 	private Map<UUID, Map<Integer, Flexibility>> adaptableFlexibilities;
+	// schedules of flexibility providers
+	private ScheduleCache scheduleCache;
 	
 	/**
 	 * Constructor
@@ -103,24 +110,25 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 	}
 	
 	/**
-	 * Loads the scheduler data from a file
+	 * Loads the scheduler data from snapshot and journal
 	 */
 	private void restoreState(String filename) {
-		data = Json.readFile(filename, SchedulerData.class);
+		journal = new Journal<SchedulerData, FieldRecord>(filename, SchedulerData.class, FieldRecord.class, FieldRecord::apply, 
+				configuration.journalCompactionThreshold);
+		data = journal.recover();
 	}
 	
 	/**
-	 * Writes all data needed to persist into the persistence file
-	 */
-	public void saveState() {
-		saveState(configuration.schedulerDataFile);
-	}
-	
-	/**
-	 * Writes the scheduler data to a file
+	 * Persists changed fields of the scheduler data. Without fields all data is written.
+	 * 
+	 * @param fields names of changed fields
 	 */
-	private synchronized void saveState(String filename) {
-		Json.writeFile(filename, data);
+	public synchronized void saveState(String... fields) {
+		if(fields.length == 0) {
+			journal.snapshot(data);
+		} else {
+			journal.append(data, FieldRecord.of(data, fields));
+		}
 	}
 	
 	/**
@@ -216,6 +224,15 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 		return adaptableFlexibilities;
 	}
 	
+	/**
+	 * Returns the cached schedules of all flexibility providers.
+	 * 
+	 * @return
+	 */
+	public ScheduleCache getScheduleCache() {
+		return scheduleCache;
+	}
+	
 	/**
 	 * Returns the bus connection.
 	 * 
@@ -226,12 +243,33 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 	}
 	
 	/**
-	 * Returns the optimization queue.
+	 * Queues a target schedule optimization. Optimizations are coalesced and at most one is started per minimum compliance optimization interval.
 	 * 
-	 * @return
+	 * @param supersede if <i>true</i> a running optimization is cancelled and the new one is started as soon as possible
 	 */
-	public SchedulerOptimizationQueue getOptimizationQueue() {
-		return optimizationQueue;
+	public void queueTargetScheduleOptimization(boolean supersede) {
+		jobScheduler.submit(complianceOptimizationJob, null, job -> {
+			TargetScheduleOptimizationData data = new TargetScheduleOptimizationData();
+			data.job = job;
+			observer.update(data);
+		}, Long.MAX_VALUE, supersede);
+	}
+	
+	/**
+	 * Queues a schedule publication. Publications run before optimizations and are dropped if they could not be started before the end of the schedule.
+	 * Update publications are coalesced and at most one is started per minimum schedule update publication interval.
+	 * 
+	 * @param data
+	 */
+	public void queueSchedulePublication(SchedulePublishingData data) {
+		log.finest("Queuing schedule publication. [initial='" + data.initial + "']");
+		if(data.initial) {
+			// one publication per day
+			jobScheduler.submit(initialPublicationJob, data.from, job -> observer.update(data), data.to, false);
+		} else {
+			// updates can only happen for the current day, since there are no triggers for updates of the next day
+			jobScheduler.submit(updatePublicationJob, null, job -> observer.update(data), data.to, false);
+		}
 	}
 	
 	/**
@@ -313,13 +351,22 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 			data.incompleteUpdatePublication = null;
 		}
 		
+		scheduleCache = new ScheduleCache(configuration.scheduleCacheMaxAge, configuration.scheduleOptimizationSlotLength);
+		
 		// connect to bus
 		bus = new SchedulerCommunication(this, wampConfiguration);
 		bus.open();
 		bus.waitForConnection();
 
-		// optimization queue
-		optimizationQueue = new SchedulerOptimizationQueue(this);
+		// optimization jobs, publications first
+		jobScheduler = new JobScheduler("scheduler", timeService);
+		initialPublicationJob = jobScheduler.createKind("initial publication", 3, 0, true, false);
+		updatePublicationJob = jobScheduler.createKind("update publication", 2, configuration.minimumScheduleUpdatePublicationInterval, true, false);
+		complianceOptimizationJob = jobScheduler.createKind("target optimization", 1, configuration.minimumComplianceOptimizationInterval, true, true);
+		if(configuration.jobStatisticsInterval > 0) {
+			timeService.scheduleAtRate(() -> jobScheduler.logStatistics(initialPublicationJob, updatePublicationJob, complianceOptimizationJob),
+					configuration.jobStatisticsInterval * 1000L, configuration.jobStatisticsInterval * 1000L);
+		}
 		
 		// schedule a job for publishing schedules to fms	
 		{
@@ -385,7 +432,7 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 			        data.to = from.plus(1, ChronoUnit.DAYS).toEpochSecond();
 			        data.initial = true;
 			        
-			        optimizationQueue.queueSchedulePublication(data);
+			        queueSchedulePublication(data);
 				}
 			}, second, minute, hour);
 		}
@@ -402,7 +449,7 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 	        data.to = now.atZone(ZoneId.systemDefault()).truncatedTo(ChronoUnit.DAYS).plus(1, ChronoUnit.DAYS).toEpochSecond();
 	        data.initial = false;
 	        // queue publication
-		    this.getOptimizationQueue().queueSchedulePublication(data);
+		    this.queueSchedulePublication(data);
 		}
 	    /**
 	     * END DEBUG
@@ -432,7 +479,7 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 		        }				        
 		        publishingData.initial = true;
 		        
-		        optimizationQueue.queueSchedulePublication(publishingData);
+		        queueSchedulePublication(publishingData);
 			}
 		} catch(Exception e) {
 			log.severe("Making up on initial schedule publication failed.");
@@ -447,9 +494,9 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 		timeService.schedule(new Runnable() {
 			@Override
 			public void run() {
-				optimizationQueue.queueTargetScheduleOptimization(new TargetScheduleOptimizationData(), true);
+				queueTargetScheduleOptimization(true);
 			}}, 1, 0, 0); // every day  at 00:00:01
-		optimizationQueue.queueTargetScheduleOptimization(new TargetScheduleOptimizationData(), false);		
+		queueTargetScheduleOptimization(false);		
 		
 		// schedule a job for flexibility adaptation
 		timeService.scheduleAtRate(new Runnable() {			
@@ -650,6 +697,9 @@ public class Scheduler extends OshComponent<Scheduler, SchedulerConfiguration> {
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
 		log.info("Shutting down scheduler.");
+		if(null != jobScheduler) {
+			jobScheduler.shutdown();
+		}
 	}
 	
 }
@@ -8,8 +8,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 import de.fzi.osh.optimization.schedule.ScheduleData;
@@ -21,7 +21,9 @@ import de.fzi.osh.types.flexibilities.SchedulingResult;
 import de.fzi.osh.types.flexibilities.Task;
 import de.fzi.osh.wamp.Action0;
 import de.fzi.osh.wamp.Action1;
+import de.fzi.osh.wamp.CallOptions;
 import de.fzi.osh.wamp.CommunicationInterface;
+import de.fzi.osh.wamp.SubscriptionOptions;
 import de.fzi.osh.wamp.configuration.WampConfiguration;
 import de.fzi.osh.wamp.device.DeviceTopics;
 import de.fzi.osh.wamp.device.DriverState;
@@ -42,6 +44,8 @@ import de.fzi.osh.wamp.schedule.GetFlexibilityRequest;
 import de.fzi.osh.wamp.schedule.GetFlexibilityResponse;
 import de.fzi.osh.wamp.schedule.GetScheduleRequest;
 import de.fzi.osh.wamp.schedule.GetScheduleResponse;
+import de.fzi.osh.wamp.schedule.GetScheduleSnapshotRequest;
+import de.fzi.osh.wamp.schedule.GetScheduleSnapshotResponse;
 import de.fzi.osh.wamp.schedule.GetTaskRequest;
 import de.fzi.osh.wamp.schedule.GetTaskResponse;
 import de.fzi.osh.wamp.schedule.ScheduleChangedPublication;
@@ -49,6 +53,7 @@ import de.fzi.osh.wamp.schedule.ScheduleFlexibilityRequest;
 import de.fzi.osh.wamp.schedule.ScheduleTopics;
 import de.fzi.osh.wamp.schedule.SchedulingResponse;
 import de.fzi.osh.wamp.schedule.UnscheduleFlexibilityRequest;
+import ws.wamp.jawampa.ApplicationError;
 import ws.wamp.jawampa.SubscriptionFlags;
 
 public class SchedulerCommunication extends CommunicationInterface<Scheduler, SchedulerConfiguration>{
@@ -71,8 +76,12 @@ public class SchedulerCommunication extends CommunicationInterface<Scheduler, Sc
 		remsTopics = new RemsTopics(wampConfiguration.topicPrefix);
 		
 		connection.onOpen(state -> {
-			// subscribe to meter state via wildcard
-			connection.subscribe(meterTopics.meterState(null), SubscriptionFlags.Wildcard, MeterStatePublication.class, parameters -> {
+			// changes may have been missed while disconnected
+			component.getScheduleCache().invalidate(null);
+			
+			// subscribe to meter state via wildcard, only the latest state of each meter is of interest
+			connection.subscribe(meterTopics.meterState(null), SubscriptionFlags.Wildcard, MeterStatePublication.class, parameters -> parameters.uuid, 
+					SubscriptionOptions.conflate(), parameters -> {
 				// create data object
 				MeterMeasurementData measurement = new MeterMeasurementData();
 				measurement.uuid = parameters.uuid;
@@ -88,6 +97,8 @@ public class SchedulerCommunication extends CommunicationInterface<Scheduler, Sc
 			
 			// subscribe to schedule changes via wildcard
 			connection.subscribe(scheduleTopics.scheduleChanged(null), SubscriptionFlags.Wildcard, ScheduleChangedPublication.class, parameters -> {
+					// cached schedule is outdated, must happen before the observer triggers a new optimization
+					component.getScheduleCache().invalidate(parameters.uuid);
 					// create data object
 					FlexibilitiesChangedData change = new FlexibilitiesChangedData();
 					change.source = parameters.uuid;
@@ -169,7 +180,7 @@ public class SchedulerCommunication extends CommunicationInterface<Scheduler, Sc
 				},
 				error -> {
 					component.getData().targetChargeData = null;
-					component.saveState();
+					component.saveState("targetChargeData");
 					Scheduler.getControlCommunicationService().publishMessage("Setting target SOC failed." + System.lineSeparator() + error.toString());
 					log.severe("Setting target SOC failed.");
 					log.severe(error.toString());
@@ -196,7 +207,7 @@ public class SchedulerCommunication extends CommunicationInterface<Scheduler, Sc
 		System.out.println("Requesting power " + power.firstEntry().getValue() + " from flexibility " + flexibilityId);
 		
 		// do rpc
-		connection.call(scheduleTopics.adaptFlexibility(uuid), request, SchedulingResponse.class, onResponse, onError, onCompleted);
+		changeSchedule(uuid, scheduleTopics.adaptFlexibility(uuid), request, onResponse, onError, onCompleted);
 	}
 	
 	
@@ -219,7 +230,7 @@ public class SchedulerCommunication extends CommunicationInterface<Scheduler, Sc
 		request.power = power;
 		
 		// do rpc
-		connection.call(scheduleTopics.scheduleFlexibility(uuid), request, SchedulingResponse.class, onResponse, onError, onCompleted);
+		changeSchedule(uuid, scheduleTopics.scheduleFlexibility(uuid), request, onResponse, onError, onCompleted);
 	}
 	
 	/**
@@ -237,7 +248,33 @@ public class SchedulerCommunication extends CommunicationInterface<Scheduler, Sc
 		request.id = flexibilityId;
 		
 		// do rpc
-		connection.call(scheduleTopics.unscheduleFlexibility(uuid), request, SchedulingResponse.class, onResponse, onError, onCompleted);
+		changeSchedule(uuid, scheduleTopics.unscheduleFlexibility(uuid), request, onResponse, onError, onCompleted);
+	}
+	
+	/**
+	 * Calls a procedure changing the schedule of a device. The cached schedule of the device is invalidated before and after the call.
+	 * 
+	 * @param uuid
+	 * @param uri
+	 * @param request
+	 * @param onResponse
+	 * @param onError
+	 * @param onCompleted
+	 */
+	private<P> void changeSchedule(UUID uuid, String uri, P request, Action1<SchedulingResponse> onResponse, Action1<Throwable> onError, Action0 onCompleted) {
+		ScheduleCache cache = component.getScheduleCache();
+		cache.invalidate(uuid);
+		connection.call(uri, request, SchedulingResponse.class, response -> {
+					cache.invalidate(uuid);
+					if(null != onResponse) {
+						onResponse.call(response);
+					}
+				}, error -> {
+					cache.invalidate(uuid);
+					if(null != onError) {
+						onError.call(error);
+					}
+				}, onCompleted);
 	}
 	
 	/**
@@ -302,99 +339,182 @@ public class SchedulerCommunication extends CommunicationInterface<Scheduler, Sc
 	 * @return
 	 */
 	public Map<UUID, ScheduleData> retrieveSchedules(long from, long to) {
+		return retrieveSchedules(from, to, configuration.flexibilityProviders);
+	}
+	
+	/**
+	 * Returns the schedules of the given devices, as far as they are reachable. Valid cached schedules are not requested again.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param devices
+	 * @return
+	 */
+	public Map<UUID, ScheduleData> retrieveSchedules(long from, long to, UUID[] devices) {
 		
 		log.fine("Retrieving schedule from '" + from + "' to '" + to + "'.");
 		
-		CountDownLatch scheduleLatch = new CountDownLatch(configuration.flexibilityProviders.length);
-		Map<UUID, GetScheduleResponse> responses = new ConcurrentHashMap<UUID, GetScheduleResponse>();
+		// requests only read data and may be repeated
+		CallOptions options = CallOptions.retry(configuration.rpcTimeout, configuration.rpcRetries, configuration.rpcRetryDelay);
 		
-		// first get schedule data
-		for(UUID uuid : configuration.flexibilityProviders) {
-			this.getSchedule(uuid, from, to, 
-					response -> {
-						responses.put(response.uuid, response);
-						scheduleLatch.countDown();
-					}, error -> {
-						log.severe("Could not retrieve schedules.");
-						scheduleLatch.countDown();
-					}, null);
+		// request snapshots of all devices in parallel
+		ScheduleCache cache = component.getScheduleCache();
+		long now = Scheduler.getTimeService().now();
+		int cached = 0;
+		List<CompletableFuture<ScheduleData>> requests = new ArrayList<CompletableFuture<ScheduleData>>();
+		for(UUID uuid : devices) {
+			ScheduleData cachedSchedule = cache.get(uuid, from, to, now);
+			if(null != cachedSchedule) {
+				requests.add(CompletableFuture.completedFuture(cachedSchedule));
+				cached++;
+				continue;
+			}
+			// remember version to detect changes during retrieval
+			long version = cache.getVersion(uuid);
+			
+			GetScheduleSnapshotRequest request = new GetScheduleSnapshotRequest();
+			request.from = from;
+			request.to = to;
+			
+			requests.add(connection.callAsync(scheduleTopics.getScheduleSnapshot(uuid), request, GetScheduleSnapshotResponse.class, options)
+					.handle((snapshot, error) -> {
+						if(null == error) {
+							if(null == snapshot) {
+								throw new IllegalStateException("Empty schedule response.");
+							}
+							ScheduleData scheduleData = new ScheduleData();
+							scheduleData.uuid = snapshot.uuid;
+							scheduleData.from = snapshot.from;
+							scheduleData.to = snapshot.to;
+							scheduleData.constraints = snapshot.constraints;
+							scheduleData.flexibilities = snapshot.flexibilities;
+							scheduleData.tasks = snapshot.tasks;
+							return CompletableFuture.completedFuture(scheduleData);
+						}
+						Throwable cause = (error instanceof CompletionException) ? error.getCause() : error;
+						if(false == cause instanceof ApplicationError) {
+							throw new CompletionException(cause);
+						}
+						// device does not offer snapshots (or failed doing so), request schedule, flexibilities and tasks one by one
+						log.fine("Snapshot of '" + uuid + "' not available (" + cause + "). Requesting schedule details separately.");
+						return retrieveSchedule(uuid, from, to, options);
+					})
+					.thenCompose(scheduleData -> scheduleData)
+					.thenApply(scheduleData -> {
+						cache.put(uuid, scheduleData, version, now);
+						return scheduleData;
+					})
+					.exceptionally(error -> {
+						log.severe("Could not retrieve schedule of '" + uuid + "': " + error.toString());
+						return null;
+					}));
 		}
 		
-		// wait till all requests are finished
-		try {
-			scheduleLatch.await();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		log.fine("Using " + cached + " cached schedules, requested " + (devices.length - cached) + ".");
+		
+		// wait till all requests are finished, every request is limited by its timeout
+		Map<UUID, ScheduleData> schedules = new HashMap<UUID, ScheduleData>();
+		for(CompletableFuture<ScheduleData> request : requests) {
+			ScheduleData scheduleData = request.join();
+			if(null != scheduleData) {
+				schedules.put(scheduleData.uuid, scheduleData);
+			}
 		}
 		
-		if(responses.size() == 0) {
+		if(schedules.size() == 0) {
 			log.warning("No schedules found.");
 			return null;
 		}
 		
-		CountDownLatch scheduleDetailLatch = new CountDownLatch(responses.size());
-		
-		Map<UUID, ScheduleData> schedules = new HashMap<UUID, ScheduleData>();
+		return schedules;
+	}
+	
+	/**
+	 * Requests the schedule of a device and then all flexibilities and tasks listed in it.
+	 * 
+	 * @param uuid
+	 * @param from
+	 * @param to
+	 * @param options
+	 * @return
+	 */
+	private CompletableFuture<ScheduleData> retrieveSchedule(UUID uuid, long from, long to, CallOptions options) {
+		GetScheduleRequest request = new GetScheduleRequest();
+		request.from = from;
+		request.to = to;
 		
-		// now retrieve all flexibilities and tasks
-		for(GetScheduleResponse response : responses.values()) {
-			
-			log.fine("Requesting flexibilities " + Arrays.toString(response.flexibilities) + 
-					" and tasks " + Arrays.toString(response.tasks) + " from application '" + response.uuid + "'." );
-			// fill in available
-			ScheduleData scheduleData = new ScheduleData();
-			scheduleData.uuid = response.uuid;
-			scheduleData.from = response.from;
-			scheduleData.to = response.to;
-			scheduleData.constraints = response.constraints;					
-			// set data as input
-			schedules.put(response.uuid, scheduleData);
-			
-			CountDownLatch deviceLatch = new CountDownLatch(response.flexibilities.length + response.tasks.length);
-			List<Flexibility> flexibilities = new ArrayList<Flexibility>();
-			List<Task> tasks = new ArrayList<Task>();
-			// request missing data
-			for(int id : response.flexibilities) {
-				this.getFlexibility(response.uuid, id, flexibility -> {
-						flexibilities.add(flexibility.flexibility);
-						deviceLatch.countDown();
-					}, error -> {
-						log.severe("Could not retrieve flexibility '" + id + "'.");
-						deviceLatch.countDown();
-					}, null);
-			}
-			for(int id : response.tasks) {
-				this.getTask(response.uuid, id, task -> {
-						tasks.add(task.task);
-						deviceLatch.countDown();
-					}, error -> {
-						log.severe("Could not retrieve task '" + id + "'.");
-						deviceLatch.countDown();
-					}, null);
-			}
-			// wait till all requests for this device are finished
-			try {
-				deviceLatch.await();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			
-			// fill in missing data
-			scheduleData.flexibilities = flexibilities.toArray(new Flexibility[flexibilities.size()]);
-			scheduleData.tasks = tasks.toArray(new Task[tasks.size()]);
-			
-			// finished
-			scheduleDetailLatch.countDown();
+		return connection.callAsync(scheduleTopics.getSchedule(uuid), request, GetScheduleResponse.class, options)
+				.thenCompose(response -> retrieveScheduleDetails(response, options));
+	}
+	
+	/**
+	 * Requests all flexibilities and tasks listed in a schedule. Flexibilities and tasks that could not be retrieved are left out.
+	 * 
+	 * @param response
+	 * @param options
+	 * @return
+	 */
+	private CompletableFuture<ScheduleData> retrieveScheduleDetails(GetScheduleResponse response, CallOptions options) {
+		if(null == response) {
+			throw new IllegalStateException("Empty schedule response.");
 		}
+		log.fine("Requesting flexibilities " + Arrays.toString(response.flexibilities) + 
+				" and tasks " + Arrays.toString(response.tasks) + " from application '" + response.uuid + "'." );
+		// fill in available
+		ScheduleData scheduleData = new ScheduleData();
+		scheduleData.uuid = response.uuid;
+		scheduleData.from = response.from;
+		scheduleData.to = response.to;
+		scheduleData.constraints = response.constraints;
 		
-		// wait again for all requests to finish
-		try {
-			scheduleDetailLatch.await();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		// request missing data
+		List<CompletableFuture<Flexibility>> flexibilities = new ArrayList<CompletableFuture<Flexibility>>();
+		for(int id : response.flexibilities) {
+			GetFlexibilityRequest request = new GetFlexibilityRequest();
+			request.id = id;
+			flexibilities.add(connection.callAsync(scheduleTopics.getFlexibility(response.uuid), request, GetFlexibilityResponse.class, options)
+					.handle((flexibility, error) -> {
+						if(null != error || null == flexibility) {
+							log.severe("Could not retrieve flexibility '" + id + "'.");
+							return null;
+						}
+						return flexibility.flexibility;
+					}));
+		}
+		List<CompletableFuture<Task>> tasks = new ArrayList<CompletableFuture<Task>>();
+		for(int id : response.tasks) {
+			GetTaskRequest request = new GetTaskRequest();
+			request.id = id;
+			tasks.add(connection.callAsync(scheduleTopics.getTask(response.uuid), request, GetTaskResponse.class, options)
+					.handle((task, error) -> {
+						if(null != error || null == task) {
+							log.severe("Could not retrieve task '" + id + "'.");
+							return null;
+						}
+						return task.task;
+					}));
 		}
 		
-		return schedules;
+		List<CompletableFuture<?>> all = new ArrayList<CompletableFuture<?>>(flexibilities);
+		all.addAll(tasks);
+		return CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[all.size()])).thenApply(done -> {
+			// fill in missing data
+			List<Flexibility> flexibilityList = new ArrayList<Flexibility>();
+			for(CompletableFuture<Flexibility> flexibility : flexibilities) {
+				if(null != flexibility.join()) {
+					flexibilityList.add(flexibility.join());
+				}
+			}
+			List<Task> taskList = new ArrayList<Task>();
+			for(CompletableFuture<Task> task : tasks) {
+				if(null != task.join()) {
+					taskList.add(task.join());
+				}
+			}
+			scheduleData.flexibilities = flexibilityList.toArray(new Flexibility[flexibilityList.size()]);
+			scheduleData.tasks = taskList.toArray(new Task[taskList.size()]);
+			return scheduleData;
+		});
 	}
 	
 	/**
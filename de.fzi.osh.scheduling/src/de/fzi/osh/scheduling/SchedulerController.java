@@ -4,10 +4,15 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.logging.Logger;
@@ -18,12 +23,14 @@ import de.fzi.osh.core.configuration.BaseConfiguration;
 import de.fzi.osh.core.configuration.BaseConfiguration.MeterConfiguration;
 import de.fzi.osh.core.oc.Controller;
 import de.fzi.osh.core.oc.DataObject;
-import de.fzi.osh.core.timeseries.IntegerTimeSlotTransformer;
-import de.fzi.osh.core.timeseries.TimeSeries;
+import de.fzi.osh.core.timeseries.Aggregation;
+import de.fzi.osh.core.timeseries.IntegerSlotSeries;
+import de.fzi.osh.core.timeseries.SlotResampler;
 import de.fzi.osh.forecasting.ForecastingService;
 import de.fzi.osh.forecasting.demand.ElectricityDemandForecast;
 import de.fzi.osh.forecasting.solar.SolarPowerForecast;
 import de.fzi.osh.optimization.OptimizationService;
+import de.fzi.osh.optimization.schedule.ScheduleData;
 import de.fzi.osh.optimization.schedule.SchedulingProblem;
 import de.fzi.osh.optimization.schedule.SchedulingSolution;
 import de.fzi.osh.optimization.schedule.TargetScheduleProblem;
@@ -50,6 +57,20 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 	private static TimeService timeService;
 	
 	private Object optimizationLock;
+	
+	/**
+	 * Last target schedule optimization. Kept for incremental re-optimization.
+	 */
+	private TargetScheduleProblem lastTargetProblem;
+	private TargetScheduleSolution lastTargetSolution;
+	private PublicSchedule lastTargetSchedule;
+	private long lastFullTargetOptimization;
+	/**
+	 * Devices whose schedule changed since the last target schedule optimization.
+	 */
+	private Set<UUID> changedDevices;
+	private boolean fullOptimizationRequired;
+	private Object changeLock;
 		
 	public SchedulerController(Scheduler component) {
 		super(component);
@@ -63,6 +84,10 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 		timeService = Scheduler.getTimeService();
 		
 		optimizationLock = new Object();
+		
+		changedDevices = new HashSet<UUID>();
+		fullOptimizationRequired = true;
+		changeLock = new Object();
 	}
 	
 	@Override
@@ -80,7 +105,8 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 			// persistence
 			component.saveState();
 			// start target schedule optimization
-			component.getOptimizationQueue().queueTargetScheduleOptimization(new TargetScheduleOptimizationData(), true);
+			requireFullOptimization();
+			component.queueTargetScheduleOptimization(true);
 		}
 		// flexibility adaption
 		else if(data instanceof ScheduleMonitoringData) {
@@ -90,7 +116,8 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 		// the set of available flexibilities has changed
 		else if(data instanceof FlexibilitiesChangedData) {
 			// fast response needed, no thread locking or sleeping in here!
-			component.getOptimizationQueue().queueTargetScheduleOptimization(new TargetScheduleOptimizationData(), false);
+			markChanged(((FlexibilitiesChangedData) data).source);
+			component.queueTargetScheduleOptimization(false);
 		}
 		// a target schedule optimization has to be performed
 		else if(data instanceof TargetScheduleOptimizationData) {
@@ -105,6 +132,8 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 			synchronized (optimizationLock) {
 				publishSchedule((SchedulePublishingData) data);
 			}
+			// tasks of all devices may have changed
+			requireFullOptimization();
 		}
 		// vnb communication
 		else if(data instanceof TargetBatteryChargeData) {
@@ -126,7 +155,7 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 		component.getCommunicationInterface().setEnabled(enabledData.enabled);	
 		
 		// may not be needed, if GCU sends enabled periodically
-		component.saveState();
+		component.saveState("GCUEnabled");
 	}
 	
 	/**
@@ -138,7 +167,7 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 		log.fine("Received battery charge command from VNB.");
 		
 		component.getData().targetChargeData = chargeData;
-		component.saveState();
+		component.saveState("targetChargeData");
 		
 		for(UUID uuid : baseConfiguration.batteryUUIDs) {
 			component.getCommunicationInterface().setBatteryTarget(uuid, chargeData.soc, chargeData.time);
@@ -249,11 +278,15 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 								
 								// restore power data
 								adaptableTask.power = powerDataBackup;
+								markChanged(entry.getKey());
 								
 								// only start a new thread if it is really necessary			
 								if(timeService.now() > component.getData().mostRecentTargetScheduleOptimization + configuration.minimumComplianceOptimizationInterval) {
-									component.getOptimizationQueue().queueTargetScheduleOptimization(new TargetScheduleOptimizationData(), false);
+									component.queueTargetScheduleOptimization(false);
 								}
+							} else {
+								// the device changed its task without publishing it, hence its last contribution is outdated
+								markChanged(entry.getKey());
 							}
 						}, error -> {
 							// DEBUG
@@ -263,10 +296,11 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 							
 							// restore power data
 							adaptableTask.power = powerDataBackup;
+							markChanged(entry.getKey());
 										
 							// only start a new thread if it is really necessary			
 							if(timeService.now() > component.getData().mostRecentTargetScheduleOptimization + configuration.minimumComplianceOptimizationInterval) {
-								component.getOptimizationQueue().queueTargetScheduleOptimization(new TargetScheduleOptimizationData(), false);
+								component.queueTargetScheduleOptimization(false);
 							}
 						}, null);
 			} else {
@@ -276,15 +310,64 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 				log.info("Schedule adaption not valid for application '" + entry.getKey() + "'.");
 				// restore power data
 				adaptableTask.power = powerDataBackup;
+				markChanged(entry.getKey());
 				// only start a new thread if it is really necessary			
 				if(timeService.now() > component.getData().mostRecentTargetScheduleOptimization + configuration.minimumComplianceOptimizationInterval) {
-					component.getOptimizationQueue().queueTargetScheduleOptimization(new TargetScheduleOptimizationData(), false);
+					component.queueTargetScheduleOptimization(false);
 				}
 			}
 		}
 	}
 	
 	
+	/**
+	 * Marks the schedule of a device as changed. The device is re-optimized by the next (incremental) target schedule optimization.
+	 * 
+	 * @param uuid device or <i>null</i> if unknown
+	 */
+	private void markChanged(UUID uuid) {
+		synchronized (changeLock) {
+			if(null == uuid) {
+				fullOptimizationRequired = true;
+			} else {
+				changedDevices.add(uuid);
+			}
+		}
+	}
+	
+	/**
+	 * Makes the next target schedule optimization a full one, i.e. with new forecasts and schedules of all devices.
+	 */
+	private void requireFullOptimization() {
+		synchronized (changeLock) {
+			fullOptimizationRequired = true;
+		}
+	}
+	
+	/**
+	 * Hands changes taken by a cancelled optimization over to the next one.
+	 * 
+	 * @param changes
+	 * @param full
+	 */
+	private void restoreChanges(Set<UUID> changes, boolean full) {
+		log.fine("Target schedule optimization has been cancelled.");
+		synchronized (changeLock) {
+			changedDevices.addAll(changes);
+			fullOptimizationRequired |= full;
+		}
+	}
+	
+	/**
+	 * Returns whether the job running an optimization has been cancelled.
+	 * 
+	 * @param optimizationData
+	 * @return
+	 */
+	private boolean isCancelled(TargetScheduleOptimizationData optimizationData) {
+		return null != optimizationData.job && optimizationData.job.isCancelled();
+	}
+	
 	/**
 	 * Returns the start of the current time slot as zoned date time. Assuming that an hours divides into an integer amount of slots.
 	 * 
@@ -343,18 +426,19 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 						ZonedDateTime.ofInstant(Instant.ofEpochSecond(from), ZoneId.systemDefault()),
 						ZonedDateTime.ofInstant(Instant.ofEpochSecond(to), ZoneId.systemDefault()), ElectricityDemandForecast.class, null);
 				
-				// convert to time series
-				TimeSeries<Integer> demandSeries = demand.getTimeSeries();
+				// convert to slot series
+				IntegerSlotSeries demandSeries = demand.getSlotSeries();
 				// adapt slot length if necessary
 				if(demand.timeSlotLength != configuration.scheduleOptimizationSlotLength) {
 					log.info("Time slot length of electricity demand forecast (" + demand.timeSlotLength + 
 							") and scheduling input (" + configuration.scheduleOptimizationSlotLength + ") do not match. Doing adaptation.");
 					
-					IntegerTimeSlotTransformer transformer = new IntegerTimeSlotTransformer(demand.forecastBegin.toInstant().getEpochSecond(),
-							demand.forecastEnd.toInstant().getEpochSecond(), configuration.scheduleOptimizationSlotLength);					
-					demandSeries = transformer.transform(demandSeries);
+					long begin = demand.forecastBegin.toInstant().getEpochSecond();
+					long end = demand.forecastEnd.toInstant().getEpochSecond();
+					demandSeries = SlotResampler.resample(demandSeries, begin, configuration.scheduleOptimizationSlotLength, 
+							(int)((end - begin) / configuration.scheduleOptimizationSlotLength), Aggregation.MEAN);
 				}
-				electricityDemand = demandSeries.getValues().values().stream().mapToInt(i -> i).toArray();
+				electricityDemand = demandSeries.getValues();
 				// convert W to Wh
 				for(int i = 0; i < electricityDemand.length; i++) {
 					electricityDemand[i] *= configuration.scheduleOptimizationSlotLength / 3600.0;
@@ -387,25 +471,26 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 							ZonedDateTime.ofInstant(Instant.ofEpochSecond(from), ZoneId.systemDefault()),
 							ZonedDateTime.ofInstant(Instant.ofEpochSecond(to), ZoneId.systemDefault()), SolarPowerForecast.class, meterUUID);
 					
-					// convert to time series
-					TimeSeries<Integer> powerSeries = power.getTimeSeries();
+					// convert to slot series
+					IntegerSlotSeries powerSeries = power.getSlotSeries();
 					// adapt slot length if necessary
 					if(power.timeSlotLength != configuration.scheduleOptimizationSlotLength) {
 						log.info("Time slot length of electricity demand forecast (" + power.timeSlotLength + 
 								") and scheduling input (" + configuration.scheduleOptimizationSlotLength + ") do not match. Doing adaptation.");
 					
-						IntegerTimeSlotTransformer transformer = new IntegerTimeSlotTransformer(power.forecastBegin.toInstant().getEpochSecond(),
-								power.forecastEnd.toInstant().getEpochSecond(), configuration.scheduleOptimizationSlotLength);					
-						powerSeries = transformer.transform(powerSeries);
+						long begin = power.forecastBegin.toInstant().getEpochSecond();
+						long end = power.forecastEnd.toInstant().getEpochSecond();
+						powerSeries = SlotResampler.resample(powerSeries, begin, configuration.scheduleOptimizationSlotLength, 
+								(int)((end - begin) / configuration.scheduleOptimizationSlotLength), Aggregation.MEAN);
 					}
 					
 					if(null == electricityProduction) {
 						// initial run
-						electricityProduction = powerSeries.getValues().values().stream().mapToInt(i -> i).toArray();
+						electricityProduction = powerSeries.getValues();
 					} else {
 						// add to previous forecasts
 						// both arrays should be of same length
-						int[] powers = powerSeries.getValues().values().stream().mapToInt(i -> i).toArray();
+						int[] powers = powerSeries.getValues();
 						for(int i = 0; i < electricityProduction.length; i++) {
 							electricityProduction[i] += powers[i];
 						}
@@ -421,6 +506,23 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 		}
 		return null;
 	}
+	
+	/**
+	 * Returns all available optimization services. The configured preferred service comes first.
+	 * 
+	 * @return
+	 */
+	private List<OptimizationService> getOptimizationServices() {
+		List<OptimizationService> services = new ArrayList<OptimizationService>();
+		for(OptimizationService service : component.getOptimizationServices()) {
+			if(service.getClass().getName().equals(configuration.preferredOptimizationService)) {
+				services.add(0, service);
+			} else {
+				services.add(service);
+			}
+		}
+		return services;
+	}
 		
 	/**
 	 * Start an optimization to follow the target schedule as close as possible.
@@ -428,6 +530,9 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 	 * @param optimizationData
 	 */
 	private void optimizeTargetScheduleCompliance(TargetScheduleOptimizationData optimizationData){		
+		if(isCancelled(optimizationData)) {
+			return;
+		}
 				
 		// collect problem data
 		TargetScheduleProblem problem = new TargetScheduleProblem();
@@ -463,35 +568,100 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 		ZonedDateTime startingTime = ZonedDateTime.ofInstant(Instant.ofEpochSecond(targetSchedule.startingTime), ZoneId.systemDefault());
 		problem.to = startingTime.plus(targetSchedule.slotLength * targetSchedule.consumption.length, ChronoUnit.SECONDS).toEpochSecond();
 		problem.slotLength = configuration.scheduleOptimizationSlotLength;
-	
-		// get forecasts
-		problem.electricityDemand = getConsumptionForecast(problem.currentSlotBegin, problem.to);
-		problem.electricityProduction = getProductionForecast(problem.currentSlotBegin, problem.to);
-		
-		// consider meter configuration
-		if(component.getBaseConfiguration().meterConfiguration == MeterConfiguration.ConsumptionIncludingProduction) {
-			// demand forecast includes a production forecast -> remove production
-			for(int i = 0; i < problem.electricityDemand.length; i++) {
-				problem.electricityDemand[i] -= problem.electricityProduction[i];
-				// both forecasts are independent, hence demand could be negative
-				if(problem.electricityDemand[i] < 0) {
-					problem.electricityDemand[i] = 0;
+		
+		// collect changes since the last run
+		Set<UUID> changes;
+		boolean full;
+		synchronized (changeLock) {
+			changes = changedDevices;
+			changedDevices = new HashSet<UUID>();
+			full = fullOptimizationRequired;
+			fullOptimizationRequired = false;
+		}
+		changes.retainAll(Arrays.asList(configuration.flexibilityProviders));
+		
+		// slots passed since the last run, -1 if the forecasts of the last run can not be reused
+		int shift = -1;
+		if(null != lastTargetProblem && lastTargetProblem.slotLength == problem.slotLength) {
+			long offset = problem.currentSlotBegin - lastTargetProblem.currentSlotBegin;
+			if(offset >= 0 && offset % problem.slotLength == 0 && offset / problem.slotLength < lastTargetProblem.electricityDemand.length
+					&& offset / problem.slotLength < lastTargetProblem.electricityProduction.length) {
+				shift = (int)(offset / problem.slotLength);
+			}
+		}
+		
+		// an incremental optimization is possible as long as the time frame and target stay the same
+		boolean incremental = false == full && configuration.incrementalComplianceOptimization 
+				&& null != lastTargetSolution && null != lastTargetSolution.contributions
+				&& lastTargetSchedule == component.getTargetSchedule()
+				&& lastTargetProblem.to == problem.to && shift >= 0
+				&& timeService.now() < lastFullTargetOptimization + configuration.fullComplianceOptimizationInterval;
+		
+		if(incremental) {
+			if(changes.isEmpty()) {
+				log.fine("No changes since last target schedule optimization.");
+				component.getData().mostRecentTargetScheduleOptimization = timeService.now();
+				return;
+			}
+			log.fine("Incremental target schedule optimization for " + changes + ".");
+			
+			// reuse forecasts of the last run
+			problem.electricityDemand = Arrays.copyOfRange(lastTargetProblem.electricityDemand, shift, lastTargetProblem.electricityDemand.length);
+			problem.electricityProduction = Arrays.copyOfRange(lastTargetProblem.electricityProduction, shift, lastTargetProblem.electricityProduction.length);
+			
+			// only get flexibilities and tasks of changed devices
+			problem.schedules = component.getCommunicationInterface().retrieveSchedules(problem.from, problem.to, changes.toArray(new UUID[changes.size()]));
+			if(null == problem.schedules) {
+				problem.schedules = new HashMap<UUID, ScheduleData>();
+			}
+			problem.previousSolution = lastTargetSolution;
+		} else {
+			// get forecasts
+			problem.electricityDemand = getConsumptionForecast(problem.currentSlotBegin, problem.to);
+			problem.electricityProduction = getProductionForecast(problem.currentSlotBegin, problem.to);
+			
+			// consider meter configuration
+			if(component.getBaseConfiguration().meterConfiguration == MeterConfiguration.ConsumptionIncludingProduction) {
+				// demand forecast includes a production forecast -> remove production
+				for(int i = 0; i < problem.electricityDemand.length; i++) {
+					problem.electricityDemand[i] -= problem.electricityProduction[i];
+					// both forecasts are independent, hence demand could be negative
+					if(problem.electricityDemand[i] < 0) {
+						problem.electricityDemand[i] = 0;
+					}
 				}
 			}
+			
+			// get all available flexibilities and tasks
+			problem.schedules = component.getCommunicationInterface().retrieveSchedules(problem.from, problem.to);
+			lastFullTargetOptimization = timeService.now();
 		}
 		
-		// get all available flexibilities and tasks
-		problem.schedules = component.getCommunicationInterface().retrieveSchedules(problem.from, problem.to);
+		if(isCancelled(optimizationData)) {
+			restoreChanges(changes, full);
+			return;
+		}
 		
-		// use first found solver
-		for(OptimizationService service : component.getOptimizationServices()) {
+		// use first found solver, preferred one first
+		for(OptimizationService service : getOptimizationServices()) {
 			if(service.canSolve(TargetScheduleProblem.class, TargetScheduleSolution.class)) {
 				// solve problem					
 				TargetScheduleSolution solution = service.solve(problem, TargetScheduleProblem.class, TargetScheduleSolution.class);
 				
+				if(isCancelled(optimizationData)) {
+					// solution is outdated
+					restoreChanges(changes, full);
+					return;
+				}
+				
 				// schedule tasks
 				component.getCommunicationInterface().scheduleTasks(solution.tasks, problem.schedules);
 				
+				// keep for incremental optimization
+				lastTargetProblem = problem;
+				lastTargetSolution = solution;
+				lastTargetSchedule = component.getTargetSchedule();
+				
 				// report if deviation from target schedule is to large
 				if(false == missingTargetSchedule && Math.abs(solution.expectedMaximumDeviation) > configuration.scheduleDeviationReportingThreshold) {
 					// report deviation
@@ -502,7 +672,7 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 			        data.to = now.atZone(ZoneId.systemDefault()).truncatedTo(ChronoUnit.DAYS).plus(1, ChronoUnit.DAYS).toEpochSecond();
 			        data.initial = false;
 			        // queue publication
-				    component.getOptimizationQueue().queueSchedulePublication(data);
+				    component.queueSchedulePublication(data);
 				}
 					
 				// finished
@@ -559,8 +729,8 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 			// get all available flexibilities and tasks
 			problem.schedules = component.getCommunicationInterface().retrieveSchedules(problem.from, problem.to);
 			
-			// use first found solver
-			for(OptimizationService service : component.getOptimizationServices()) {
+			// use first found solver, preferred one first
+			for(OptimizationService service : getOptimizationServices()) {
 				if(service.canSolve(SchedulingProblem.class, SchedulingSolution.class)) {
 					// solve problem					
 					SchedulingSolution solution = service.solve(problem, SchedulingProblem.class, SchedulingSolution.class);
@@ -646,7 +816,7 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 					component.setIncompleteUpdatePublication(publishingData);
 				}
 				// persistence
-				component.saveState();
+				component.saveState("incompleteInitialPublication", "incompleteUpdatePublication");
 			} else {
 				log.info("Successfully finished schedule publication.");
 				// reset any publication attempt for this type of publication
@@ -661,7 +831,8 @@ public class SchedulerController extends Controller<Scheduler, SchedulerConfigur
 					component.getData().latestScheduleUpdatePublication = timeService.now();
 				}
 				// persistence
-				component.saveState();
+				component.saveState("incompleteInitialPublication", "incompleteUpdatePublication", 
+						"latestInitialSchedulePublication", "latestScheduleUpdatePublication");
 			}
 		}
 	}
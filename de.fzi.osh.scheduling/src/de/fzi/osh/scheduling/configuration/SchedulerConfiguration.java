@@ -13,6 +13,10 @@ public class SchedulerConfiguration extends OshComponentConfiguration{
 	 * Persistence file.
 	 */
 	public String schedulerDataFile = "persistence_scheduler.json";
+	/**
+	 * Number of changes appended to the journal of the persistence file until a new snapshot is written.
+	 */
+	public int journalCompactionThreshold = 100;
 	/**
 	 * On schedule deviation the flexibility is adapted within this time horizon [seconds] starting from now. 
 	 */
@@ -25,6 +29,14 @@ public class SchedulerConfiguration extends OshComponentConfiguration{
 	 * Minimum time in seconds between two target schedule optimization runs caused by flexibility adaption.
 	 */
 	public int minimumComplianceOptimizationInterval = 15*60; // = 15 min
+	/**
+	 * If true, target schedule optimizations only re-optimize devices whose schedule changed and reuse forecasts and the result of the previous run.
+	 */
+	public boolean incrementalComplianceOptimization = true;
+	/**
+	 * Maximum time in seconds between two full target schedule optimizations (new forecasts, all devices) when optimizing incrementally.
+	 */
+	public int fullComplianceOptimizationInterval = 60*60; // = 1 h
 	/**
 	 * Minimum time in seconds between two schedule update publications.
 	 */
@@ -45,6 +57,31 @@ public class SchedulerConfiguration extends OshComponentConfiguration{
 	 * Time buffer in seconds for computation time. Flexibilities that have to be scheduled within this time buffer can't be included, since optimization takes too long.
 	 */
 	public int optimizationTimeBuffer = 1;
+	/**
+	 * Class name of the optimization service to use if several are able to solve a problem. If empty, the first one found is used.
+	 */
+	public String preferredOptimizationService = "";
+	/**
+	 * Time in ms to wait for the response of a device to a remote procedure call.
+	 */
+	public long rpcTimeout = 10 * 1000;
+	/**
+	 * Number of retries for failed remote procedure calls that only read data.
+	 */
+	public int rpcRetries = 1;
+	/**
+	 * Time in ms between two attempts of a remote procedure call.
+	 */
+	public long rpcRetryDelay = 1000;
+	/**
+	 * Maximum time in seconds a retrieved schedule of a flexibility provider is reused for optimizations, unless the provider announces a change.
+	 * Schedules are never reused after the optimization slot they have been retrieved in. 0 disables caching.
+	 */
+	public int scheduleCacheMaxAge = 15 * 60; // = 15 min
+	/**
+	 * Seconds between logging statistics of optimization and publication jobs. 0 disables logging.
+	 */
+	public int jobStatisticsInterval = 60 * 60; // = 1 h
 	/**
 	 * Time waited in seconds until another publishing attempt is started.
 	 */
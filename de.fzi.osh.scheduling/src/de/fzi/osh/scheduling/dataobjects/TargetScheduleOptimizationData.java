@@ -1,6 +1,7 @@
 package de.fzi.osh.scheduling.dataobjects;
 
 import de.fzi.osh.core.oc.DataObject;
+import de.fzi.osh.scheduling.JobScheduler;
 
 /**
  * This data object is used to tell the controller to start a new optimization. This indirect starting mechanism is used 
@@ -11,4 +12,9 @@ import de.fzi.osh.core.oc.DataObject;
  */
 public class TargetScheduleOptimizationData implements DataObject{
 		// if there is data added in this class, re-evaluate the optimization logic [!]
+	
+	/**
+	 * Job running the optimization. The optimization stops as soon as possible if the job is cancelled.
+	 */
+	public JobScheduler.Job job;
 }
@@ -32,7 +32,7 @@ public class RetrySchedulePublicationJob implements Runnable{
 				log.info("Dropping old information on update publication.");
 				data.incompleteUpdatePublication = null;
 			} else {
-				component.getOptimizationQueue().queueSchedulePublication(data.incompleteUpdatePublication);
+				component.queueSchedulePublication(data.incompleteUpdatePublication);
 			}
 		}
 		if(null != data.incompleteInitialPublication) {
@@ -41,7 +41,7 @@ public class RetrySchedulePublicationJob implements Runnable{
 				log.info("Dropping old information on initial publication.");
 				data.incompleteInitialPublication = null;
 			} else {
-				component.getOptimizationQueue().queueSchedulePublication(data.incompleteInitialPublication);	
+				component.queueSchedulePublication(data.incompleteInitialPublication);	
 			}
 		}
 	}
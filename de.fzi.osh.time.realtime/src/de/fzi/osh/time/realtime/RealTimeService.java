@@ -2,10 +2,12 @@ package de.fzi.osh.time.realtime;
 
 import java.time.Instant;
 import java.time.ZonedDateTime;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.osgi.service.component.annotations.Activate;
@@ -14,17 +16,83 @@ import org.osgi.service.component.annotations.Deactivate;
 
 import de.fzi.osh.time.TimeService;
 
-@Component(immediate=true, service=TimeService.class)
+/**
+ * Time service using the system clock. All timed tasks share a single pool of scheduler threads, hence they must not block.
+ * Tasks blocking on I/O hand their work over to a {@link de.fzi.osh.time.BlockingTask}.
+ * 
+ * The pool size is taken from the component property <i>poolSize</i> or, outside of OSGi, from the system property 
+ * <i>de.fzi.osh.time.poolSize</i>.
+ * 
+ * @author K. Foerderer
+ *
+ */
+@Component(immediate=true, service=TimeService.class, property={"poolSize:Integer=4"})
 public class RealTimeService implements TimeService{
 	
 	private static Logger log = Logger.getLogger(RealTimeService.class.getName());
 
+	/**
+	 * Default number of scheduler threads. Used when the service is created outside of OSGi and no system property is set.
+	 */
+	public static final int DEFAULT_POOL_SIZE = 4;
+	
+	/**
+	 * Number of scheduler threads
+	 */
+	private int poolSize = Math.max(1, Integer.getInteger("de.fzi.osh.time.poolSize", DEFAULT_POOL_SIZE));
+	
+	/**
+	 * Shared scheduler running all timed tasks. Created on first use.
+	 */
+	private ScheduledThreadPoolExecutor executor;
+	
 	@Activate
-	protected synchronized void activate() throws Exception {
+	protected synchronized void activate(Map<String, ?> properties) throws Exception {
+		Object size = properties.get("poolSize");
+		if(size instanceof Integer && (Integer)size > 0) {
+			poolSize = (Integer)size;
+		}
+		getExecutor();
 	}
 
 	@Deactivate
 	protected synchronized void deactivate() throws Exception {
+		if(null != executor) {
+			log.fine("Shutting down scheduler with " + executor.getQueue().size() + " pending timers.");
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Returns the shared scheduler and creates it if necessary.
+	 * 
+	 * @return
+	 */
+	private synchronized ScheduledThreadPoolExecutor getExecutor() {
+		if(null == executor) {
+			executor = new ScheduledThreadPoolExecutor(poolSize, new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger(0);
+				
+				@Override
+				public Thread newThread(Runnable runnable) {
+					// non-daemon, stand-alone devices rely on the scheduler to keep running
+					return new Thread(runnable, "time-scheduler-" + counter.incrementAndGet());
+				}
+			});
+			// cancelled timers are removed right away instead of lingering until their due time
+			executor.setRemoveOnCancelPolicy(true);
+		}
+		return executor;
+	}
+	
+	/**
+	 * Returns the number of live timers, i.e. tasks waiting for execution including periodic ones.
+	 * 
+	 * @return
+	 */
+	public synchronized int getScheduledTaskCount() {
+		return null == executor ? 0 : executor.getQueue().size();
 	}
 	
 	@Override
@@ -49,26 +117,22 @@ public class RealTimeService implements TimeService{
 
 	@Override
 	public ScheduledFuture<?> schedule(Runnable task, long delay) {
-		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-		return executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+		return getExecutor().schedule(task, delay, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
 	public ScheduledFuture<?> scheduleOnTime(Runnable task, long time) {
-		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-		return executor.schedule(task, time - Instant.now().getEpochSecond(), TimeUnit.SECONDS);
+		return getExecutor().schedule(task, time - Instant.now().getEpochSecond(), TimeUnit.SECONDS);
 	}
 
 	@Override
 	public ScheduledFuture<?> scheduleAtDelay(Runnable task, long initialDelay, long delay) {
-		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-		return executor.scheduleWithFixedDelay(task, initialDelay, delay, TimeUnit.MILLISECONDS);
+		return getExecutor().scheduleWithFixedDelay(task, initialDelay, delay, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
 	public ScheduledFuture<?> scheduleAtRate(Runnable task, long initialDelay, long rate) {
-		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-		return executor.scheduleAtFixedRate(task, initialDelay, rate, TimeUnit.MILLISECONDS);
+		return getExecutor().scheduleAtFixedRate(task, initialDelay, rate, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
@@ -77,8 +141,7 @@ public class RealTimeService implements TimeService{
 		ZonedDateTime now = ZonedDateTime.now();
 		// initialDelay = time till next second + (if relevant) time till next minute [ = 1000 * (60 - 1 - second)]
 		long initialDelay = (1000 - now.getNano() / 1000000) + 1000 * (second == null ? 0 : 59 - now.getSecond()) + 1;
-		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-		return executor.scheduleAtFixedRate(new Runnable() {			
+		return getExecutor().scheduleAtFixedRate(new Runnable() {			
 			private long nextExecution = computeNextExecutionTime(ZonedDateTime.now());			
 			
 			@Override
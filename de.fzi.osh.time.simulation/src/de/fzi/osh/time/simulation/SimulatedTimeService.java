@@ -0,0 +1,486 @@
+package de.fzi.osh.time.simulation;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
+import java.util.logging.Logger;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+
+import de.fzi.osh.time.TimeService;
+
+/**
+ * Time service running on a simulated clock.
+ *
+ * In accelerated mode the simulated clock runs $speedUp times faster than the system clock.
+ * In discrete event mode the clock stands still and jumps straight to the next scheduled task once the previous one has finished.
+ *
+ * Discrete event mode runs all tasks on the clock thread. Work done on other threads (e.g. communication) is only given $settleTime ms
+ * of wall clock time after each task before the clock jumps ahead.
+ *
+ * Outside of OSGi (i.e. when loaded as time provider by a device) the service is configured through the system properties
+ * de.fzi.osh.time.simulation.[speedUp|discreteEvent|start|settleTime].
+ *
+ * Disabled by default, such that production systems can not bind to simulated time by accident. To simulate, enable the component
+ * and leave out (or stop) the de.fzi.osh.time.realtime bundle. Devices select it by setting timeProvider to this class.
+ *
+ * @author K. Foerderer
+ *
+ */
+@Component(enabled=false, immediate=true, service=TimeService.class, property={"speedUp:Double=60.0", "discreteEvent:Boolean=false", "start:String=", "settleTime:Integer=10"})
+public class SimulatedTimeService implements TimeService {
+
+	private static Logger log = Logger.getLogger(SimulatedTimeService.class.getName());
+
+	private static final String PROPERTY_PREFIX = "de.fzi.osh.time.simulation.";
+
+	/**
+	 * Number of worker threads running tasks in accelerated mode
+	 */
+	private static final int WORKERS = 2;
+
+	/**
+	 * Factor between simulated and wall clock time
+	 */
+	private double speedUp;
+
+	/**
+	 * Whether the clock jumps from task to task
+	 */
+	private boolean discreteEvent;
+
+	/**
+	 * Wall clock time [ms] granted to other threads after each task in discrete event mode
+	 */
+	private int settleTime;
+
+	/**
+	 * Simulated epoch millisecond at simulation start
+	 */
+	private long simulationStart;
+
+	/**
+	 * Wall clock epoch millisecond at simulation start
+	 */
+	private long wallStart;
+
+	/**
+	 * Current simulated epoch millisecond in discrete event mode
+	 */
+	private long discreteTime;
+
+	/**
+	 * Pending tasks ordered by simulated execution time
+	 */
+	private final PriorityQueue<SimulatedTask> queue = new PriorityQueue<SimulatedTask>();
+
+	/**
+	 * Guards clock and queue
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Insertion counter for stable ordering of tasks due at the same time
+	 */
+	private long sequence = 0;
+
+	private Thread clock;
+	private ExecutorService workers;
+	private volatile boolean running = false;
+
+	/**
+	 * Constructor. Reads configuration from the system properties.
+	 */
+	public SimulatedTimeService() {
+		configure(	Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "speedUp", "60")),
+					Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "discreteEvent", "false")),
+					System.getProperty(PROPERTY_PREFIX + "start", ""),
+					Integer.parseInt(System.getProperty(PROPERTY_PREFIX + "settleTime", "10")));
+	}
+
+	@Activate
+	protected synchronized void activate(Map<String, ?> properties) throws Exception {
+		Object speedUp = properties.get("speedUp");
+		Object discreteEvent = properties.get("discreteEvent");
+		Object start = properties.get("start");
+		Object settleTime = properties.get("settleTime");
+		configure(	speedUp instanceof Number ? ((Number)speedUp).doubleValue() : this.speedUp,
+					discreteEvent instanceof Boolean ? (Boolean)discreteEvent : this.discreteEvent,
+					start instanceof String ? (String)start : "",
+					settleTime instanceof Number ? ((Number)settleTime).intValue() : this.settleTime);
+		start();
+	}
+
+	@Deactivate
+	protected synchronized void deactivate() throws Exception {
+		running = false;
+		if(null != clock) {
+			clock.interrupt();
+			clock = null;
+		}
+		if(null != workers) {
+			workers.shutdownNow();
+			workers = null;
+		}
+		synchronized (lock) {
+			for(SimulatedTask task : queue) {
+				task.cancel(false);
+			}
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Sets up the simulated clock.
+	 *
+	 * @param speedUp
+	 * @param discreteEvent
+	 * @param start ISO-8601 instant or empty string for current time
+	 * @param settleTime
+	 */
+	private void configure(double speedUp, boolean discreteEvent, String start, int settleTime) {
+		if(speedUp <= 0) {
+			log.warning("Invalid speed up factor " + speedUp + ". Using 1.");
+			speedUp = 1;
+		}
+		synchronized (lock) {
+			this.speedUp = speedUp;
+			this.discreteEvent = discreteEvent;
+			this.settleTime = Math.max(0, settleTime);
+			wallStart = System.currentTimeMillis();
+			simulationStart = (null == start || start.isEmpty()) ? wallStart : Instant.parse(start).toEpochMilli();
+			discreteTime = simulationStart;
+		}
+		log.info("Simulated time starting at " + Instant.ofEpochMilli(simulationStart) + (discreteEvent ? " in discrete event mode." : " with speed up " + speedUp + "."));
+	}
+
+	/**
+	 * Starts the clock thread if it is not running yet.
+	 */
+	private synchronized void start() {
+		if(running) {
+			return;
+		}
+		running = true;
+		AtomicInteger counter = new AtomicInteger(0);
+		workers = Executors.newFixedThreadPool(WORKERS, runnable -> new Thread(runnable, "simulation-worker-" + counter.incrementAndGet()));
+		clock = new Thread(() -> dispatch(), "simulation-clock");
+		clock.start();
+	}
+
+	/**
+	 * Returns the current simulated epoch millisecond.
+	 *
+	 * @return
+	 */
+	private long currentMillis() {
+		synchronized (lock) {
+			if(discreteEvent) {
+				return discreteTime;
+			}
+			return simulationStart + (long)((System.currentTimeMillis() - wallStart) * speedUp);
+		}
+	}
+
+	/**
+	 * Clock loop. Waits for the next task to become due and executes it.
+	 */
+	private void dispatch() {
+		while(running) {
+			try {
+				SimulatedTask task;
+				synchronized (lock) {
+					task = queue.peek();
+					if(null == task) {
+						lock.wait();
+						continue;
+					}
+					long remaining = task.time - currentMillis();
+					if(remaining > 0) {
+						if(discreteEvent) {
+							// jump ahead
+							discreteTime = task.time;
+						} else {
+							// new tasks might be added in the meantime
+							lock.wait(Math.max(1, (long)Math.ceil(remaining / speedUp)));
+							continue;
+						}
+					}
+					queue.poll();
+				}
+
+				if(discreteEvent) {
+					task.run();
+					if(settleTime > 0) {
+						Thread.sleep(settleTime);
+					}
+				} else {
+					workers.execute(task);
+				}
+			} catch (InterruptedException e) {
+				// deactivated
+				break;
+			} catch (Exception e) {
+				log.severe(e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Adds a task to the queue.
+	 *
+	 * @param task
+	 * @return
+	 */
+	private SimulatedTask enqueue(SimulatedTask task) {
+		start();
+		synchronized (lock) {
+			task.sequence = sequence++;
+			queue.add(task);
+			lock.notifyAll();
+		}
+		return task;
+	}
+
+	/**
+	 * Returns the number of pending tasks including periodic ones.
+	 *
+	 * @return
+	 */
+	public int getScheduledTaskCount() {
+		synchronized (lock) {
+			return queue.size();
+		}
+	}
+
+	@Override
+	public long now() {
+		return Math.floorDiv(currentMillis(), 1000);
+	}
+
+	@Override
+	public ZonedDateTime nowAsZonedDateTime() {
+		return ZonedDateTime.ofInstant(nowAsInstant(), ZoneId.systemDefault());
+	}
+
+	@Override
+	public Instant nowAsInstant() {
+		return Instant.ofEpochMilli(currentMillis());
+	}
+
+	@Override
+	public void sleep(int millis) throws InterruptedException {
+		if(millis <= 0) {
+			return;
+		}
+		if(false == discreteEvent) {
+			Thread.sleep(Math.max(1, (long)(millis / speedUp)));
+		} else if(Thread.currentThread() == clock) {
+			// nothing else can happen while the clock thread sleeps
+			synchronized (lock) {
+				discreteTime += millis;
+			}
+		} else {
+			// wait for the clock to reach the wake up time
+			CountDownLatch latch = new CountDownLatch(1);
+			schedule(() -> latch.countDown(), millis);
+			latch.await();
+		}
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return enqueue(new SimulatedTask(task, currentMillis() + delay, null));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleOnTime(Runnable task, long time) {
+		return enqueue(new SimulatedTask(task, time * 1000, null));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtDelay(Runnable task, long initialDelay, long delay) {
+		return enqueue(new SimulatedTask(task, currentMillis() + initialDelay, last -> currentMillis() + delay));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtRate(Runnable task, long initialDelay, long rate) {
+		return enqueue(new SimulatedTask(task, currentMillis() + initialDelay, last -> last + rate));
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable task, Integer second, Integer minute, Integer hour) {
+		return enqueue(new SimulatedTask(task, nextMatch(currentMillis(), second, minute, hour), last -> nextMatch(currentMillis(), second, minute, hour)));
+	}
+
+	/**
+	 * Returns the first epoch millisecond after $time matching the given values. <b>null</b> matches any value.
+	 *
+	 * @param time
+	 * @param second
+	 * @param minute
+	 * @param hour
+	 * @return
+	 */
+	private static long nextMatch(long time, Integer second, Integer minute, Integer hour) {
+		ZonedDateTime next = ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+		while(true) {
+			if(null != hour && next.getHour() != hour) {
+				next = next.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+			} else if(null != minute && next.getMinute() != minute) {
+				next = next.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+			} else if(null != second && next.getSecond() != second) {
+				next = next.plusSeconds(1);
+			} else {
+				return next.toInstant().toEpochMilli();
+			}
+		}
+	}
+
+	/**
+	 * Converts an amount of simulated time into wall clock time. Positive amounts never become 0, so they can safely be used for waiting.
+	 */
+	@Override
+	public long convert(long amount) {
+		if(amount <= 0) {
+			return amount;
+		}
+		if(discreteEvent) {
+			// the clock does not depend on wall clock time
+			return 1;
+		}
+		return Math.max(1, Math.round(amount / speedUp));
+	}
+
+	/**
+	 * Task waiting for execution on the simulated clock.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	private class SimulatedTask implements ScheduledFuture<Object>, Runnable {
+
+		private final Runnable runnable;
+
+		/**
+		 * Computes the next execution time from the last one. <b>null</b> for one shot tasks.
+		 */
+		private final LongUnaryOperator reschedule;
+
+		/**
+		 * Simulated epoch millisecond of the next execution
+		 */
+		private long time;
+		private long sequence;
+
+		private volatile boolean cancelled = false;
+		private volatile Throwable failure = null;
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		public SimulatedTask(Runnable runnable, long time, LongUnaryOperator reschedule) {
+			this.runnable = runnable;
+			this.time = time;
+			this.reschedule = reschedule;
+		}
+
+		@Override
+		public void run() {
+			if(cancelled) {
+				return;
+			}
+			try {
+				runnable.run();
+			} catch(Throwable e) {
+				// like a ScheduledExecutorService, failing periodic tasks are not run again
+				log.severe(e.toString());
+				failure = e;
+				done.countDown();
+				return;
+			}
+			if(null == reschedule) {
+				done.countDown();
+			} else if(false == cancelled) {
+				time = reschedule.applyAsLong(time);
+				enqueue(this);
+			}
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - currentMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if(other instanceof SimulatedTask) {
+				SimulatedTask task = (SimulatedTask) other;
+				int result = Long.compare(time, task.time);
+				return 0 != result ? result : Long.compare(sequence, task.sequence);
+			}
+			return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if(isDone()) {
+				return false;
+			}
+			cancelled = true;
+			synchronized (lock) {
+				queue.remove(this);
+			}
+			done.countDown();
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Object get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if(false == done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private Object result() throws ExecutionException {
+			if(cancelled) {
+				throw new CancellationException();
+			}
+			if(null != failure) {
+				throw new ExecutionException(failure);
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package de.fzi.osh.time;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs a task that blocks on I/O (polling, modbus, uploads) on its own thread, such that timers of the {@link TimeService} only hand it over.
+ * Triggers arriving while the task is still running are skipped.
+ * 
+ * Usage: <code>timeService.scheduleAtRate(new BlockingTask("name", task), initialDelay, rate)</code>
+ * 
+ * @author K. Foerderer
+ *
+ */
+public class BlockingTask implements Runnable {
+
+	private static Logger log = Logger.getLogger(BlockingTask.class.getName());
+	
+	private Runnable task;
+	private ThreadPoolExecutor executor;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param name thread name
+	 * @param task
+	 */
+	public BlockingTask(String name, Runnable task) {
+		this.task = task;
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+	
+	@Override
+	public void run() {
+		executor.execute(() -> {
+			try {
+				task.run();
+			} catch(Exception e) {
+				log.severe(e.toString());
+			}
+		});
+	}
+	
+	/**
+	 * Stops the thread. The timer triggering the task has to be cancelled separately.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -7,6 +7,8 @@ import java.util.concurrent.ScheduledFuture;
 /**
  * Service providing current time and other timing related functions. This is needed for simulation purposes.
  * 
+ * Timed tasks share a small pool of threads and should return quickly. Tasks blocking on I/O are wrapped into a {@link BlockingTask}.
+ * 
  * @author K. Foerderer
  *
  */
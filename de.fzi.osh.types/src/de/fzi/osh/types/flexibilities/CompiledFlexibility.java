@@ -0,0 +1,245 @@
+package de.fzi.osh.types.flexibilities;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import de.fzi.osh.types.math.IntInterval;
+
+/**
+ * Immutable, array based form of a flexibility's power and energy corridor.
+ *
+ * Breakpoints are kept in sorted int arrays with parallel min/max arrays. A {@link Cursor} walks both corridors forward in time without allocating.
+ * Changes to the flexibility after compilation are not reflected.
+ *
+ * @author K. Foerderer
+ *
+ */
+public final class CompiledFlexibility {
+
+	private final int id;
+
+	private final int[] powerTimes;
+	private final int[] powerMin;
+	private final int[] powerMax;
+
+	private final int[] energyTimes;
+	private final int[] energyMin;
+	private final int[] energyMax;
+
+	/**
+	 * Constructor
+	 *
+	 * @param flexibility
+	 */
+	public CompiledFlexibility(Flexibility flexibility) {
+		id = flexibility.id;
+
+		int size = flexibility.powerCorridor.size();
+		powerTimes = new int[size];
+		powerMin = new int[size];
+		powerMax = new int[size];
+		compile(flexibility.powerCorridor, powerTimes, powerMin, powerMax);
+
+		size = flexibility.energyCorridor.size();
+		energyTimes = new int[size];
+		energyMin = new int[size];
+		energyMax = new int[size];
+		compile(flexibility.energyCorridor, energyTimes, energyMin, energyMax);
+	}
+
+	/**
+	 * Copies a corridor into arrays.
+	 *
+	 * @param corridor
+	 * @param times
+	 * @param min
+	 * @param max
+	 */
+	private static void compile(NavigableMap<Integer, IntInterval> corridor, int[] times, int[] min, int[] max) {
+		int i = 0;
+		for(Map.Entry<Integer, IntInterval> entry : corridor.entrySet()) {
+			times[i] = entry.getKey();
+			min[i] = entry.getValue().min;
+			max[i] = entry.getValue().max;
+			i++;
+		}
+	}
+
+	/**
+	 * Returns the id of the compiled flexibility.
+	 *
+	 * @return
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the index of the last breakpoint <= time. -1 if there is none.
+	 *
+	 * @param times
+	 * @param time
+	 * @return
+	 */
+	private static int floorIndex(int[] times, int time) {
+		int index = Arrays.binarySearch(times, time);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/**
+	 * Interpolates the energy corridor linearly between the breakpoints at $index and $index + 1. The corridor is continued after the last entry.
+	 * Equivalent to {@link Flexibility#getEnergyConstraint(int)}.
+	 */
+	private int interpolate(int[] values, int index, int time) {
+		if(index + 1 >= energyTimes.length) {
+			return values[index];
+		}
+		int floorTime = energyTimes[index];
+		double higherFactor = (time - floorTime) / (double)(energyTimes[index + 1] - floorTime);
+		return (int)((1 - higherFactor) * values[index] + higherFactor * values[index + 1]);
+	}
+
+	/**
+	 * Returns a new cursor positioned at time 0.
+	 *
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Forward iterator over both corridors. Moving forward is amortized O(1), moving backwards O(log n).
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	public final class Cursor {
+		private int time;
+		/**
+		 * Index of the power breakpoint valid at $time
+		 */
+		private int power;
+		/**
+		 * Index of the energy breakpoint valid at $time
+		 */
+		private int energy;
+
+		private Cursor() {
+			time = 0;
+			power = floorIndex(powerTimes, 0);
+			energy = floorIndex(energyTimes, 0);
+		}
+
+		/**
+		 * Moves the cursor to the given time relative to the start of the flexibility.
+		 *
+		 * @param time
+		 */
+		public void moveTo(int time) {
+			if(time < this.time) {
+				power = floorIndex(powerTimes, time);
+				energy = floorIndex(energyTimes, time);
+			} else {
+				while(power + 1 < powerTimes.length && powerTimes[power + 1] <= time) {
+					power++;
+				}
+				while(energy + 1 < energyTimes.length && energyTimes[energy + 1] <= time) {
+					energy++;
+				}
+			}
+			this.time = time;
+		}
+
+		/**
+		 * Returns the current time.
+		 *
+		 * @return
+		 */
+		public int getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns the next breakpoint of either corridor after the current time. {@link Integer#MAX_VALUE} if there is none.
+		 *
+		 * @return
+		 */
+		public int getNextTime() {
+			return Math.min(getNextPowerTime(), getNextEnergyTime());
+		}
+
+		/**
+		 * Returns the next power corridor breakpoint after the current time. {@link Integer#MAX_VALUE} if there is none.
+		 *
+		 * @return
+		 */
+		public int getNextPowerTime() {
+			return power + 1 < powerTimes.length ? powerTimes[power + 1] : Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Returns the next energy corridor breakpoint after the current time. {@link Integer#MAX_VALUE} if there is none.
+		 *
+		 * @return
+		 */
+		public int getNextEnergyTime() {
+			return energy + 1 < energyTimes.length ? energyTimes[energy + 1] : Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Whether a power constraint exists for the current time.
+		 *
+		 * @return
+		 */
+		public boolean hasPowerConstraint() {
+			return power >= 0;
+		}
+
+		/**
+		 * Whether an energy constraint exists for the current time.
+		 *
+		 * @return
+		 */
+		public boolean hasEnergyConstraint() {
+			return energy >= 0;
+		}
+
+		/**
+		 * Lower bound of the power corridor at the current time in W.
+		 *
+		 * @return
+		 */
+		public int getPowerMin() {
+			return powerMin[power];
+		}
+
+		/**
+		 * Upper bound of the power corridor at the current time in W.
+		 *
+		 * @return
+		 */
+		public int getPowerMax() {
+			return powerMax[power];
+		}
+
+		/**
+		 * Lower bound of the (interpolated) energy corridor at the current time in Ws.
+		 *
+		 * @return
+		 */
+		public int getEnergyMin() {
+			return interpolate(energyMin, energy, time);
+		}
+
+		/**
+		 * Upper bound of the (interpolated) energy corridor at the current time in Ws.
+		 *
+		 * @return
+		 */
+		public int getEnergyMax() {
+			return interpolate(energyMax, energy, time);
+		}
+	}
+}
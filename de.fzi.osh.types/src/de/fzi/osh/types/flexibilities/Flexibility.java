@@ -89,26 +89,33 @@ public class Flexibility {
 			return false;
 		}
 		
+		// flatten power path
+		int[] times = new int[power.size()];
+		int[] powers = new int[power.size()];
+		int i = 0;
+		for(Map.Entry<Integer, Integer> entry : power.entrySet()) {
+			times[i] = entry.getKey();
+			powers[i] = entry.getValue();
+			i++;
+		}
+		CompiledFlexibility.Cursor cursor = compile().cursor();
+		
 		/* check power */
 		// check each point in time in powerCorridor.keySet and powers.keySet
 		int time = 0;
+		int index = 0; // power entry valid at time
 		while(true) {
-			Integer nextPower = power.higherKey(time);
-			Integer nextPowerConstraint = powerCorridor.higherKey(time);
-
-			if(nextPower == null && nextPowerConstraint == null) {
+			cursor.moveTo(time);
+			while(index + 1 < times.length && times[index + 1] <= time) {
+				index++;
+			}
+			// from now on power = 0 / power constraint remains constant if there are no more entries
+			int nextTime = Math.min(index + 1 < times.length ? times[index + 1] : Integer.MAX_VALUE, cursor.getNextPowerTime());
+			if(nextTime == Integer.MAX_VALUE) {
 				break; // end reached
-			} else if(nextPower == null) {
-				nextPower = nextPowerConstraint; // from now on power = 0 => energy remains constant
-			} else if(nextPowerConstraint == null) {
-				nextPowerConstraint = nextPower; // from now on power constraint remains constant
 			}
 			
-			int nextTime = Math.min(nextPower, nextPowerConstraint);
-			int currentPower = power.floorEntry(time).getValue();
-			
-			IntInterval constraint = powerCorridor.floorEntry(time).getValue();
-			if(currentPower < constraint.min || currentPower > constraint.max) {
+			if(false == cursor.hasPowerConstraint() || powers[index] < cursor.getPowerMin() || powers[index] > cursor.getPowerMax()) {
 				return false;
 			}
 			
@@ -119,25 +126,21 @@ public class Flexibility {
 		/* check energy */
 		// check each point in time in energyCorridor.keySet and powers.keySet
 		time = 0;
-		int energy = 0;
+		index = 0;
+		long energy = 0;
+		cursor.moveTo(time);
 		while(true) {
-			Integer nextPower = power.higherKey(time);
-			Integer nextEnergyConstraint = energyCorridor.higherKey(time);
-			
-			if(nextPower == null && nextEnergyConstraint == null) {
+			while(index + 1 < times.length && times[index + 1] <= time) {
+				index++;
+			}
+			int nextTime = Math.min(index + 1 < times.length ? times[index + 1] : Integer.MAX_VALUE, cursor.getNextEnergyTime());
+			if(nextTime == Integer.MAX_VALUE) {
 				break; // end reached
-			} else if(nextPower == null) {
-				nextPower = nextEnergyConstraint; // from now on power = 0 => energy remains constant
-			} else if(nextEnergyConstraint == null) {
-				nextEnergyConstraint = nextPower; // nextPower exceeds the time of the last energy corridor entry 
 			}
 			
-			int nextTime = Math.min(nextPower, nextEnergyConstraint);
-			int currentPower = power.floorEntry(time).getValue();
-			
-			energy += currentPower * (nextTime - time);		
-			IntInterval constraint = getEnergyConstraint(nextTime);
-			if(energy < constraint.min || energy > constraint.max) {
+			energy += (long)powers[index] * (nextTime - time);
+			cursor.moveTo(nextTime);
+			if(false == cursor.hasEnergyConstraint() || energy < cursor.getEnergyMin() || energy > cursor.getEnergyMax()) {
 				return false;
 			}
 			
@@ -148,6 +151,15 @@ public class Flexibility {
 		return true;
 	}
 	
+	/**
+	 * Returns an immutable array based copy of the power and energy corridors for fast evaluation.
+	 * 
+	 * @return
+	 */
+	public CompiledFlexibility compile() {
+		return new CompiledFlexibility(this);
+	}
+	
 	/**
 	 * Returns the energy constraint for any point in time, i.e. interpolates the energy corridor. The corridor is continued after the last entry.
 	 * 
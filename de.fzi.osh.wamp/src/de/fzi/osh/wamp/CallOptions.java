@@ -0,0 +1,49 @@
+package de.fzi.osh.wamp;
+
+/**
+ * Timeout and retry policy of a remote procedure call.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class CallOptions {
+	/**
+	 * Time in ms an attempt may take. 0 waits forever.
+	 */
+	public long timeout = 5000;
+	/**
+	 * Number of further attempts after a failed or timed out attempt. Only use for idempotent procedures.
+	 */
+	public int retries = 0;
+	/**
+	 * Time in ms between two attempts.
+	 */
+	public long retryDelay = 1000;
+
+	/**
+	 * Returns options for a single attempt.
+	 *
+	 * @param timeout [ms]
+	 * @return
+	 */
+	public static CallOptions timeout(long timeout) {
+		CallOptions options = new CallOptions();
+		options.timeout = timeout;
+		return options;
+	}
+
+	/**
+	 * Returns options for retrying a call.
+	 *
+	 * @param timeout [ms] per attempt
+	 * @param retries
+	 * @param retryDelay [ms]
+	 * @return
+	 */
+	public static CallOptions retry(long timeout, int retries, long retryDelay) {
+		CallOptions options = timeout(timeout);
+		options.retries = retries;
+		options.retryDelay = retryDelay;
+		return options;
+	}
+}
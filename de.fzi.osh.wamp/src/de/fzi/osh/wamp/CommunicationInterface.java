@@ -34,7 +34,7 @@ public abstract class CommunicationInterface<T extends OshComponent<T, C>, C ext
 		this.configuration = component.getConfiguration();
 		this.wampConfiguration = wampConfiguration;
 		
-		connection = new Connection(wampConfiguration.url, wampConfiguration.realm, wampConfiguration.maxFramePayloadLength, component.getClass().getName());
+		connection = new Connection(wampConfiguration, component.getClass().getName());
 	}
 	
 	/**
@@ -1,18 +1,29 @@
 package de.fzi.osh.wamp;
 
-import java.util.concurrent.BlockingQueue;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
+import de.fzi.osh.wamp.MetricsSink.Metric;
+import de.fzi.osh.wamp.configuration.WampConfiguration;
 import rx.Scheduler;
 import rx.schedulers.Schedulers;
 import ws.wamp.jawampa.ApplicationError;
+import ws.wamp.jawampa.Request;
 import ws.wamp.jawampa.SubscriptionFlags;
 import ws.wamp.jawampa.WampClient;
 import ws.wamp.jawampa.WampClientBuilder;
@@ -23,27 +34,17 @@ import ws.wamp.jawampa.transport.netty.NettyWampConnectionConfig;
 /**
  * Represents a connection to a WAMP router. 
  * 
- * Publications on topics will be queued and dispatched later.
+ * Publications on topics will be queued and dispatched later. Using more than one dispatch thread, publications are
+ * distributed by key (by default the topic they have been published on). Publications with the same key are handled in order. 
  * 
  * @author K. Foerderer
  *
  */
-public class Connection implements Runnable{
+public class Connection {
 
-	/**
-	 * Event data for event queue.
-	 * 
-	 * @author K. Foerderer
-	 *
-	 * @param <P>
-	 */
-	private static class Event<P> {
-		Action1<P> onEvent;
-		P parameters;
-	}
-	
 	static {
 		WampSerialization.Json.getObjectMapper().configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+		WampSerialization.MessagePack.getObjectMapper().configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
 	}
 	
 	private static Logger log = Logger.getLogger(Connection.class.getName());
@@ -52,13 +53,29 @@ public class Connection implements Runnable{
 	private String realm;
 	private String name;	
 	private int maxFramePayloadLength;
+	/**
+	 * Serializations offered to the router in order of preference. <i>null</i> for jawampa defaults.
+	 */
+	private WampSerialization[] serializations;
 	
 	private Action1<WampClient.ConnectedState> onOpen;
 	private Action1<WampClient.DisconnectedState> onClose;
 	
-	private BlockingQueue<Event<?>> eventQueue; 
-    
-	private Thread eventThread;
+	private EventDispatcher dispatcher;
+	private Metrics metrics;
+	
+	/**
+	 * Executors of registered procedures by group or uri.
+	 */
+	private Map<String, ProcedureExecutor> procedureExecutors = new ConcurrentHashMap<String, ProcedureExecutor>();
+	private int statisticsInterval;
+	private AtomicBoolean procedureStatisticsScheduled = new AtomicBoolean(false);
+	
+	/**
+	 * Periodic statistics logging on the shared call timer. Cancelled on close.
+	 */
+	private ScheduledFuture<?> metricsStatistics;
+	private volatile ScheduledFuture<?> procedureStatistics;
 	
     // Jawampa
 	protected WampClient wamp;
@@ -67,9 +84,26 @@ public class Connection implements Runnable{
 	// rx
 	private ExecutorService executor = Executors.newSingleThreadExecutor();
     protected Scheduler rxScheduler = Schedulers.from(executor);
+    
+    /**
+     * Timer for call timeouts and retries of all connections.
+     */
+    private static ScheduledThreadPoolExecutor callTimer;
+    static {
+    	callTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+    		Thread thread = new Thread(runnable, "de.fzi.osh.wamp.connection.callTimer");
+    		thread.setDaemon(true);
+    		return thread;
+    	});
+    	callTimer.setRemoveOnCancelPolicy(true);
+    }
 	
 	// Jackson
-	private static ObjectMapper mapper;
+	private static ObjectMapper mapper = new ObjectMapper();
+	/**
+	 * Readers for parameter classes. Reading from a tree with a prepared reader avoids the intermediate buffer of convertValue.
+	 */
+	private static Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
 	
 	/**
 	 * Constructor. Sets up the wamp parameters.
@@ -80,14 +114,55 @@ public class Connection implements Runnable{
 	 * @throws Exception 
 	 */
 	public Connection(String url, String realm, int maxFramePayloadLength, String name) {
+		this(url, realm, maxFramePayloadLength, name, 1, 0);
+	}
+	
+	/**
+	 * Constructor. Sets up the wamp parameters and event dispatching.
+	 * 
+	 * @param url Router url.
+	 * @param realm Connection realm.
+	 * @param name Name of this connection (for debugging).
+	 * @param dispatchThreads Number of threads handling publications.
+	 * @param dispatchStatisticsInterval Seconds between logging dispatch statistics. 0 disables logging.
+	 */
+	public Connection(String url, String realm, int maxFramePayloadLength, String name, int dispatchThreads, int dispatchStatisticsInterval) {
 		this.url = url;
 		this.realm = realm;
 		this.name = name;
 		this.maxFramePayloadLength = maxFramePayloadLength;
 		
-		eventQueue = new LinkedBlockingQueue<Event<?>>();
+		this.statisticsInterval = dispatchStatisticsInterval;
 		
-		mapper = new ObjectMapper();
+		metrics = new Metrics(name);
+		dispatcher = new EventDispatcher(name, dispatchThreads, dispatchStatisticsInterval, metrics);
+		if(dispatchStatisticsInterval > 0) {
+			metricsStatistics = callTimer.scheduleAtFixedRate(() -> metrics.logSummary(), dispatchStatisticsInterval, dispatchStatisticsInterval, TimeUnit.SECONDS);
+		}
+	}
+	
+	/**
+	 * Constructor. Sets up the wamp parameters, serialization and event dispatching from a configuration.
+	 * 
+	 * @param configuration
+	 * @param name Name of this connection (for debugging).
+	 */
+	public Connection(WampConfiguration configuration, String name) {
+		this(configuration.url, configuration.realm, configuration.maxFramePayloadLength, name, configuration.dispatchThreads, configuration.dispatchStatisticsInterval);
+		
+		if(null != configuration.serializations && configuration.serializations.length > 0) {
+			serializations = new WampSerialization[configuration.serializations.length];
+			for(int i = 0; i < serializations.length; i++) {
+				switch(configuration.serializations[i]) {
+				case Json:
+					serializations[i] = WampSerialization.Json;
+					break;
+				case MessagePack:
+					serializations[i] = WampSerialization.MessagePack;
+					break;
+				}
+			}
+		}
 	}
 	
 	/**
@@ -96,7 +171,8 @@ public class Connection implements Runnable{
 	 */
 	public void open() throws Exception {
 		if(null != wamp) {
-			close();
+			wamp.close();
+			wamp = null;
 		}
 		
         WampClientBuilder builder = new WampClientBuilder();
@@ -107,6 +183,9 @@ public class Connection implements Runnable{
 					.withInfiniteReconnects()
 					.withConnectionConfiguration(configBuilder.withMaxFramePayloadLength(maxFramePayloadLength).build())
 					.withCloseOnErrors(false).withReconnectInterval(5, TimeUnit.SECONDS);
+			if(null != serializations) {
+				builder.withSerializations(serializations);
+			}
 			wamp = builder.build();
 		} catch (Exception e) {
 			log.severe(e.toString());
@@ -127,11 +206,6 @@ public class Connection implements Runnable{
 	        			} catch(Exception e) {
 	        			}
 	        		}
-	        		if(null == eventThread) {
-		        		// start event handling
-		        		eventThread = new Thread(this, "de.fzi.osh.wamp.connection.eventThread:" + name);
-		        		eventThread.start();
-	        		}
 	        	} else if(state instanceof WampClient.DisconnectedState) {
 	        		Throwable reason = ((WampClient.DisconnectedState) state).disconnectReason();
 	        		if(null != reason) {
@@ -155,11 +229,24 @@ public class Connection implements Runnable{
 	}
 	
 	/**
-	 * Closes the connection
+	 * Closes the connection and stops the threads dispatching events and procedure calls. Afterwards the connection can not be reused.
 	 */
 	public void close() {
-		wamp.close();
-		wamp = null;
+		if(null != wamp) {
+			wamp.close();
+			wamp = null;
+		}
+		if(null != metricsStatistics) {
+			metricsStatistics.cancel(false);
+		}
+		if(null != procedureStatistics) {
+			procedureStatistics.cancel(false);
+		}
+		dispatcher.shutdown();
+		for(ProcedureExecutor procedureExecutor : procedureExecutors.values()) {
+			procedureExecutor.shutdown();
+		}
+		procedureExecutors.clear();
 	}
 	
 	public boolean isConnected() {
@@ -186,7 +273,7 @@ public class Connection implements Runnable{
 	
 	
 	/**
-	 * Subscribe to a topic.
+	 * Subscribe to a topic. Publications are dispatched by the topic they have been published on.
 	 * 
 	 * @param uri
 	 * @param flags
@@ -194,22 +281,58 @@ public class Connection implements Runnable{
 	 * @param onEvent
 	 */
 	public<P> void subscribe(String uri, SubscriptionFlags flags, Class<P> parameterClass, Action1<P> onEvent) {
+		subscribe(uri, flags, parameterClass, null, null, onEvent);
+	}
+	
+	/**
+	 * Subscribe to a topic. Publications with equal keys are handled in order, others may be handled concurrently.
+	 * 
+	 * @param uri
+	 * @param flags
+	 * @param parameterClass
+	 * @param key Returns the dispatch key of a publication, e.g. the device uuid. If <i>null</i> the topic is used.
+	 * @param onEvent
+	 */
+	public<P> void subscribe(String uri, SubscriptionFlags flags, Class<P> parameterClass, Action1R<P, ?> key, Action1<P> onEvent) {
+		subscribe(uri, flags, parameterClass, key, null, onEvent);
+	}
+	
+	/**
+	 * Subscribe to a topic with bounded or conflating queuing of publications.
+	 * 
+	 * @param uri
+	 * @param flags
+	 * @param parameterClass
+	 * @param key Returns the dispatch key of a publication, e.g. the device uuid. If <i>null</i> the topic is used.
+	 * @param options Queuing options. If <i>null</i> all publications are queued.
+	 * @param onEvent
+	 */
+	public<P> void subscribe(String uri, SubscriptionFlags flags, Class<P> parameterClass, Action1R<P, ?> key, SubscriptionOptions options, Action1<P> onEvent) {
+		subscribe(uri, flags, parameterClass, key, dispatcher.subscribe(uri, onEvent, options));
+	}
+	
+	private<P> void subscribe(String uri, SubscriptionFlags flags, Class<P> parameterClass, Action1R<P, ?> key, EventDispatcher.Subscription<P> subscription) {
 		wamp.makeSubscription(uri, flags).observeOn(rxScheduler).subscribe( publication -> {
 			try {
 				if(publication.arguments() == null || publication.arguments().size() == 0) {
 					log.warning("Received publication without parameters.");
 					// nothing else to do, since there are no replies for publications.
-					onEvent.call(null);
+					subscription.onEvent.call(null);
 					return;
 				}
 				// parse parameters
-				P parameters = mapper.convertValue(publication.arguments().get(0), parameterClass);
+				P parameters = decode(publication.arguments().get(0), parameterClass);
 				
 				// add event to queue
-				Connection.Event<P> event = new Connection.Event<P>();
-				event.onEvent = onEvent;
-				event.parameters = parameters;
-				Connection.this.eventQueue.add(event); // add and not put to ensure fast event handling
+				Object dispatchKey = null;
+				if(null != key) {
+					dispatchKey = key.call(parameters);
+				} else {
+					// for pattern based subscriptions the actual topic is given in the details
+					JsonNode topic = (null == publication.details()) ? null : publication.details().get("topic");
+					dispatchKey = (null == topic) ? uri : topic.asText();
+				}
+				dispatcher.dispatch(subscription, dispatchKey, parameters);
 				
 			} catch (Exception e) {
 				log.severe("Addition to event queue failed");
@@ -229,13 +352,72 @@ public class Connection implements Runnable{
 						Thread.sleep(10 * 1000);
 					} catch (InterruptedException e) {
 					}
-					subscribe(uri, flags, parameterClass, onEvent);
+					subscribe(uri, flags, parameterClass, key, subscription);
 				}
 			}, "Re-Subscription on error: " + uri + ".");
 			subscriptionThread.start();
 		});		
 	}
 	
+	/**
+	 * Adds a sink receiving all measurements of this connection.
+	 * 
+	 * @param sink
+	 */
+	public void addMetricsSink(MetricsSink sink) {
+		metrics.addSink(sink);
+	}
+	
+	/**
+	 * Removes a metrics sink.
+	 * 
+	 * @param sink
+	 */
+	public void removeMetricsSink(MetricsSink sink) {
+		metrics.removeSink(sink);
+	}
+	
+	/**
+	 * Returns the number of event dispatch threads.
+	 * 
+	 * @return
+	 */
+	public int getDispatchThreads() {
+		return dispatcher.getStripeCount();
+	}
+	
+	/**
+	 * Returns the number of queued events of a dispatch thread.
+	 * 
+	 * @param thread
+	 * @return
+	 */
+	public int getEventQueueDepth(int thread) {
+		return dispatcher.getQueueDepth(thread);
+	}
+	
+	/**
+	 * Returns the number of publications dropped by the subscription to $uri because its queue was full.
+	 * 
+	 * @param uri
+	 * @return
+	 */
+	public long getDroppedEvents(String uri) {
+		EventDispatcher.Subscription<?> subscription = dispatcher.getSubscription(uri);
+		return null == subscription ? 0 : subscription.getDropped();
+	}
+	
+	/**
+	 * Returns the number of publications of the subscription to $uri that have been replaced by newer ones before being handled.
+	 * 
+	 * @param uri
+	 * @return
+	 */
+	public long getCoalescedEvents(String uri) {
+		EventDispatcher.Subscription<?> subscription = dispatcher.getSubscription(uri);
+		return null == subscription ? 0 : subscription.getCoalesced();
+	}
+	
 	/**
 	 * Publish on a topic.
 	 * 
@@ -246,8 +428,10 @@ public class Connection implements Runnable{
 	 * @param onCompleted
 	 */
 	public<P> void publish(String uri, P parameters, Action1<Long> onSuccess, Action1<Throwable> onError, Action0 onCompleted) {
+		long start = System.nanoTime();
 		wamp.publish(uri, parameters).observeOn(rxScheduler).subscribe(
 				id -> {
+					metrics.record(Metric.PublishLatency, uri, System.nanoTime() - start);
 					try {
 						if(null != onSuccess) {
 							onSuccess.call(id);
@@ -260,6 +444,7 @@ public class Connection implements Runnable{
 					}
 				},
 				error -> {
+					metrics.record(Metric.PublishError, uri, 1);
 					try {
 						log.severe("Publishing failed on topic '" + uri + "'.");
 						log.severe(error.getMessage());
@@ -296,24 +481,48 @@ public class Connection implements Runnable{
 	 * @param onError
 	 */
 	public<P, R> void register(String uri, Class<P> parameterClass, Action1R<P, R> onCall, Action1<Throwable> onError) {
+		register(uri, parameterClass, onCall, onError, null);
+	}
+	
+	/**
+	 * Registers a call. If options are given, calls are handled on threads of the procedure (or its group) instead of the connection thread.
+	 * 
+	 * @param uri
+	 * @param parameterClass
+	 * @param onCall
+	 * @param onError
+	 * @param options may be <i>null</i>
+	 */
+	public<P, R> void register(String uri, Class<P> parameterClass, Action1R<P, R> onCall, Action1<Throwable> onError, RegistrationOptions options) {
+		ProcedureExecutor executor = null;
+		if(null != options) {
+			// executors are kept for registrations after reconnecting
+			String key = (null == options.group) ? uri : options.group;
+			executor = procedureExecutors.get(key);
+			if(null == executor) {
+				procedureExecutors.putIfAbsent(key, new ProcedureExecutor(name + ":" + key, options));
+				executor = procedureExecutors.get(key);
+			}
+			if(statisticsInterval > 0 && procedureStatisticsScheduled.compareAndSet(false, true)) {
+				procedureStatistics = callTimer.scheduleAtFixedRate(() -> {
+					for(ProcedureExecutor procedureExecutor : procedureExecutors.values()) {
+						procedureExecutor.logStatistics(name);
+					}
+				}, statisticsInterval, statisticsInterval, TimeUnit.SECONDS);
+			}
+		}
+		ProcedureExecutor procedureExecutor = executor;
+		
 		wamp.registerProcedure(uri).observeOn(rxScheduler).subscribe(
 				request -> {
-					try {
-						if(request.arguments() == null || request.arguments().size() == 0) {
-							log.warning("Received call without parameters.");
-							onCall.call(null);
-							return;
-						}
-						// parse response
-						P parameters = mapper.convertValue(request.arguments().get(0), parameterClass);
-						
-						request.reply(onCall.call(parameters));
-						
-					} catch (Exception e) {
-						log.severe("onCall failed");
-						log.severe(e.toString());
-						e.printStackTrace();
-						// notify caller of error
+					if(null == procedureExecutor) {
+						handleCall(uri, request, parameterClass, onCall);
+						return;
+					}
+					// the caller is only known if disclosed by the router
+					JsonNode caller = (null == request.details()) ? null : request.details().get("caller");
+					if(false == procedureExecutor.execute(uri, null == caller ? null : caller.asLong(), () -> handleCall(uri, request, parameterClass, onCall))) {
+						log.warning("Call queue of procedure '" + uri + "' is full.");
 						try {
 							request.replyError(ApplicationError.CANCELED);
 						} catch (ApplicationError ae) {
@@ -329,6 +538,42 @@ public class Connection implements Runnable{
 				});		
 	}
 	
+	/**
+	 * Parses the parameters of a call, executes it and replies.
+	 * 
+	 * @param uri
+	 * @param request
+	 * @param parameterClass
+	 * @param onCall
+	 * @return <i>false</i> if the call failed
+	 */
+	private<P, R> boolean handleCall(String uri, Request request, Class<P> parameterClass, Action1R<P, R> onCall) {
+		long start = System.nanoTime();
+		try {
+			if(request.arguments() == null || request.arguments().size() == 0) {
+				log.warning("Received call without parameters.");
+				onCall.call(null);
+				return true;
+			}
+			// parse response
+			P parameters = decode(request.arguments().get(0), parameterClass);
+			
+			request.reply(onCall.call(parameters));
+			metrics.record(Metric.ProcedureDuration, uri, System.nanoTime() - start);
+			return true;
+		} catch (Exception e) {
+			log.severe("onCall failed");
+			log.severe(e.toString());
+			e.printStackTrace();
+			// notify caller of error
+			try {
+				request.replyError(ApplicationError.CANCELED);
+			} catch (ApplicationError ae) {
+			}
+			return false;
+		}
+	}
+	
 	/**
 	 * Performs a remote procedure call.
 	 * 
@@ -340,8 +585,10 @@ public class Connection implements Runnable{
 	 * @param onCompleted
 	 */
 	public<P, R> void call(String uri, P parameters, Class<R> responseClass, Action1<R> onResponse, Action1<Throwable> onError, Action0 onCompleted) {
+		long start = System.nanoTime();
 		wamp.call(uri, parameters).observeOn(rxScheduler).subscribe(
 				result -> {
+					metrics.record(Metric.CallLatency, uri, System.nanoTime() - start);
 					try {
 						if(null != onResponse) {
 							if(result.arguments() == null || result.arguments().size() == 0) {
@@ -350,7 +597,7 @@ public class Connection implements Runnable{
 								return;
 							}
 							// parse response
-							R response = mapper.convertValue(result.arguments().get(0), responseClass);
+							R response = decode(result.arguments().get(0), responseClass);
 							
 							onResponse.call(response);
 						}
@@ -362,6 +609,8 @@ public class Connection implements Runnable{
 					}
 				},
 				error -> {
+					metrics.record(Metric.CallLatency, uri, System.nanoTime() - start);
+					metrics.record(Metric.CallError, uri, 1);
 					try {
 						log.severe("RPC failed on topic '" + uri + "'.");
 						log.severe("Parameters: " + parameters.toString());
@@ -391,38 +640,128 @@ public class Connection implements Runnable{
 	}
 	
 	/**
-	 * Handles event queue using a blocking queue.
+	 * Performs a remote procedure call that fails if no response has been received within $timeout ms.
 	 * 
+	 * @param uri
+	 * @param parameters
+	 * @param responseClass
+	 * @param timeout [ms], 0 waits forever
+	 * @return
 	 */
-	@Override
-	public void run() {
-		while(state instanceof WampClient.ConnectedState) {
-			try {
-				// Get next element from queue. (Blocks execution)
-				Event<?> event = eventQueue.take();
-				handleEvent(event);
-				/*if(Instant.now().getEpochSecond() % 60 == 0) { // DEBUG: this doesn't have to use time service
-					log.finest("Event queue length: " + eventQueue.size());
-				}*/
-			} catch (InterruptedException e) {
-				log.warning("Taking from event queue was interrupted.");
+	public<P, R> CompletableFuture<R> callAsync(String uri, P parameters, Class<R> responseClass, long timeout) {
+		return callAsync(uri, parameters, responseClass, CallOptions.timeout(timeout));
+	}
+	
+	/**
+	 * Performs a remote procedure call. 
+	 * 
+	 * The future completes exceptionally with a {@link TimeoutException} if the last attempt timed out, or with the error of the last attempt.
+	 * Cancelling the future stops waiting for a response and further attempts.
+	 * 
+	 * @param uri
+	 * @param parameters
+	 * @param responseClass
+	 * @param options
+	 * @return
+	 */
+	public<P, R> CompletableFuture<R> callAsync(String uri, P parameters, Class<R> responseClass, CallOptions options) {
+		CompletableFuture<R> future = new CompletableFuture<R>();
+		attempt(uri, parameters, responseClass, options, options.retries, future);
+		return future;
+	}
+	
+	/**
+	 * Performs an attempt of an asynchronous call.
+	 * 
+	 * @param uri
+	 * @param parameters
+	 * @param responseClass
+	 * @param options
+	 * @param retries remaining retries
+	 * @param future
+	 */
+	private<P, R> void attempt(String uri, P parameters, Class<R> responseClass, CallOptions options, int retries, CompletableFuture<R> future) {
+		if(future.isDone()) {
+			return;
+		}
+		WampClient wamp = this.wamp;
+		if(null == wamp) {
+			future.completeExceptionally(new IllegalStateException("Connection '" + name + "' is closed."));
+			return;
+		}
+		
+		// either response, error or timeout
+		AtomicBoolean finished = new AtomicBoolean(false);
+		long start = System.nanoTime();
+		Action1<Throwable> onFailure = error -> {
+			metrics.record(Metric.CallLatency, uri, System.nanoTime() - start);
+			metrics.record(Metric.CallError, uri, 1);
+			if(retries > 0 && false == future.isDone()) {
+				log.warning("RPC on topic '" + uri + "' failed (" + error + "). Retrying.");
+				callTimer.schedule(() -> attempt(uri, parameters, responseClass, options, retries - 1, future), options.retryDelay, TimeUnit.MILLISECONDS);
+			} else {
+				future.completeExceptionally(error);
 			}
+		};
+		
+		rx.Subscription subscription = wamp.call(uri, parameters).observeOn(rxScheduler).subscribe(
+				result -> {
+					if(finished.compareAndSet(false, true)) {
+						metrics.record(Metric.CallLatency, uri, System.nanoTime() - start);
+						try {
+							if(result.arguments() == null || result.arguments().size() == 0) {
+								future.complete(null);
+							} else {
+								future.complete(decode(result.arguments().get(0), responseClass));
+							}
+						} catch (Exception e) {
+							log.severe("Parsing response on topic '" + uri + "' failed.");
+							future.completeExceptionally(e);
+						}
+					}
+				},
+				error -> {
+					if(finished.compareAndSet(false, true)) {
+						onFailure.call(error);
+					}
+				});
+		
+		ScheduledFuture<?> timeout = null;
+		if(options.timeout > 0) {
+			timeout = callTimer.schedule(() -> {
+				if(finished.compareAndSet(false, true)) {
+					subscription.unsubscribe();
+					onFailure.call(new TimeoutException("RPC on topic '" + uri + "' timed out after " + options.timeout + " ms."));
+				}
+			}, options.timeout, TimeUnit.MILLISECONDS);
 		}
+		ScheduledFuture<?> timer = timeout;
+		future.whenComplete((response, error) -> {
+			if(null != timer) {
+				timer.cancel(false);
+			}
+			// cancelled by caller
+			if(finished.compareAndSet(false, true)) {
+				subscription.unsubscribe();
+			}
+		});
 	}
 	
 	/**
-	 * Helper method to deal with generic types. 
+	 * Decodes a message argument using the prepared reader of the given class.
 	 * 
-	 * @param event
+	 * @param node
+	 * @param clazz
+	 * @return
+	 * @throws IOException
 	 */
-	public<P> void handleEvent(Event<P> event) {
-		try {
-			// actual event handling
-			event.onEvent.call(event.parameters);
-		} catch(Exception e) {
-			log.severe("Processing event failed.");
-			log.severe(e.toString());
+	private static <T> T decode(JsonNode node, Class<T> clazz) throws IOException {
+		ObjectReader reader = readers.get(clazz);
+		if(null == reader) {
+			reader = mapper.readerFor(clazz);
+			readers.put(clazz, reader);
 		}
+		return reader.readValue(node);
 	}
 	
 	/**
@@ -0,0 +1,362 @@
+package de.fzi.osh.wamp;
+
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import de.fzi.osh.wamp.MetricsSink.Metric;
+
+/**
+ * Dispatches events to their handlers using a fixed number of stripes.
+ *
+ * Each stripe has its own queue and thread. Events are assigned to a stripe by their key, hence events with the same key are handled in order,
+ * while events with different keys may be handled concurrently. With a single stripe all events are handled in order of arrival.
+ *
+ * Subscriptions may bound the number of their pending events or conflate pending events by key (see {@link SubscriptionOptions}).
+ *
+ * @author K. Foerderer
+ *
+ */
+class EventDispatcher {
+
+	private static Logger log = Logger.getLogger(EventDispatcher.class.getName());
+
+	/**
+	 * Key used for conflation of events without key.
+	 */
+	private static final Object NO_KEY = new Object();
+
+	/**
+	 * Event data for event queue.
+	 *
+	 * @author K. Foerderer
+	 *
+	 * @param <P>
+	 */
+	private static class Event<P> {
+		Subscription<P> subscription;
+		Object key;
+		P parameters;
+		/**
+		 * System.nanoTime() of queuing
+		 */
+		long queued;
+	}
+
+	/**
+	 * Handler, options and counters of a subscription.
+	 *
+	 * @author K. Foerderer
+	 *
+	 * @param <P>
+	 */
+	static class Subscription<P> {
+		final String uri;
+		final Action1<P> onEvent;
+		final SubscriptionOptions options;
+
+		/**
+		 * Number of events in stripe queues
+		 */
+		final AtomicInteger pending = new AtomicInteger();
+		/**
+		 * Newest event per key. Only used for conflation.
+		 */
+		final Map<Object, Event<P>> latest = new ConcurrentHashMap<Object, Event<P>>();
+
+		// statistics
+		final AtomicLong received = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		final AtomicLong coalesced = new AtomicLong();
+
+		Subscription(String uri, Action1<P> onEvent, SubscriptionOptions options) {
+			this.uri = uri;
+			this.onEvent = onEvent;
+			this.options = (null == options) ? new SubscriptionOptions() : options;
+		}
+
+		/**
+		 * Returns the number of dropped events.
+		 *
+		 * @return
+		 */
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		/**
+		 * Returns the number of events that have been replaced by newer ones.
+		 *
+		 * @return
+		 */
+		public long getCoalesced() {
+			return coalesced.get();
+		}
+
+		/**
+		 * Returns the event to handle for a dequeued event, or <i>null</i> if there is none.
+		 *
+		 * @param event
+		 * @return
+		 */
+		Event<P> take(Event<P> event) {
+			pending.decrementAndGet();
+			if(options.mode == SubscriptionOptions.Mode.Conflate) {
+				// handle the newest event for this key
+				return latest.remove(event.key);
+			}
+			return event;
+		}
+	}
+
+	/**
+	 * Queue and thread of a stripe.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	private static class Stripe implements Runnable {
+		BlockingQueue<Event<?>> queue = new LinkedBlockingQueue<Event<?>>();
+		Thread thread;
+		Metrics metrics;
+
+		// statistics
+		AtomicLong handled = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+		AtomicLong handlingTime = new AtomicLong(); // ns
+		AtomicInteger maxQueueDepth = new AtomicInteger();
+
+		void add(Event<?> event) {
+			queue.add(event); // add and not put to ensure fast event handling
+			int depth = queue.size();
+			int max;
+			while(depth > (max = maxQueueDepth.get()) && false == maxQueueDepth.compareAndSet(max, depth));
+		}
+
+		/**
+		 * Handles event queue using a blocking queue.
+		 */
+		@Override
+		public void run() {
+			while(true) {
+				Event<?> event;
+				try {
+					// Get next element from queue. (Blocks execution)
+					event = queue.take();
+				} catch (InterruptedException e) {
+					log.warning("Taking from event queue was interrupted.");
+					return;
+				}
+				long start = System.nanoTime();
+				if(handleEvent(event)) {
+					handlingTime.addAndGet(System.nanoTime() - start);
+					handled.incrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Helper method to deal with generic types.
+		 *
+		 * @param event
+		 * @return <i>true</i> if an event has been handled
+		 */
+		private <P> boolean handleEvent(Event<P> event) {
+			event = event.subscription.take(event);
+			if(null == event) {
+				return false;
+			}
+			long start = System.nanoTime();
+			metrics.record(Metric.QueueDelay, event.subscription.uri, start - event.queued);
+			try {
+				// actual event handling
+				event.subscription.onEvent.call(event.parameters);
+			} catch(Exception e) {
+				failed.incrementAndGet();
+				log.severe("Processing event failed.");
+				log.severe(e.toString());
+			}
+			metrics.record(Metric.HandlerDuration, event.subscription.uri, System.nanoTime() - start);
+			return true;
+		}
+	}
+
+	private String name;
+	private Stripe[] stripes;
+	private Map<String, Subscription<?>> subscriptions = new ConcurrentHashMap<String, Subscription<?>>();
+	private Timer statisticsTimer;
+
+	/**
+	 * Constructor. Starts the stripe threads.
+	 *
+	 * @param name name of the connection
+	 * @param stripes number of stripes, at least 1
+	 * @param statisticsInterval seconds between two statistics log entries, 0 to disable
+	 * @param metrics receives queue and handler measurements
+	 */
+	public EventDispatcher(String name, int stripes, int statisticsInterval, Metrics metrics) {
+		this.name = name;
+		this.stripes = new Stripe[Math.max(1, stripes)];
+		for(int i = 0; i < this.stripes.length; i++) {
+			Stripe stripe = new Stripe();
+			stripe.metrics = metrics;
+			stripe.thread = new Thread(stripe, "de.fzi.osh.wamp.connection.eventThread:" + name + (this.stripes.length > 1 ? ":" + i : ""));
+			stripe.thread.setDaemon(true);
+			stripe.thread.start();
+			this.stripes[i] = stripe;
+		}
+		if(statisticsInterval > 0) {
+			statisticsTimer = new Timer("de.fzi.osh.wamp.connection.statistics:" + name, true);
+			statisticsTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					logStatistics();
+				}
+			}, statisticsInterval * 1000L, statisticsInterval * 1000L);
+		}
+	}
+
+	/**
+	 * Creates a subscription. A previous subscription with the same uri is replaced in the statistics.
+	 *
+	 * @param uri
+	 * @param onEvent
+	 * @param options may be <i>null</i>
+	 * @return
+	 */
+	public <P> Subscription<P> subscribe(String uri, Action1<P> onEvent, SubscriptionOptions options) {
+		Subscription<P> subscription = new Subscription<P>(uri, onEvent, options);
+		subscriptions.put(uri, subscription);
+		return subscription;
+	}
+
+	/**
+	 * Returns the subscription for an uri or <i>null</i>.
+	 *
+	 * @param uri
+	 * @return
+	 */
+	public Subscription<?> getSubscription(String uri) {
+		return subscriptions.get(uri);
+	}
+
+	/**
+	 * Queues an event. Events with equal keys are handled in the order they have been added.
+	 * Events of a subscription have to be dispatched from a single thread.
+	 *
+	 * @param subscription
+	 * @param key key determining the stripe, may be <i>null</i>
+	 * @param parameters
+	 */
+	public <P> void dispatch(Subscription<P> subscription, Object key, P parameters) {
+		subscription.received.incrementAndGet();
+
+		Event<P> event = new Event<P>();
+		event.subscription = subscription;
+		event.key = (null == key) ? NO_KEY : key;
+		event.parameters = parameters;
+		event.queued = System.nanoTime();
+
+		if(subscription.options.mode == SubscriptionOptions.Mode.Conflate) {
+			Event<P> replaced = subscription.latest.put(event.key, event);
+			if(null != replaced) {
+				// the queued event of the replaced one will handle this event
+				subscription.coalesced.incrementAndGet();
+				return;
+			}
+		}
+
+		int capacity = subscription.options.capacity;
+		if(subscription.pending.incrementAndGet() > capacity && capacity > 0) {
+			subscription.pending.decrementAndGet();
+			if(subscription.options.mode == SubscriptionOptions.Mode.Conflate) {
+				subscription.latest.remove(event.key, event);
+			}
+			if(subscription.dropped.getAndIncrement() == 0) {
+				log.warning("Event queue of '" + subscription.uri + "' is full. Dropping events.");
+			}
+			return;
+		}
+		Stripe stripe = stripes[stripe(key)];
+		stripe.add(event);
+		stripe.metrics.record(Metric.QueueDepth, subscription.uri, stripe.queue.size());
+	}
+
+	/**
+	 * Returns the stripe index for a key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private int stripe(Object key) {
+		if(stripes.length == 1 || null == key) {
+			return 0;
+		}
+		int hash = key.hashCode();
+		// spread bits, since uuids and strings of similar devices often only differ in a few bits
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % stripes.length;
+	}
+
+	/**
+	 * Returns the number of stripes.
+	 *
+	 * @return
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * Returns the number of queued events of a stripe.
+	 *
+	 * @param stripe
+	 * @return
+	 */
+	public int getQueueDepth(int stripe) {
+		return stripes[stripe].queue.size();
+	}
+
+	/**
+	 * Logs and resets the per stripe statistics. Subscription counters are not reset.
+	 */
+	public void logStatistics() {
+		StringBuilder builder = new StringBuilder("Event dispatch statistics for '" + name + "':");
+		for(int i = 0; i < stripes.length; i++) {
+			Stripe stripe = stripes[i];
+			long handled = stripe.handled.getAndSet(0);
+			long time = stripe.handlingTime.getAndSet(0);
+			int depth = stripe.queue.size();
+			builder.append(" [" + i + "] handled=" + handled +
+					" failed=" + stripe.failed.getAndSet(0) +
+					" avg=" + String.format("%.2f", handled == 0 ? 0 : time / (double)handled / 1e6) + "ms" +
+					" depth=" + depth +
+					" max=" + stripe.maxQueueDepth.getAndSet(depth));
+		}
+		for(Subscription<?> subscription : subscriptions.values()) {
+			builder.append(" '" + subscription.uri + "' received=" + subscription.received.get() +
+					" pending=" + subscription.pending.get() +
+					" dropped=" + subscription.dropped.get() +
+					" coalesced=" + subscription.coalesced.get());
+		}
+		log.info(builder.toString());
+	}
+
+	/**
+	 * Stops the stripe threads. Queued events are discarded.
+	 */
+	public void shutdown() {
+		if(null != statisticsTimer) {
+			statisticsTimer.cancel();
+		}
+		for(Stripe stripe : stripes) {
+			stripe.thread.interrupt();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package de.fzi.osh.wamp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram with exponentially growing buckets. Bucket i holds values in [2^(i-1), 2^i), hence percentiles are accurate up to a factor of 2.
+ * 
+ * @author K. Foerderer
+ *
+ */
+class Histogram {
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Adds a value.
+	 * 
+	 * @param value non-negative
+	 */
+	public void add(long value) {
+		value = Math.max(0, value);
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while(value > (current = max.get()) && false == max.compareAndSet(current, value));
+	}
+	
+	/**
+	 * Returns the number of values.
+	 * 
+	 * @return
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * Returns the sum of all values.
+	 * 
+	 * @return
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+	
+	/**
+	 * Returns the largest value.
+	 * 
+	 * @return
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns an upper bound of the given percentile, but not more than the largest value.
+	 * 
+	 * @param percentile in [0, 1]
+	 * @return
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if(total == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(percentile * total);
+		long seen = 0;
+		for(int i = 0; i < 64; i++) {
+			seen += buckets.get(i);
+			if(seen >= rank) {
+				// upper border of bucket
+				long upper = (i == 0) ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+				return Math.min(upper, max.get());
+			}
+		}
+		return max.get();
+	}
+	
+	/**
+	 * Removes all values. Values added concurrently may get lost.
+	 */
+	public void reset() {
+		for(int i = 0; i < 64; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
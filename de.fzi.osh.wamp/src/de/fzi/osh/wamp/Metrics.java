@@ -0,0 +1,128 @@
+package de.fzi.osh.wamp;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import de.fzi.osh.wamp.MetricsSink.Metric;
+
+/**
+ * Collects measurements of a connection per metric and uri, forwards them to the registered sinks and logs summaries.
+ * 
+ * @author K. Foerderer
+ *
+ */
+class Metrics {
+
+	private static Logger log = Logger.getLogger(Metrics.class.getName());
+	
+	private final String name;
+	private final Map<Metric, Map<String, Histogram>> histograms = new ConcurrentHashMap<Metric, Map<String, Histogram>>();
+	private final CopyOnWriteArrayList<MetricsSink> sinks = new CopyOnWriteArrayList<MetricsSink>();
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param name name of the connection
+	 */
+	public Metrics(String name) {
+		this.name = name;
+		for(Metric metric : Metric.values()) {
+			histograms.put(metric, new ConcurrentHashMap<String, Histogram>());
+		}
+	}
+	
+	public void addSink(MetricsSink sink) {
+		sinks.add(sink);
+	}
+	
+	public void removeSink(MetricsSink sink) {
+		sinks.remove(sink);
+	}
+	
+	/**
+	 * Records a measurement.
+	 * 
+	 * @param metric
+	 * @param uri
+	 * @param value
+	 */
+	public void record(Metric metric, String uri, long value) {
+		Map<String, Histogram> uris = histograms.get(metric);
+		Histogram histogram = uris.get(uri);
+		if(null == histogram) {
+			uris.putIfAbsent(uri, new Histogram());
+			histogram = uris.get(uri);
+		}
+		histogram.add(value);
+		
+		for(MetricsSink sink : sinks) {
+			try {
+				sink.record(metric, uri, value);
+			} catch(Exception e) {
+				log.warning("Metrics sink failed: " + e.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the histogram of a metric for an uri or <i>null</i> if nothing has been recorded since the last summary.
+	 * 
+	 * @param metric
+	 * @param uri
+	 * @return
+	 */
+	public Histogram getHistogram(Metric metric, String uri) {
+		return histograms.get(metric).get(uri);
+	}
+	
+	/**
+	 * Logs a summary per uri and resets all histograms.
+	 */
+	public void logSummary() {
+		// uri -> line
+		Map<String, StringBuilder> lines = new TreeMap<String, StringBuilder>();
+		for(Metric metric : Metric.values()) {
+			for(Map.Entry<String, Histogram> entry : histograms.get(metric).entrySet()) {
+				Histogram histogram = entry.getValue();
+				if(histogram.getCount() == 0) {
+					continue;
+				}
+				StringBuilder line = lines.get(entry.getKey());
+				if(null == line) {
+					line = new StringBuilder();
+					lines.put(entry.getKey(), line);
+				}
+				line.append(" ").append(metric).append("[");
+				switch(metric) {
+				case CallError:
+				case PublishError:
+					line.append("n=").append(histogram.getCount());
+					break;
+				case QueueDepth:
+					line.append("n=").append(histogram.getCount())
+						.append(" avg=").append(histogram.getSum() / histogram.getCount())
+						.append(" max=").append(histogram.getMax());
+					break;
+				default:
+					line.append("n=").append(histogram.getCount())
+						.append(" p50=").append(milliseconds(histogram.getPercentile(0.5)))
+						.append(" p90=").append(milliseconds(histogram.getPercentile(0.9)))
+						.append(" p99=").append(milliseconds(histogram.getPercentile(0.99)))
+						.append(" max=").append(milliseconds(histogram.getMax())).append("ms");
+				}
+				line.append("]");
+				histogram.reset();
+			}
+		}
+		for(Map.Entry<String, StringBuilder> entry : lines.entrySet()) {
+			log.info("Bus metrics of '" + name + "' for '" + entry.getKey() + "':" + entry.getValue());
+		}
+	}
+	
+	private static String milliseconds(long nanoseconds) {
+		return String.format("%.2f", nanoseconds / 1e6);
+	}
+}
@@ -0,0 +1,62 @@
+package de.fzi.osh.wamp;
+
+/**
+ * Receives measurements of a connection, e.g. for forwarding them to a monitoring system.
+ * 
+ * Implementations are called on the threads performing the measured operations and have to be thread safe and fast.
+ * 
+ * @author K. Foerderer
+ *
+ */
+public interface MetricsSink {
+	
+	/**
+	 * Measured quantities.
+	 * 
+	 * @author K. Foerderer
+	 *
+	 */
+	public static enum Metric {
+		/**
+		 * Number of queued events of the dispatch thread when a publication is queued.
+		 */
+		QueueDepth,
+		/**
+		 * Time in ns a publication waited before being handled.
+		 */
+		QueueDelay,
+		/**
+		 * Time in ns a subscription handler took.
+		 */
+		HandlerDuration,
+		/**
+		 * Time in ns a procedure took to handle a call.
+		 */
+		ProcedureDuration,
+		/**
+		 * Time in ns from issuing a call until its response or error.
+		 */
+		CallLatency,
+		/**
+		 * A call failed or timed out. The value is always 1.
+		 */
+		CallError,
+		/**
+		 * Time in ns from publishing until the acknowledgment of the router.
+		 */
+		PublishLatency,
+		/**
+		 * Publishing failed. The value is always 1.
+		 */
+		PublishError
+	}
+	
+	/**
+	 * Records a measurement.
+	 * 
+	 * @param metric
+	 * @param uri topic or procedure
+	 * @param value
+	 */
+	public void record(Metric metric, String uri, long value);
+}
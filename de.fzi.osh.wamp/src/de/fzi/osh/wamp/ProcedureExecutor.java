@@ -0,0 +1,163 @@
+package de.fzi.osh.wamp;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Executes calls of registered procedures on bounded thread pools and keeps per procedure statistics.
+ *
+ * If calls have to be ordered, every thread has its own queue and calls are assigned by the caller.
+ *
+ * @author K. Foerderer
+ *
+ */
+class ProcedureExecutor {
+
+	private static Logger log = Logger.getLogger(ProcedureExecutor.class.getName());
+
+	/**
+	 * Counters of a procedure.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	static class Statistics {
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+		final AtomicLong latency = new AtomicLong(); // ns
+		final AtomicLong maxLatency = new AtomicLong(); // ns
+		final AtomicInteger inFlight = new AtomicInteger();
+
+		void record(long duration, boolean success) {
+			calls.incrementAndGet();
+			if(false == success) {
+				failed.incrementAndGet();
+			}
+			latency.addAndGet(duration);
+			long max;
+			while(duration > (max = maxLatency.get()) && false == maxLatency.compareAndSet(max, duration));
+		}
+	}
+
+	private boolean ordered;
+	private ThreadPoolExecutor[] executors;
+	private Map<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name used for thread names
+	 * @param options
+	 */
+	public ProcedureExecutor(String name, RegistrationOptions options) {
+		int threads = Math.max(1, options.threads);
+		ordered = options.ordered;
+		if(ordered) {
+			// one queue per thread
+			executors = new ThreadPoolExecutor[threads];
+			for(int i = 0; i < threads; i++) {
+				executors[i] = createExecutor(name + (threads > 1 ? ":" + i : ""), 1, Math.max(1, options.queueCapacity / threads));
+			}
+		} else {
+			executors = new ThreadPoolExecutor[] { createExecutor(name, threads, options.queueCapacity) };
+		}
+	}
+
+	private static ThreadPoolExecutor createExecutor(String name, int threads, int queueCapacity) {
+		BlockingQueue<Runnable> queue = queueCapacity > 0 ? new LinkedBlockingQueue<Runnable>(queueCapacity) : new SynchronousQueue<Runnable>();
+		AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, runnable -> {
+			Thread thread = new Thread(runnable, "de.fzi.osh.wamp.connection.procedure:" + name + (threads > 1 ? "-" + count.getAndIncrement() : ""));
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the statistics of a procedure.
+	 *
+	 * @param uri
+	 * @return
+	 */
+	Statistics getStatistics(String uri) {
+		Statistics result = statistics.get(uri);
+		if(null == result) {
+			statistics.putIfAbsent(uri, new Statistics());
+			result = statistics.get(uri);
+		}
+		return result;
+	}
+
+	/**
+	 * Queues a call.
+	 *
+	 * @param uri procedure
+	 * @param caller caller for ordering, may be <i>null</i>
+	 * @param call returns <i>false</i> if the call failed
+	 * @return <i>false</i> if the queue is full
+	 */
+	public boolean execute(String uri, Object caller, BooleanSupplier call) {
+		Statistics procedure = getStatistics(uri);
+		ThreadPoolExecutor executor = executors[0];
+		if(ordered && null != caller) {
+			executor = executors[(caller.hashCode() & 0x7fffffff) % executors.length];
+		}
+		long start = System.nanoTime();
+		procedure.inFlight.incrementAndGet();
+		try {
+			executor.execute(() -> {
+				boolean success = false;
+				try {
+					success = call.getAsBoolean();
+				} finally {
+					procedure.inFlight.decrementAndGet();
+					procedure.record(System.nanoTime() - start, success);
+				}
+			});
+			return true;
+		} catch(RejectedExecutionException e) {
+			procedure.inFlight.decrementAndGet();
+			procedure.rejected.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Logs and resets the statistics. In flight counts are not reset.
+	 *
+	 * @param name name of the connection
+	 */
+	public void logStatistics(String name) {
+		for(Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+			Statistics procedure = entry.getValue();
+			long calls = procedure.calls.getAndSet(0);
+			long latency = procedure.latency.getAndSet(0);
+			log.info("Procedure statistics for '" + entry.getKey() + "' on '" + name + "': calls=" + calls +
+					" failed=" + procedure.failed.getAndSet(0) +
+					" rejected=" + procedure.rejected.getAndSet(0) +
+					" in flight=" + procedure.inFlight.get() +
+					" latency avg=" + String.format("%.2f", calls == 0 ? 0 : latency / (double)calls / 1e6) + "ms" +
+					" max=" + String.format("%.2f", procedure.maxLatency.getAndSet(0) / 1e6) + "ms");
+		}
+	}
+
+	/**
+	 * Stops the threads. Queued calls are discarded.
+	 */
+	public void shutdown() {
+		for(ThreadPoolExecutor executor : executors) {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package de.fzi.osh.wamp;
+
+/**
+ * Options for executing the calls of a registered procedure on its own threads instead of the connection thread.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class RegistrationOptions {
+	/**
+	 * Number of threads handling calls.
+	 */
+	public int threads = 1;
+	/**
+	 * Maximum number of calls waiting for a thread. Further calls are answered with an error.
+	 */
+	public int queueCapacity = 100;
+	/**
+	 * If <i>true</i>, calls of the same caller are handled in order of arrival. Callers are only distinguished if the router discloses them,
+	 * otherwise all calls are handled in order.
+	 */
+	public boolean ordered = false;
+	/**
+	 * Procedures with the same group share their threads (and order). If <i>null</i> the procedure uses threads of its own.
+	 * The options of the first registration of a group apply.
+	 */
+	public String group = null;
+
+	/**
+	 * Returns options for handling calls concurrently.
+	 *
+	 * @param threads
+	 * @param queueCapacity
+	 * @return
+	 */
+	public static RegistrationOptions pool(int threads, int queueCapacity) {
+		RegistrationOptions options = new RegistrationOptions();
+		options.threads = threads;
+		options.queueCapacity = queueCapacity;
+		return options;
+	}
+
+	/**
+	 * Returns options for handling calls in order of arrival on a thread shared by all procedures of the group.
+	 *
+	 * @param group
+	 * @param queueCapacity
+	 * @return
+	 */
+	public static RegistrationOptions ordered(String group, int queueCapacity) {
+		RegistrationOptions options = new RegistrationOptions();
+		options.threads = 1;
+		options.queueCapacity = queueCapacity;
+		options.ordered = true;
+		options.group = group;
+		return options;
+	}
+}
@@ -0,0 +1,61 @@
+package de.fzi.osh.wamp;
+
+/**
+ * Options for queuing publications of a subscription.
+ *
+ * @author K. Foerderer
+ *
+ */
+public class SubscriptionOptions {
+
+	/**
+	 * How pending publications are queued.
+	 *
+	 * @author K. Foerderer
+	 *
+	 */
+	public static enum Mode {
+		/**
+		 * Every publication is handled.
+		 */
+		Queue,
+		/**
+		 * Only the newest pending publication per key is handled. Older pending publications with the same key are replaced.
+		 */
+		Conflate
+	}
+
+	/**
+	 * Queuing mode.
+	 */
+	public Mode mode = Mode.Queue;
+	/**
+	 * Maximum number of pending publications. Further publications are dropped. 0 means unbounded.
+	 * In {@link Mode#Conflate} this is the maximum number of keys with a pending publication.
+	 */
+	public int capacity = 0;
+
+	/**
+	 * Returns options for handling every publication with at most $capacity pending publications.
+	 *
+	 * @param capacity
+	 * @return
+	 */
+	public static SubscriptionOptions queue(int capacity) {
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.mode = Mode.Queue;
+		options.capacity = capacity;
+		return options;
+	}
+
+	/**
+	 * Returns options for handling the newest publication per key only.
+	 *
+	 * @return
+	 */
+	public static SubscriptionOptions conflate() {
+		SubscriptionOptions options = new SubscriptionOptions();
+		options.mode = Mode.Conflate;
+		return options;
+	}
+}
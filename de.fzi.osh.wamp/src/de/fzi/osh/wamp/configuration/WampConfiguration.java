@@ -7,6 +7,20 @@ package de.fzi.osh.wamp.configuration;
  *
  */
 public class WampConfiguration {
+	/**
+	 * Supported message serializations.
+	 * 
+	 * @author K. Foerderer
+	 *
+	 */
+	public static enum Serialization {
+		Json,
+		/**
+		 * Binary, smaller messages and cheaper parsing.
+		 */
+		MessagePack
+	}
+	
 	/**
 	 * Server url.
 	 */
@@ -23,4 +37,17 @@ public class WampConfiguration {
 	 * Max payload size for a websocket frame. Default value is 64kB taken from jawampa default netty configuration.
 	 */
 	public int maxFramePayloadLength = 65535;
+	/**
+	 * Serializations offered to the router in order of preference. The router has to support at least one of them.
+	 */
+	public Serialization[] serializations = {Serialization.Json, Serialization.MessagePack};
+	/**
+	 * Number of threads handling publications. Publications of the same topic (or key) are always handled by the same thread and in order.
+	 * A single thread handles all publications in order of arrival.
+	 */
+	public int dispatchThreads = 1;
+	/**
+	 * Seconds between logging dispatch, procedure and latency statistics. 0 disables logging.
+	 */
+	public int dispatchStatisticsInterval = 0;
 }
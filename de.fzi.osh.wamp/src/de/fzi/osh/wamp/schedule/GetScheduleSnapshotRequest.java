@@ -0,0 +1,25 @@
+package de.fzi.osh.wamp.schedule;
+
+/**
+ * Parameters for a schedule snapshot request:
+ * Returns the schedule together with all flexibilities and tasks within the given time period between $from (>=now) and $to.
+ * 
+ * @param from Starting time as Unix time.
+ * @param to End time as Unix time.
+ * @return {@link GetScheduleSnapshotResponse}
+ */
+public class GetScheduleSnapshotRequest {
+	/**
+	 * Lower time frame border.
+	 */
+	public long from;
+	/**
+	 * Upper time frame border.
+	 */
+	public long to;
+	
+	@Override
+	public String toString() {
+		return GetScheduleSnapshotRequest.class.getName() + "{from: " + from + ", to: " + to + "}";
+	}
+}
@@ -0,0 +1,45 @@
+package de.fzi.osh.wamp.schedule;
+
+import java.util.UUID;
+
+import de.fzi.osh.types.flexibilities.Flexibility;
+import de.fzi.osh.types.flexibilities.Task;
+
+/**
+ * Schedule of a device including all flexibilities and tasks, so that no further requests are necessary.
+ * 
+ * @author K. Foerderer
+ *
+ */
+public class GetScheduleSnapshotResponse {
+	
+	/**
+	 * UUID of device providing flexibility.
+	 */
+	public UUID uuid;
+	
+	/**
+	 * Starting epoch seconds.
+	 */
+	public long from;
+	
+	/**
+	 * Ending epoch seconds.
+	 */
+	public long to;
+	
+	/**
+	 * All tasks running within the given time frame.
+	 */
+	public Task[] tasks;
+	
+	/**
+	 * All relevant flexibilities.
+	 */
+	public Flexibility[] flexibilities;
+	
+	/**
+	 * The constraints as linear inequalities.
+	 */
+	public String[] constraints;
+}
\ No newline at end of file
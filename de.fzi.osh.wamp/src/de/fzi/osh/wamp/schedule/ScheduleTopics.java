@@ -31,6 +31,13 @@ public class ScheduleTopics {
 		return prefix + "." + (uuid == null ? "" : uuid.toString()) + ".schedule.get";
 	}
 	
+	/**
+	 * Topic used for requesting a schedule including all flexibilities and tasks.
+	 */
+	public final String getScheduleSnapshot(UUID uuid) {
+		return prefix + "." + (uuid == null ? "" : uuid.toString()) + ".schedule.snapshot.get";
+	}
+	
 	/**
 	 * Topic for signalling schedule changes.
 	 * 
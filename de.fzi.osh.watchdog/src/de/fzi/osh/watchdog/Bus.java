@@ -4,9 +4,9 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
-import de.fzi.osh.wamp.Action1;
 import de.fzi.osh.wamp.Connection;
 import de.fzi.osh.wamp.device.battery.BatteryState;
 import de.fzi.osh.wamp.device.battery.BatteryTopics;
@@ -38,7 +38,7 @@ public class Bus{
 	private Connection connection;
 	
 	public Bus(Configuration configuration) {
-		connection = new Connection(configuration.wamp.url, configuration.wamp.realm, configuration.wamp.maxFramePayloadLength, "watchdog");
+		connection = new Connection(configuration.wamp, "watchdog");
 		
 		mostRecentMeterData = new HashMap<UUID, Long>();
 		
@@ -76,25 +76,6 @@ public class Bus{
 		}
 	}
 
-	/**
-	 * Class for making call responses accessible.
-	 * 
-	 * @author Foerderer K.
-	 *
-	 */
-	private static class ResponseContainer<T> implements Action1<T>{
-		private T result = null;
-		
-		@Override
-		public void call(T t) {
-			result = t;
-		}
-		
-		public T getResult() {
-			return result;
-		}
-	}
-	
 	/**
 	 * Executes an echo as blocking function call. Returns an empty string after 1 second without response.
 	 * 
@@ -102,36 +83,21 @@ public class Bus{
 	 * @return
 	 */
 	public String echo(String in) {
-		Object lock = new Object();
 		// fill in parameters
 		EchoRequest request = new EchoRequest();
 		request.in = in;
-		ResponseContainer<EchoResponse> action = new ResponseContainer<EchoResponse>();
 		// do call
-		connection.call(watchdogTopics.echo(), request, EchoResponse.class, action, 
-		error -> {
-			synchronized (lock) {
-				lock.notifyAll();
-			}			
-		}, () -> {
-			synchronized (lock) {
-				lock.notifyAll();
-			}
-		});
-		
-		synchronized (lock) {
-			try {
-				lock.wait(1000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-		
-		if(action.getResult() == null) {
+		try {
+			EchoResponse response = connection.callAsync(watchdogTopics.echo(), request, EchoResponse.class, 1000).get();
+			return null == response ? "" : response.out;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.fine("Echo interrupted.");
+			return "";
+		} catch (ExecutionException e) {
+			log.fine("Echo failed: " + e.toString());
 			return "";
 		}
-		
-		return action.getResult().out;
 	}
 	
 	/**
@@ -151,32 +117,18 @@ public class Bus{
 	 * @return
 	 */
 	public BatteryState getBatteryState(UUID uuid) {
-		Object lock = new Object();
 		// create request
 		GetBatteryStateRequest request = new GetBatteryStateRequest();
-		// create reponse container
-		ResponseContainer<GetBatteryStateResponse> action = new ResponseContainer<GetBatteryStateResponse>();
 		// do request
-		connection.call(batteryTopics.getBatteryState(uuid), request, GetBatteryStateResponse.class, action, 
-		error -> {
-			synchronized (lock) {
-				lock.notifyAll();
-			}			
-		}, () -> {
-			synchronized (lock) {
-				lock.notifyAll();
-			}
-		});
-		
-		// wait
-		synchronized (lock) {
-			try {
-				lock.wait(1000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+		try {
+			return connection.callAsync(batteryTopics.getBatteryState(uuid), request, GetBatteryStateResponse.class, 1000).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.fine("Retrieving battery state of '" + uuid + "' interrupted.");
+			return null;
+		} catch (ExecutionException e) {
+			log.fine("Retrieving battery state of '" + uuid + "' failed: " + e.toString());
+			return null;
 		}
-		
-		return action.getResult();
 	}
 }